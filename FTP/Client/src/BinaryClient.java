@@ -0,0 +1,208 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Opérations du client en protocole binaire (protocol=binary) sur une seule connexion
+ * multiplexée avec le master. Un téléchargement complet est découpé en plages demandées
+ * toutes d'un coup (pipelining) ; leurs réponses arrivent entrelacées et sont écrites
+ * chacune à sa position dans le fichier.
+ */
+public class BinaryClient implements Closeable {
+    private static final long MIN_RANGE_SIZE = 1024 * 1024;
+
+    private final BinaryProtocol.Connection connection;
+    private final int parallelRanges;
+    private final int maxBusyRetries;
+
+    public BinaryClient(String serverIp, int serverPort, int parallelRanges, int maxBusyRetries) throws IOException {
+        this.connection = new BinaryProtocol.Connection(new Socket(serverIp, serverPort));
+        this.parallelRanges = Math.max(1, parallelRanges);
+        this.maxBusyRetries = maxBusyRetries;
+    }
+
+    public void listFiles() throws IOException {
+        BinaryProtocol.Connection.Call call = connection.call(BinaryProtocol.OP_LIST, new byte[0]);
+        if (call.status() != BinaryProtocol.STATUS_OK) {
+            System.out.println("Erreur : " + call.errorMessage());
+            return;
+        }
+        DataInputStream body = call.body();
+        int fileCount = body.readInt();
+        if (fileCount == 0) {
+            System.out.println("Aucun fichier sur le serveur.");
+            return;
+        }
+        System.out.println("\nFichiers disponibles sur le serveur :");
+        for (int i = 0; i < fileCount; i++) {
+            String fileName = body.readUTF();
+            int partCount = body.readInt();
+            System.out.println("- " + fileName + " (" + partCount + " parties)");
+        }
+    }
+
+    // Affiche une page de LIST_PAGE ; retourne le curseur de la page suivante, vide après la dernière
+    public String listPage(String prefix, String startAfter, int pageSize) throws IOException {
+        BinaryProtocol.Connection.Call call = connection.call(BinaryProtocol.OP_LIST_PAGE, BinaryProtocol.payload(out -> {
+            out.writeUTF(prefix);
+            out.writeUTF(startAfter);
+            out.writeInt(pageSize);
+        }));
+        if (call.status() != BinaryProtocol.STATUS_OK) {
+            System.out.println("Erreur : " + call.errorMessage());
+            return "";
+        }
+        return Client.printListPage(call.body());
+    }
+
+    public void removeFile(String fileName) throws IOException {
+        BinaryProtocol.Connection.Call call = connection.call(BinaryProtocol.OP_REMOVE,
+                BinaryProtocol.payload(out -> out.writeUTF(fileName)));
+        if (call.status() == BinaryProtocol.STATUS_OK) {
+            System.out.println("Fichier supprimé avec succès");
+        } else {
+            System.out.println("Erreur (" + BinaryProtocol.statusName(call.status()) + ") : " + call.errorMessage());
+        }
+    }
+
+    public File getRange(String fileName, long offset, long length, String saveDirectory) throws IOException {
+        BinaryProtocol.Connection.Call call = awaitRange(requestRange(fileName, offset, length), fileName, offset, length);
+        if (call.status() != BinaryProtocol.STATUS_OK) {
+            System.out.println("Erreur (" + BinaryProtocol.statusName(call.status()) + ") : " + call.errorMessage());
+            return null;
+        }
+        try {
+            DataInputStream body = call.body();
+            long rangeLength = body.readLong();
+            File rangeFile = new File(directory(saveDirectory), Namespace.baseName(fileName) + "." + offset + "-" + (offset + rangeLength));
+            try (FileChannel channel = FileChannel.open(rangeFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                copyBody(body, rangeLength, channel, 0);
+            }
+            return rangeFile;
+        } finally {
+            call.cancel(); // Sans effet si le corps a été lu jusqu'au bout
+        }
+    }
+
+    /**
+     * Télécharge le fichier entier : la taille vient de GET_MAP, puis les plages sont toutes
+     * demandées avant d'être lues en parallèle (une file de réponse par plage).
+     */
+    public File download(String fileName, String saveDirectory) throws IOException {
+        BinaryProtocol.Connection.Call mapCall = connection.call(BinaryProtocol.OP_GET_MAP,
+                BinaryProtocol.payload(out -> out.writeUTF(fileName)));
+        if (mapCall.status() != BinaryProtocol.STATUS_OK) {
+            System.out.println("Erreur (" + BinaryProtocol.statusName(mapCall.status()) + ") : " + mapCall.errorMessage());
+            return null;
+        }
+        long fileSize = mapCall.body().readLong();
+
+        int rangeCount = (int) Math.max(1, Math.min(parallelRanges, fileSize / MIN_RANGE_SIZE));
+        long rangeSize = fileSize / rangeCount + ((fileSize % rangeCount == 0) ? 0 : 1);
+        List<BinaryProtocol.Connection.Call> calls = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        for (long offset = 0; offset < fileSize; offset += rangeSize) {
+            calls.add(requestRange(fileName, offset, Math.min(rangeSize, fileSize - offset)));
+            offsets.add(offset);
+        }
+
+        File outputFile = new File(directory(saveDirectory), Namespace.baseName(fileName));
+        ExecutorService readers = Executors.newFixedThreadPool(Math.max(1, calls.size()));
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < calls.size(); i++) {
+                BinaryProtocol.Connection.Call pipelined = calls.get(i);
+                long offset = offsets.get(i);
+                long length = Math.min(rangeSize, fileSize - offset);
+                results.add(readers.submit(() -> {
+                    BinaryProtocol.Connection.Call call = awaitRange(pipelined, fileName, offset, length);
+                    try {
+                        if (call.status() != BinaryProtocol.STATUS_OK) {
+                            throw new IOException("Plage @" + offset + " : " + call.errorMessage());
+                        }
+                        DataInputStream body = call.body();
+                        copyBody(body, body.readLong(), channel, offset);
+                        return null;
+                    } finally {
+                        call.cancel();
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            outputFile.delete();
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Téléchargement interrompu");
+        } finally {
+            readers.shutdownNow();
+            // Plages dont la lecture n'a pas commencé ou a été interrompue : leurs trames seront jetées
+            for (BinaryProtocol.Connection.Call call : calls) {
+                call.cancel();
+            }
+        }
+        return outputFile;
+    }
+
+    // Une plage refusée (STATUS_BUSY) est redemandée seule, après l'attente conseillée par le master
+    private BinaryProtocol.Connection.Call awaitRange(BinaryProtocol.Connection.Call call, String fileName,
+                                                      long offset, long length) throws IOException {
+        BusyRetry retry = new BusyRetry(maxBusyRetries);
+        try {
+            while (call.status() == BinaryProtocol.STATUS_BUSY && retry.await(call.retryAfterMs())) {
+                call = requestRange(fileName, offset, length);
+            }
+        } catch (IOException e) {
+            call.cancel();
+            throw e;
+        }
+        return call;
+    }
+
+    private BinaryProtocol.Connection.Call requestRange(String fileName, long offset, long length) throws IOException {
+        return connection.call(BinaryProtocol.OP_GET_RANGE, BinaryProtocol.payload(out -> {
+            out.writeUTF(fileName);
+            out.writeLong(offset);
+            out.writeLong(length);
+        }));
+    }
+
+    private static void copyBody(DataInputStream body, long length, FileChannel channel, long position) throws IOException {
+        byte[] buffer = new byte[BinaryProtocol.CHUNK_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            int bytesRead = body.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (bytesRead == -1) {
+                throw new EOFException("Fin de la réponse inattendue");
+            }
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, bytesRead);
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+            remaining -= bytesRead;
+        }
+    }
+
+    private static File directory(String path) throws IOException {
+        File directory = new File(path);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire : " + path);
+        }
+        return directory;
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Nouvelles tentatives après un refus du master (réponse "BUSY:<ms>" ou STATUS_BUSY).
+ * L'attente vaut au moins le délai conseillé par le master et double à chaque refus ;
+ * une part aléatoire évite que les clients refusés en même temps reviennent ensemble.
+ * Une instance par opération : au-delà de maxRetries refus, l'opération est abandonnée.
+ */
+public class BusyRetry {
+    private static final long MIN_DELAY_MS = 100;
+    private static final long MAX_DELAY_MS = 30000;
+
+    private final int maxRetries;
+    private int retries = 0;
+
+    public BusyRetry(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    // Délai conseillé d'une réponse texte "BUSY:<ms>", -1 pour toute autre réponse
+    public static long parseBusy(String response) {
+        if (response == null || !response.startsWith("BUSY:")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(response.substring("BUSY:".length()).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Attend avant la tentative suivante. Retourne false, sans attendre, si le nombre
+     * maximal de nouvelles tentatives est atteint.
+     */
+    public boolean await(long retryAfterMs) throws InterruptedIOException {
+        if (retries >= maxRetries) {
+            System.out.println("Serveur toujours occupé après " + retries + " nouvelles tentatives, abandon.");
+            return false;
+        }
+        long base = Math.min(MAX_DELAY_MS, Math.max(MIN_DELAY_MS, retryAfterMs) << Math.min(retries, 8));
+        long delay = Math.min(MAX_DELAY_MS, base + ThreadLocalRandom.current().nextLong(base / 2 + 1));
+        retries++;
+        System.out.println("Serveur occupé, nouvelle tentative " + retries + "/" + maxRetries + " dans " + delay + " ms");
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Attente interrompue");
+        }
+        return true;
+    }
+}
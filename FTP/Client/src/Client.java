@@ -1,11 +1,20 @@
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Scanner;
 
 public class Client {
     private String serverIp;
     private int serverPort;
+    private boolean streamingGet = true; // GET_STREAM (parties relayées) ou GET (fichier fusionné)
+    private boolean directDataPath = false; // Données échangées directement avec les slaves
+    private boolean binaryProtocol = false; // LIST, GET, REMOVE et plages en protocole binaire multiplexé
+    private int binaryParallelRanges = 4;
+    private int admissionMaxRetries = 5; // Nouvelles tentatives quand le master répond BUSY
+    private DirectTransfer directTransfer = new DirectTransfer(3000, 30000);
+    private BinaryClient binaryClient;
 
     public Client(String configFilePath) {
         Properties properties = new Properties();
@@ -13,6 +22,14 @@ public class Client {
             properties.load(input);
             this.serverIp = properties.getProperty("serverIp");
             this.serverPort = Integer.parseInt(properties.getProperty("serverPort"));
+            this.streamingGet = !"merged".equalsIgnoreCase(properties.getProperty("getMode", "stream"));
+            this.directDataPath = "direct".equalsIgnoreCase(properties.getProperty("dataPath", "proxy"));
+            this.binaryProtocol = "binary".equalsIgnoreCase(properties.getProperty("protocol", "text"));
+            this.binaryParallelRanges = Integer.parseInt(properties.getProperty("binaryParallelRanges", "4"));
+            this.admissionMaxRetries = Integer.parseInt(properties.getProperty("admissionMaxRetries", "5"));
+            this.directTransfer = new DirectTransfer(
+                    Integer.parseInt(properties.getProperty("slaveConnectTimeoutMs", "3000")),
+                    Integer.parseInt(properties.getProperty("slaveReadTimeoutMs", "30000")));
         } catch (IOException ex) {
             ex.printStackTrace();
         }
@@ -24,6 +41,10 @@ public class Client {
              DataOutputStream dos = new DataOutputStream(socket.getOutputStream())) {
 
             System.out.println("Connecté au serveur : " + serverIp + ":" + serverPort);
+            if (binaryProtocol) {
+                // Seconde connexion, multiplexée ; l'ajout de fichiers reste sur la connexion texte
+                binaryClient = new BinaryClient(serverIp, serverPort, binaryParallelRanges, admissionMaxRetries);
+            }
 
             Scanner scanner = new Scanner(System.in);
             boolean running = true;
@@ -35,7 +56,11 @@ public class Client {
                     System.out.println("2. Ajouter un fichier");
                     System.out.println("3. Télécharger un fichier");
                     System.out.println("4. Supprimer un fichier");
-                    System.out.println("5. Quitter");
+                    System.out.println("5. Télécharger une plage d'octets");
+                    System.out.println("6. Lister les fichiers par préfixe, page par page");
+                    System.out.println("7. Lister un répertoire");
+                    System.out.println("8. Supprimer un répertoire");
+                    System.out.println("9. Quitter");
                     System.out.print("Choisissez une option : ");
 
                     int choix = scanner.nextInt();
@@ -55,6 +80,18 @@ public class Client {
                             removeFile(dos, dis, scanner);
                             break;
                         case 5:
+                            getRange(dos, dis, scanner);
+                            break;
+                        case 6:
+                            listFilesPaged(dos, dis, scanner);
+                            break;
+                        case 7:
+                            listDirectory(dos, dis, scanner);
+                            break;
+                        case 8:
+                            removeDirectory(dos, dis, scanner);
+                            break;
+                        case 9:
                             dos.writeUTF("QUIT");
                             running = false;
                             break;
@@ -68,11 +105,19 @@ public class Client {
             }
         } catch (IOException e) {
             System.err.println("Erreur de connexion : " + e.getMessage());
+        } finally {
+            if (binaryClient != null) {
+                binaryClient.close();
+            }
         }
     }
 
     // Modifier la méthode listFiles :
     private void listFiles(DataOutputStream dos, DataInputStream dis) throws IOException {
+        if (binaryClient != null) {
+            binaryClient.listFiles();
+            return;
+        }
         dos.writeUTF("LIST");
         dos.flush();
 
@@ -90,10 +135,87 @@ public class Client {
         }
     }
 
+    // Contenu direct d'un répertoire ; toujours sur la connexion texte, même en protocole binaire
+    private void listDirectory(DataOutputStream dos, DataInputStream dis, Scanner scanner) throws IOException {
+        System.out.print("Répertoire (vide : la racine) : ");
+        String directory = scanner.nextLine();
+        dos.writeUTF("LIST_DIR");
+        dos.writeUTF(directory);
+        dos.flush();
+
+        int count = dis.readInt();
+        if (count == 0) {
+            System.out.println("Répertoire vide ou introuvable.");
+            return;
+        }
+        System.out.println("\nContenu de /" + directory + " :");
+        for (int i = 0; i < count; i++) {
+            String name = dis.readUTF();
+            int partCount = dis.readInt();
+            System.out.println(name.endsWith("/") ? "- " + name : "- " + name + " (" + partCount + " parties)");
+        }
+    }
+
+    private void removeDirectory(DataOutputStream dos, DataInputStream dis, Scanner scanner) throws IOException {
+        System.out.print("Répertoire à supprimer, avec tout son contenu : ");
+        String directory = scanner.nextLine();
+        dos.writeUTF("REMOVE_DIR");
+        dos.writeUTF(directory);
+        dos.flush();
+        System.out.println(dis.readUTF());
+    }
+
+    // Pages triées de LIST_PAGE, demandées une à une tant que l'utilisateur veut la suite
+    private void listFilesPaged(DataOutputStream dos, DataInputStream dis, Scanner scanner) throws IOException {
+        System.out.print("Préfixe des noms (vide : tous les fichiers) : ");
+        String prefix = scanner.nextLine();
+        System.out.print("Fichiers par page : ");
+        int pageSize = scanner.nextInt();
+        scanner.nextLine();
+
+        String cursor = "";
+        do {
+            if (binaryClient != null) {
+                cursor = binaryClient.listPage(prefix, cursor, pageSize);
+            } else {
+                dos.writeUTF("LIST_PAGE");
+                dos.writeUTF(prefix);
+                dos.writeUTF(cursor);
+                dos.writeInt(pageSize);
+                dos.flush();
+                cursor = printListPage(dis);
+            }
+            if (!cursor.isEmpty()) {
+                System.out.print("Entrée : page suivante, q : arrêter ");
+                if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                    return;
+                }
+            }
+        } while (!cursor.isEmpty());
+    }
+
+    // Lit et affiche une page de LIST_PAGE ; retourne le curseur de la page suivante
+    static String printListPage(DataInputStream in) throws IOException {
+        int fileCount = in.readInt();
+        if (fileCount == 0) {
+            System.out.println("Aucun fichier.");
+        }
+        for (int i = 0; i < fileCount; i++) {
+            String fileName = in.readUTF();
+            int partCount = in.readInt();
+            System.out.println("- " + fileName + " (" + partCount + " parties)");
+        }
+        return in.readUTF();
+    }
+
     private void removeFile(DataOutputStream dos, DataInputStream dis, Scanner scanner) throws IOException {
         System.out.print("Entrez le nom du fichier à supprimer : ");
         String fileName = scanner.nextLine();
 
+        if (binaryClient != null) {
+            binaryClient.removeFile(fileName);
+            return;
+        }
         dos.writeUTF("REMOVE");
         dos.writeUTF(fileName);
 
@@ -110,16 +232,45 @@ public class Client {
             System.out.println("Fichier introuvable. Vérifiez le chemin.");
             return;
         }
+        System.out.print("Chemin sur le serveur (vide : " + file.getName() + ") : ");
+        String remotePath = scanner.nextLine().trim();
+        if (remotePath.isEmpty()) {
+            remotePath = file.getName();
+        }
+
+        if (directDataPath) {
+            addFileDirect(dos, dis, file, remotePath);
+            return;
+        }
+
+        // Admission demandée avant d'envoyer les données, pour ne pas les transmettre en vain
+        BusyRetry retry = new BusyRetry(admissionMaxRetries);
+        while (true) {
+            dos.writeUTF("ADMIT");
+            dos.writeUTF("ADD");
+            dos.writeLong(file.length());
+            dos.flush();
+            String admission = dis.readUTF();
+            long retryAfter = BusyRetry.parseBusy(admission);
+            if (retryAfter < 0) {
+                break;
+            }
+            if (!retry.await(retryAfter)) {
+                return;
+            }
+        }
 
         dos.writeUTF("ADD");
-        FileTransferUtils.sendFile(dos, filePath);
+        FileTransferUtils.sendFile(dos, filePath, remotePath);
 
         String serverResponse = dis.readUTF();
         System.out.println(serverResponse);
         if (serverResponse.startsWith("SUCCESS")) {
             System.out.println("Fichier ajouté avec succès.");
+        } else if (BusyRetry.parseBusy(serverResponse) >= 0) {
+            System.out.println("Échec de l'ajout : serveur occupé, réessayez plus tard.");
         } else {
-            System.out.println("Échec de l'ajout. Fichier déjà présent sur le serveur.");
+            System.out.println("Échec de l'ajout : chemin déjà utilisé sur le serveur.");
         }
     }
 
@@ -127,21 +278,169 @@ public class Client {
         System.out.print("Entrez le nom du fichier à télécharger : ");
         String fileName = scanner.nextLine();
 
-        dos.writeUTF("GET");
+        if (directDataPath) {
+            getFileDirect(dos, dis, fileName);
+            return;
+        }
+        if (binaryClient != null) {
+            File downloadedFile = binaryClient.download(fileName, "./downloads");
+            if (downloadedFile != null) {
+                System.out.println("Fichier téléchargé : " + downloadedFile.getAbsolutePath());
+            }
+            return;
+        }
+
+        BusyRetry retry = new BusyRetry(admissionMaxRetries);
+        String status;
+        do {
+            dos.writeUTF(streamingGet ? "GET_STREAM" : "GET");
+            dos.writeUTF(fileName);
+            dos.flush();
+
+            // Lire la réponse du serveur
+            status = dis.readUTF();
+        } while (BusyRetry.parseBusy(status) >= 0 && retry.await(BusyRetry.parseBusy(status)));
+        if (!status.startsWith("SUCCESS")) {
+            System.out.println("Erreur : " + status);
+            return;
+        }
+
+        File downloadedFile;
+        if (streamingGet) {
+            String name = dis.readUTF();
+            int partCount = dis.readInt();
+            downloadedFile = FileTransferUtils.receivePartedFile(dis, "./downloads", name, partCount);
+            if (downloadedFile == null) {
+                return; // Erreur déjà affichée ; la connexion reste ouverte pour la commande suivante
+            }
+        } else {
+            downloadedFile = FileTransferUtils.receiveFile(dis, "./downloads");
+        }
+        System.out.println("Fichier téléchargé : " + downloadedFile.getAbsolutePath());
+    }
+
+    private void getRange(DataOutputStream dos, DataInputStream dis, Scanner scanner) throws IOException {
+        System.out.print("Entrez le nom du fichier : ");
+        String fileName = scanner.nextLine();
+        System.out.print("Position de départ (octets) : ");
+        long offset = scanner.nextLong();
+        System.out.print("Nombre d'octets : ");
+        long length = scanner.nextLong();
+        scanner.nextLine();
+
+        if (binaryClient != null) {
+            File rangeFile = binaryClient.getRange(fileName, offset, length, "./downloads");
+            if (rangeFile != null) {
+                System.out.println("Plage téléchargée (" + rangeFile.length() + " octets) : " + rangeFile.getAbsolutePath());
+            }
+            return;
+        }
+        BusyRetry retry = new BusyRetry(admissionMaxRetries);
+        String status;
+        do {
+            dos.writeUTF("GET_RANGE");
+            dos.writeUTF(fileName);
+            dos.writeLong(offset);
+            dos.writeLong(length);
+            dos.flush();
+
+            status = dis.readUTF();
+        } while (BusyRetry.parseBusy(status) >= 0 && retry.await(BusyRetry.parseBusy(status)));
+        if (!status.startsWith("SUCCESS")) {
+            System.out.println(status);
+            return;
+        }
+
+        long rangeLength = dis.readLong();
+        File directory = new File("./downloads");
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire : " + directory);
+        }
+        File rangeFile = new File(directory, Namespace.baseName(fileName) + "." + offset + "-" + (offset + rangeLength));
+        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(rangeFile))) {
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = rangeLength;
+            while (remaining > 0) {
+                int bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (bytesRead == -1) {
+                    throw new EOFException("Fin du flux inattendue");
+                }
+                bos.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+        }
+        System.out.println("Plage téléchargée (" + rangeLength + " octets) : " + rangeFile.getAbsolutePath());
+    }
+
+    // Mode direct : le master fournit le placement, les parties partent directement vers les slaves
+    private void addFileDirect(DataOutputStream dos, DataInputStream dis, File file, String remotePath) throws IOException {
+        dos.writeUTF("ADD_MAP");
+        dos.writeUTF(remotePath);
+        dos.writeLong(file.length());
+        dos.flush();
+
+        String status = dis.readUTF();
+        if (!status.startsWith("SUCCESS")) {
+            System.out.println(status);
+            return;
+        }
+        boolean chain = dis.readBoolean();
+        long partSize = dis.readLong();
+        List<List<SlaveInfo>> placement = readPlacement(dis);
+        long version = dis.readLong();
+
+        List<List<SlaveInfo>> stored = directTransfer.upload(file, remotePath, version, partSize, placement, chain);
+
+        dos.writeUTF("ADD_COMMIT");
+        dos.writeUTF(remotePath);
+        dos.writeLong(file.length());
+        dos.writeInt(stored.size());
+        for (List<SlaveInfo> replicas : stored) {
+            dos.writeInt(replicas.size());
+            for (SlaveInfo slave : replicas) {
+                dos.writeUTF(slave.getIp());
+                dos.writeInt(slave.getPort());
+            }
+        }
+        dos.flush();
+
+        String serverResponse = dis.readUTF();
+        System.out.println(serverResponse);
+    }
+
+    // Mode direct : le master fournit la carte des parties, le client les lit sur les slaves
+    private void getFileDirect(DataOutputStream dos, DataInputStream dis, String fileName) throws IOException {
+        dos.writeUTF("GET_MAP");
         dos.writeUTF(fileName);
         dos.flush();
 
-        // Lire la réponse du serveur
         String status = dis.readUTF();
-        if (status.startsWith("ERROR")) {
+        if (!status.startsWith("SUCCESS")) {
             System.out.println("Erreur : " + status);
             return;
         }
+        long fileSize = dis.readLong();
+        List<List<SlaveInfo>> placement = readPlacement(dis);
+        long version = dis.readLong();
 
-        File downloadedFile = FileTransferUtils.receiveFile(dis, "./downloads");
+        File downloadedFile = directTransfer.download(fileName, version, fileSize, placement, "./downloads");
         System.out.println("Fichier téléchargé : " + downloadedFile.getAbsolutePath());
     }
 
+    private List<List<SlaveInfo>> readPlacement(DataInputStream dis) throws IOException {
+        int partCount = dis.readInt();
+        List<List<SlaveInfo>> placement = new ArrayList<>();
+        for (int i = 0; i < partCount; i++) {
+            int replicaCount = dis.readInt();
+            List<SlaveInfo> replicas = new ArrayList<>();
+            for (int j = 0; j < replicaCount; j++) {
+                replicas.add(new SlaveInfo(dis.readUTF(), dis.readInt()));
+            }
+            placement.add(replicas);
+        }
+        return placement;
+    }
+
     public static void main(String[] args) {
         String configFilePath = "E:\\FTP\\Client\\configClient.properties";
         new Client(configFilePath).start();
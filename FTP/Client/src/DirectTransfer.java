@@ -0,0 +1,248 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Transferts directs entre le client et les slaves : le master ne fournit que la carte
+ * des parties (GET_MAP / ADD_MAP) et les données ne passent plus par lui.
+ */
+public class DirectTransfer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs; // Un slave bloqué fait passer à la réplique suivante
+
+    public DirectTransfer(int connectTimeoutMs, int readTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    /**
+     * Télécharge toutes les parties en parallèle et les écrit à leur position dans le fichier final.
+     * Si la taille du fichier est inconnue (-1), les parties sont lues l'une après l'autre.
+     */
+    public File download(String fileName, long version, long fileSize, List<List<SlaveInfo>> placement, String saveDirectory) throws IOException {
+        File directory = new File(saveDirectory);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire : " + saveDirectory);
+        }
+        File saveFile = new File(directory, Namespace.baseName(fileName));
+        int partCount = placement.size();
+
+        try (FileChannel channel = FileChannel.open(saveFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (fileSize < 0) {
+                long position = 0;
+                for (int i = 0; i < partCount; i++) {
+                    position += downloadPart(Namespace.partName(fileName, version, i), placement.get(i), channel, position);
+                }
+                return saveFile;
+            }
+            if (partCount == 0) {
+                // Fichier vide : rien à lire sur les slaves
+                if (fileSize > 0) {
+                    throw new IOException("Aucune partie pour " + fileName + " (" + fileSize + " octets attendus)");
+                }
+                return saveFile;
+            }
+
+            long partSize = fileSize / partCount + ((fileSize % partCount == 0) ? 0 : 1);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, partCount));
+            try {
+                List<Future<Long>> futures = new ArrayList<>();
+                for (int i = 0; i < partCount; i++) {
+                    String partName = Namespace.partName(fileName, version, i);
+                    List<SlaveInfo> replicas = placement.get(i);
+                    long offset = Math.min(fileSize, i * partSize);
+                    futures.add(executor.submit(() -> downloadPart(partName, replicas, channel, offset)));
+                }
+                for (int i = 0; i < partCount; i++) {
+                    futures.get(i).get();
+                    System.out.println("Partie " + (i + 1) + "/" + partCount + " reçue");
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Impossible de récupérer toutes les parties : " + e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Téléchargement interrompu", e);
+            } finally {
+                executor.shutdownNow();
+            }
+        } catch (IOException e) {
+            saveFile.delete();
+            throw e;
+        }
+        return saveFile;
+    }
+
+    // Essaie chaque réplique jusqu'à réussite ; retourne la taille de la partie
+    private long downloadPart(String partName, List<SlaveInfo> replicas, FileChannel channel, long offset) throws IOException {
+        IOException lastError = new FileNotFoundException("Aucune réplique pour " + partName);
+        for (SlaveInfo slave : replicas) {
+            try (Socket socket = connect(slave);
+                 DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+                 DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE))) {
+
+                dos.writeUTF("GET_PART");
+                dos.writeUTF(partName);
+                dos.flush();
+
+                dis.readUTF(); // Nom de la partie
+                long partLength = dis.readLong();
+                if (partLength < 0) {
+                    throw new FileNotFoundException("Partie absente sur " + slave);
+                }
+                String expectedChecksum = dis.readUTF();
+
+                MessageDigest digest = FileTransferUtils.newDigest();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long position = offset;
+                long remaining = partLength;
+                while (remaining > 0) {
+                    int bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (bytesRead == -1) {
+                        throw new EOFException("Fin du flux inattendue");
+                    }
+                    digest.update(buffer, 0, bytesRead);
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, bytesRead);
+                    while (chunk.hasRemaining()) {
+                        position += channel.write(chunk, position);
+                    }
+                    remaining -= bytesRead;
+                }
+
+                if (!"SUCCESS".equals(dis.readUTF()) || !expectedChecksum.equals(FileTransferUtils.toHex(digest.digest()))) {
+                    throw new IOException("Partie invalide sur " + slave);
+                }
+                return partLength;
+            } catch (IOException e) {
+                System.err.println("Échec du téléchargement de " + partName + " depuis " + slave + " : " + e.getMessage());
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * Envoie chaque partie du fichier directement à ses répliques, en parallèle, sous le nom de
+     * stockage de remotePath dans la version attribuée par le master. Retourne pour chaque partie les répliques qui ont confirmé le stockage.
+     */
+    public List<List<SlaveInfo>> upload(File file, String remotePath, long version, long partSize, List<List<SlaveInfo>> placement, boolean chain) throws IOException {
+        int partCount = placement.size();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, partCount));
+        try {
+            List<Future<List<SlaveInfo>>> futures = new ArrayList<>();
+            for (int i = 0; i < partCount; i++) {
+                String partName = Namespace.partName(remotePath, version, i);
+                long offset = Math.min(file.length(), i * partSize);
+                long length = Math.min(partSize, file.length() - offset);
+                List<SlaveInfo> replicas = placement.get(i);
+                if (chain) {
+                    futures.add(executor.submit(() -> uploadChain(file, offset, length, partName, replicas)));
+                } else {
+                    futures.add(executor.submit(() -> {
+                        List<SlaveInfo> stored = new ArrayList<>();
+                        for (SlaveInfo slave : replicas) {
+                            stored.addAll(uploadChain(file, offset, length, partName, List.of(slave)));
+                        }
+                        return stored;
+                    }));
+                }
+            }
+
+            List<List<SlaveInfo>> stored = new ArrayList<>();
+            for (Future<List<SlaveInfo>> future : futures) {
+                try {
+                    stored.add(future.get());
+                } catch (ExecutionException e) {
+                    System.err.println("Échec de l'envoi d'une partie : " + e.getCause().getMessage());
+                    stored.add(new ArrayList<>());
+                }
+            }
+            return stored;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Envoi interrompu", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Envoi d'une partie avec ADD_PART_CHAIN : le premier slave la stocke et la recopie
+     * aux suivants. Avec une chaîne d'un seul slave, c'est un simple envoi.
+     * Si la tête de chaîne échoue, le slave suivant prend sa place.
+     */
+    private List<SlaveInfo> uploadChain(File file, long offset, long length, String partName, List<SlaveInfo> chain) {
+        for (int start = 0; start < chain.size(); start++) {
+            List<SlaveInfo> remaining = chain.subList(start, chain.size());
+            try {
+                return sendChain(file, offset, length, partName, remaining);
+            } catch (IOException e) {
+                System.err.println("Échec de l'envoi de " + partName + " à " + remaining.get(0) + " : " + e.getMessage());
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    private List<SlaveInfo> sendChain(File file, long offset, long length, String partName, List<SlaveInfo> chain) throws IOException {
+        List<SlaveInfo> stored = new ArrayList<>();
+        try (Socket socket = connect(chain.get(0));
+             RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            DataInputStream dis = new DataInputStream(socket.getInputStream());
+
+            dos.writeUTF("ADD_PART_CHAIN");
+            dos.writeUTF(partName);
+            dos.writeLong(length);
+            dos.writeInt(chain.size() - 1);
+            for (SlaveInfo next : chain.subList(1, chain.size())) {
+                dos.writeUTF(next.getIp());
+                dos.writeInt(next.getPort());
+            }
+
+            MessageDigest digest = FileTransferUtils.newDigest();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            raf.seek(offset);
+            long remaining = length;
+            while (remaining > 0) {
+                int bytesRead = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (bytesRead == -1) {
+                    throw new EOFException("Fichier tronqué pendant l'envoi");
+                }
+                digest.update(buffer, 0, bytesRead);
+                dos.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+            dos.writeUTF(FileTransferUtils.toHex(digest.digest()));
+            dos.flush();
+
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                if (dis.readBoolean() && i < chain.size()) {
+                    stored.add(chain.get(i));
+                }
+            }
+        }
+        return stored;
+    }
+
+    private Socket connect(SlaveInfo slave) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(slave.getIp(), slave.getPort()), connectTimeoutMs);
+            socket.setSoTimeout(readTimeoutMs);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+}
@@ -5,6 +5,11 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 public class FileTransferUtils {
+    // Marqueurs du flux découpé en parties (GET_STREAM)
+    public static final int PART_END = 0;
+    public static final int PART_RESTART = -1;
+    public static final int STREAM_ERROR = -2;
+
     public static File receiveFile(DataInputStream dis, String saveDirectory) throws IOException {
         // 1. Lire le nom du fichier
         String fileName = dis.readUTF();
@@ -68,6 +73,11 @@ public class FileTransferUtils {
     }
 
     public static void sendFile(DataOutputStream dos, String filePath) throws IOException {
+        sendFile(dos, filePath, new File(filePath).getName());
+    }
+
+    // Envoie le fichier local filePath sous le nom remoteName (chemin sur le serveur)
+    public static void sendFile(DataOutputStream dos, String filePath, String remoteName) throws IOException {
         File file = new File(filePath);
         if (!file.exists() || !file.isFile()) {
             throw new FileNotFoundException("Fichier introuvable : " + filePath);
@@ -81,7 +91,7 @@ public class FileTransferUtils {
             System.out.println("Checksum calculé : " + checksum);
 
             // Envoyer le nom du fichier
-            dos.writeUTF(file.getName());
+            dos.writeUTF(remoteName);
             dos.flush();
 
             // Envoyer la taille du fichier
@@ -121,7 +131,7 @@ public class FileTransferUtils {
 
     public static String calculateChecksum(String filePath) throws IOException {
         try (FileInputStream fis = new FileInputStream(filePath)) {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
+            MessageDigest digest = newDigest();
             byte[] buffer = new byte[4096];
             int bytesRead;
 
@@ -129,14 +139,95 @@ public class FileTransferUtils {
                 digest.update(buffer, 0, bytesRead);
             }
 
-            byte[] checksumBytes = digest.digest();
-            StringBuilder checksum = new StringBuilder();
-            for (byte b : checksumBytes) {
-                checksum.append(String.format("%02x", b));
-            }
-            return checksum.toString();
+            return toHex(digest.digest());
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Algorithme de hashage MD5 introuvable.", e);
         }
     }
+
+    public static String toHex(byte[] checksumBytes) {
+        StringBuilder checksum = new StringBuilder();
+        for (byte b : checksumBytes) {
+            checksum.append(String.format("%02x", b));
+        }
+        return checksum.toString();
+    }
+
+    /**
+     * Réception d'un fichier envoyé partie par partie (GET_STREAM).
+     * Chaque partie arrive en blocs "taille + données", terminée par PART_END et son checksum.
+     * PART_RESTART signifie que le master a changé de réplique : la partie repart de zéro.
+     * STREAM_ERROR est suivi d'un message et interrompt le téléchargement ; le master attend alors
+     * la commande suivante. Une erreur annoncée par le master ou un checksum invalide (les parties
+     * suivantes sont lues jusqu'au bout) ne concernent que ce téléchargement : le message est
+     * affiché et null est retourné, la connexion reste utilisable. Une IOException signale une
+     * connexion ou un fichier local inutilisable.
+     */
+    public static File receivePartedFile(DataInputStream dis, String saveDirectory, String fileName, int partCount) throws IOException {
+        File directory = new File(saveDirectory);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire : " + saveDirectory);
+        }
+
+        File saveFile = new File(directory, fileName);
+        byte[] buffer = new byte[64 * 1024];
+        String failure = null;
+        boolean aborted = false;
+        try (RandomAccessFile raf = new RandomAccessFile(saveFile, "rw")) {
+            raf.setLength(0);
+            for (int i = 0; i < partCount; i++) {
+                long partStart = raf.length();
+                MessageDigest digest = newDigest();
+                while (true) {
+                    int marker = dis.readInt();
+                    if (marker > 0) {
+                        dis.readFully(buffer, 0, marker);
+                        raf.write(buffer, 0, marker);
+                        digest.update(buffer, 0, marker);
+                    } else if (marker == PART_END) {
+                        String expectedChecksum = dis.readUTF();
+                        String receivedChecksum = toHex(digest.digest());
+                        if (failure == null && !expectedChecksum.equals(receivedChecksum)) {
+                            failure = "Erreur : Checksum invalide pour la partie " + (i + 1);
+                        }
+                        break;
+                    } else if (marker == PART_RESTART) {
+                        raf.setLength(partStart);
+                        raf.seek(partStart);
+                        digest.reset();
+                    } else {
+                        // Le master n'envoie plus rien pour ce fichier
+                        failure = dis.readUTF();
+                        aborted = true;
+                        break;
+                    }
+                }
+                if (aborted) {
+                    break;
+                }
+                System.out.println("Partie " + (i + 1) + "/" + partCount + " reçue");
+            }
+        } catch (IOException e) {
+            deleteIncomplete(saveFile);
+            throw e;
+        }
+        if (failure != null) {
+            deleteIncomplete(saveFile);
+            System.out.println(failure);
+            return null;
+        }
+        return saveFile;
+    }
+
+    private static void deleteIncomplete(File saveFile) {
+        if (!saveFile.delete()) {
+            System.err.println("Impossible de supprimer le fichier incomplet : " + saveFile.getAbsolutePath());
+        }
+    }
 }
@@ -0,0 +1,35 @@
+public class SlaveInfo {
+    private String ip;
+    private int port;
+
+    public SlaveInfo(String ip, int port) {
+        this.ip = ip;
+        this.port = port;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SlaveInfo)) return false;
+        SlaveInfo other = (SlaveInfo) o;
+        return port == other.port && ip.equals(other.ip);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * ip.hashCode() + port;
+    }
+
+    @Override
+    public String toString() {
+        return "SlaveInfo{ip='" + ip + "', port=" + port + "}";
+    }
+}
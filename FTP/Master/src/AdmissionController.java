@@ -0,0 +1,142 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Contrôle d'admission des transferts qui passent par le master. Chaque type de transfert
+ * a un nombre maximal d'opérations simultanées et tous partagent un budget d'octets en cours.
+ * Une demande au-delà des limites attend au plus queueTimeoutMs ; ensuite elle est refusée
+ * et le client reçoit "BUSY:<ms>", le délai conseillé avant de réessayer.
+ */
+public class AdmissionController {
+
+    public enum Kind {
+        UPLOAD("ADD"),
+        DOWNLOAD("GET");
+
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    private final int[] maxOperations = new int[Kind.values().length];
+    private final int[] activeOperations = new int[Kind.values().length];
+    private final int[] waitingOperations = new int[Kind.values().length];
+    private final long maxInFlightBytes;
+    private final long queueTimeoutMs;
+    private final long retryAfterMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long inFlightBytes = 0;
+    private long rejected = 0;
+
+    public AdmissionController(int maxUploads, int maxDownloads, long maxInFlightBytes, long queueTimeoutMs, long retryAfterMs) {
+        maxOperations[Kind.UPLOAD.ordinal()] = Math.max(1, maxUploads);
+        maxOperations[Kind.DOWNLOAD.ordinal()] = Math.max(1, maxDownloads);
+        this.maxInFlightBytes = Math.max(1, maxInFlightBytes);
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.retryAfterMs = Math.max(1, retryAfterMs);
+    }
+
+    /**
+     * Admet un transfert de bytes octets, en attendant au plus queueTimeoutMs.
+     * Retourne null si la demande est refusée. Un transfert plus gros que tout le budget
+     * est admis quand aucun autre octet n'est en cours.
+     */
+    public Ticket admit(Kind kind, long bytes) throws InterruptedException {
+        int index = kind.ordinal();
+        long reserved = Math.max(0, bytes);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs);
+
+        lock.lock();
+        try {
+            waitingOperations[index]++;
+            try {
+                while (activeOperations[index] >= maxOperations[index]
+                        || (inFlightBytes > 0 && inFlightBytes + reserved > maxInFlightBytes)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        rejected++;
+                        return null;
+                    }
+                    released.awaitNanos(remaining);
+                }
+            } finally {
+                waitingOperations[index]--;
+            }
+            activeOperations[index]++;
+            inFlightBytes += reserved;
+            return new Ticket(kind, reserved);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Délai conseillé avant une nouvelle tentative : croît avec la file d'attente du type de transfert
+    public long retryAfterMs(Kind kind) {
+        lock.lock();
+        try {
+            int index = kind.ordinal();
+            return retryAfterMs * (1 + waitingOperations[index] / maxOperations[index]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Ticket ticket) {
+        lock.lock();
+        try {
+            activeOperations[ticket.kind.ordinal()]--;
+            inFlightBytes -= ticket.bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ligne ajoutée à la réponse de STATS
+    public String describe() {
+        lock.lock();
+        try {
+            StringBuilder description = new StringBuilder();
+            for (Kind kind : Kind.values()) {
+                int index = kind.ordinal();
+                description.append(kind.label).append("=").append(activeOperations[index])
+                        .append("/").append(maxOperations[index])
+                        .append(" (attente ").append(waitingOperations[index]).append(") ");
+            }
+            return description.append("octetsEnCours=").append(inFlightBytes)
+                    .append(" refus=").append(rejected).toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Droit d'exécuter un transfert admis ; à fermer quand le transfert se termine.
+     */
+    public class Ticket implements AutoCloseable {
+        private final Kind kind;
+        private final long bytes;
+        private boolean closed = false;
+
+        private Ticket(Kind kind, long bytes) {
+            this.kind = kind;
+            this.bytes = bytes;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(this);
+            }
+        }
+    }
+}
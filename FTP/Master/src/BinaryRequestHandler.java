@@ -0,0 +1,136 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Requêtes du protocole binaire côté master. Les opérations reprennent celles du protocole
+ * texte (LIST, LIST_PAGE, GET_MAP, GET_RANGE, REMOVE, STATS) avec des statuts typés à la place des
+ * messages d'erreur. L'ajout de fichiers reste sur le protocole texte ou le chemin direct.
+ */
+public class BinaryRequestHandler implements BinaryProtocol.RequestHandler {
+    private final MasterServer masterServer;
+    private final ClientHandler operations;
+
+    public BinaryRequestHandler(MasterServer masterServer) {
+        this.masterServer = masterServer;
+        this.operations = new ClientHandler(masterServer);
+    }
+
+    @Override
+    public void handle(BinaryProtocol.Frame request, BinaryProtocol.Responder responder) throws IOException {
+        DataInputStream in = request.input();
+        switch (request.opcode) {
+            case BinaryProtocol.OP_PING:
+                break;
+            case BinaryProtocol.OP_STATS:
+                responder.body(BinaryProtocol.STATUS_OK).writeUTF(masterServer.getHandlerExecutor().describe());
+                break;
+            case BinaryProtocol.OP_LIST:
+                list(responder);
+                break;
+            case BinaryProtocol.OP_LIST_PAGE:
+                operations.writeListPage(responder.body(BinaryProtocol.STATUS_OK), in.readUTF(), in.readUTF(), in.readInt());
+                break;
+            case BinaryProtocol.OP_GET_MAP:
+                getMap(ClientHandler.readPath(in), responder);
+                break;
+            case BinaryProtocol.OP_GET_RANGE:
+                getRange(ClientHandler.readPath(in), in.readLong(), in.readLong(), responder);
+                break;
+            case BinaryProtocol.OP_REMOVE:
+                remove(ClientHandler.readPath(in), responder);
+                break;
+            default:
+                responder.fail(BinaryProtocol.STATUS_UNKNOWN_OPCODE, "Opcode inconnu : " + request.opcode);
+        }
+    }
+
+    private void list(BinaryProtocol.Responder responder) throws IOException {
+        List<Map.Entry<String, List<List<SlaveInfo>>>> files = new ArrayList<>(masterServer.getFileLocations().entrySet());
+        DataOutputStream out = responder.body(BinaryProtocol.STATUS_OK);
+        out.writeInt(files.size());
+        for (Map.Entry<String, List<List<SlaveInfo>>> entry : files) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+        }
+    }
+
+    // Corps : taille, placement, puis le numéro de version qui nomme les parties
+    private void getMap(String fileName, BinaryProtocol.Responder responder) throws IOException {
+        FileVersion file = masterServer.getFile(fileName);
+        if (file == null || file.getPartCount() == 0) {
+            responder.fail(BinaryProtocol.STATUS_NOT_FOUND, "Fichier introuvable : " + fileName);
+            return;
+        }
+        DataOutputStream out = responder.body(BinaryProtocol.STATUS_OK);
+        out.writeLong(file.getSize());
+        operations.writePlacement(out, file.getPlacement());
+        out.writeLong(file.getVersion());
+    }
+
+    // Corps : longueur réelle de la plage, puis les octets
+    private void getRange(String fileName, long offset, long length, BinaryProtocol.Responder responder) throws IOException {
+        long fileSize = masterServer.getFileSize(fileName);
+        if (!rangeReadable(fileSize, offset, length, responder)) {
+            return;
+        }
+
+        // Admission d'abord, puis bail sur la version lue : l'attente d'admission ne retient aucune version
+        AdmissionController admission = masterServer.getAdmissionController();
+        AdmissionController.Ticket ticket;
+        try {
+            ticket = admission.admit(AdmissionController.Kind.DOWNLOAD, Math.min(length, fileSize - offset));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Attente d'admission interrompue");
+        }
+        if (ticket == null) {
+            responder.busy(admission.retryAfterMs(AdmissionController.Kind.DOWNLOAD));
+            return;
+        }
+        try (ticket) {
+            FileVersions.Lease lease = masterServer.getFileVersions().open(fileName);
+            if (lease == null) {
+                responder.fail(BinaryProtocol.STATUS_NOT_FOUND, "Fichier introuvable : " + fileName);
+                return;
+            }
+            try (lease) {
+                FileVersion file = lease.getFile();
+                if (!rangeReadable(file.getSize(), offset, length, responder)) {
+                    return;
+                }
+                long rangeLength = Math.min(length, file.getSize() - offset);
+                DataOutputStream out = responder.body(BinaryProtocol.STATUS_OK);
+                out.writeLong(rangeLength);
+                operations.streamRange(file, offset, rangeLength, out);
+                out.flush();
+            }
+        }
+    }
+
+    // Répond l'erreur et retourne false si la plage ne peut pas être lue dans un fichier de cette taille
+    private boolean rangeReadable(long fileSize, long offset, long length, BinaryProtocol.Responder responder) throws IOException {
+        String invalid = ClientHandler.rangeError(fileSize, offset, length);
+        if (invalid == null) {
+            return true;
+        }
+        responder.fail(fileSize < 0 ? BinaryProtocol.STATUS_NOT_FOUND : BinaryProtocol.STATUS_INVALID, invalid);
+        return false;
+    }
+
+    // Le fichier quitte les métadonnées tout de suite ; ses parties sont effacées à la fin des lectures en cours
+    private void remove(String fileName, BinaryProtocol.Responder responder) throws IOException {
+        FileVersion removed = masterServer.removeFile(fileName);
+        if (removed == null) {
+            responder.fail(BinaryProtocol.STATUS_NOT_FOUND, "Fichier introuvable : " + fileName);
+            return;
+        }
+        if (!operations.retireRemoved(removed)) {
+            responder.fail(BinaryProtocol.STATUS_UNAVAILABLE, "Fichier supprimé, mais ses parties n'ont pas pu être effacées sur certains slaves");
+        }
+    }
+}
@@ -0,0 +1,431 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rapports de blocs des slaves. Chaque heartbeat annonce l'époque et la version du rapport du
+ * slave ; quand elles diffèrent de celles déjà fusionnées, le master demande BLOCK_REPORT. Le
+ * premier rapport d'un slave (slave arrivé, slave ou master redémarré) est complet, les suivants
+ * ne portent que les parties ajoutées ou supprimées depuis.
+ * Les parties sont regroupées par préfixe de stockage, c'est-à-dire par version de fichier.
+ * Pour la version courante d'un fichier connu, une partie présente et de la bonne taille ajoute le slave à ses
+ * répliques, une partie absente ou d'une autre taille l'en retire (réplique périmée), et un
+ * rapport complet retire aussi le slave des parties qu'il ne mentionne pas. Les parties d'une
+ * version inconnue sont gardées à part, puis, après graceMs sans changement :
+ * - si le master a démarré sans métadonnées et que la fenêtre de réintégration est ouverte, un
+ *   fichier dont les parties 1..N sont toutes présentes, avec des checksums concordants, est
+ *   réintégré dans fileLocations : le master retrouve ainsi les fichiers déjà stockés ;
+ * - sinon, ce sont les restes d'un fichier supprimé, d'une version remplacée ou d'un ADD échoué,
+ *   effacés des slaves (sauf pendant un ADD du même chemin ou des lectures de la version retirée).
+ * Une partie envoyée pendant un ADD peut être retirée par un rapport complet pris juste avant ;
+ * le rapport incrémental suivant la mentionne et la rajoute.
+ */
+public class BlockReportManager {
+    private final MasterServer masterServer;
+    private final long intervalMs;
+    private final boolean adoptUnknownFiles;
+    private final long adoptionWindowMs;
+    private final boolean deleteOrphans;
+    private final long graceMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "block-reports");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<SlaveInfo, long[]> mergedVersions = new ConcurrentHashMap<>(); // Slave -> {époque, version} fusionnées
+    private final Map<String, UnknownFile> unknownFiles = new HashMap<>(); // Par préfixe ; thread block-reports uniquement
+    private final AtomicLong mergedReports = new AtomicLong();
+    private final AtomicLong foundReplicas = new AtomicLong();
+    private final AtomicLong staleReplicas = new AtomicLong();
+    private final AtomicLong adoptedFiles = new AtomicLong();
+    private final AtomicLong deletedOrphans = new AtomicLong();
+    private volatile int orphanParts = 0;
+    private long adoptionDeadline = 0; // Fin de la fenêtre de réintégration ; 0 : pas de réintégration
+
+    public BlockReportManager(MasterServer masterServer, long intervalMs, boolean adoptUnknownFiles, long adoptionWindowMs,
+                              boolean deleteOrphans, long graceMs) {
+        this.masterServer = masterServer;
+        this.intervalMs = intervalMs;
+        this.adoptUnknownFiles = adoptUnknownFiles;
+        this.adoptionWindowMs = adoptionWindowMs;
+        this.deleteOrphans = deleteOrphans;
+        this.graceMs = graceMs;
+    }
+
+    // Après la relecture du journal : seules des métadonnées vides (perdues) ouvrent la réintégration
+    public void start() {
+        if (adoptUnknownFiles && masterServer.getFileLocations().size() == 0) {
+            adoptionDeadline = System.currentTimeMillis() + adoptionWindowMs;
+            System.out.println("Démarrage sans métadonnées : réintégration des fichiers rapportés pendant " + adoptionWindowMs + " ms");
+        }
+        scheduler.scheduleWithFixedDelay(this::collect, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Un passage : rapports des slaves dont la version a changé, puis réintégration des fichiers complets
+    private void collect() {
+        try {
+            for (SlaveInfo slave : masterServer.getActiveSlaves()) {
+                long[] merged = mergedVersions.getOrDefault(slave, new long[]{0, 0});
+                if (slave.getReportEpoch() == 0
+                        || merged[0] == slave.getReportEpoch() && merged[1] == slave.getReportVersion()) {
+                    continue; // Slave sans rapport de blocs, ou rien de nouveau
+                }
+                try {
+                    BlockReport report = fetch(slave, merged[0], merged[1]);
+                    merge(slave, report);
+                    mergedVersions.put(slave, new long[]{report.epoch, report.version});
+                    mergedReports.incrementAndGet();
+                } catch (IOException e) {
+                    // Une erreur du journal des métadonnées arrive aussi ici : le rapport sera redemandé
+                    System.err.println("Rapport de blocs de " + slave + " non fusionné : " + e.getMessage());
+                }
+            }
+            if (System.currentTimeMillis() < adoptionDeadline) {
+                adoptCompleteFiles();
+            } else if (deleteOrphans) {
+                deleteOrphanParts();
+            }
+            int orphans = 0;
+            for (UnknownFile file : unknownFiles.values()) {
+                orphans += file.parts.size();
+            }
+            orphanParts = orphans;
+        } catch (RuntimeException e) {
+            System.err.println("Erreur lors de la fusion des rapports de blocs : " + e.getMessage());
+        }
+    }
+
+    private BlockReport fetch(SlaveInfo slave, long knownEpoch, long knownVersion) throws IOException {
+        SlaveConnectionPool pool = masterServer.getConnectionPool();
+        SlaveConnectionPool.SlaveConnection connection = pool.borrow(slave);
+        try {
+            DataOutputStream dos = connection.getOutput();
+            dos.writeUTF("BLOCK_REPORT");
+            dos.writeLong(knownEpoch);
+            dos.writeLong(knownVersion);
+            dos.flush();
+
+            DataInputStream dis = connection.getInput();
+            BlockReport report = new BlockReport(dis.readLong(), dis.readLong(), dis.readBoolean());
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                boolean present = dis.readBoolean();
+                String partName = dis.readUTF();
+                long length = present ? dis.readLong() : -1;
+                String checksum = present ? dis.readUTF() : null;
+                report.entries.add(new ReportedPart(partName, present, length, checksum));
+            }
+            pool.release(connection);
+            return report;
+        } catch (IOException e) {
+            pool.invalidate(connection);
+            throw e;
+        }
+    }
+
+    private void merge(SlaveInfo slave, BlockReport report) throws IOException {
+        Map<String, List<ReportedPart>> byPrefix = new HashMap<>();
+        for (ReportedPart part : report.entries) {
+            String prefix = part.prefix();
+            if (prefix != null && Namespace.versionOfPrefix(prefix) >= 0) {
+                byPrefix.computeIfAbsent(prefix, name -> new ArrayList<>()).add(part);
+            }
+        }
+
+        for (Map.Entry<String, List<ReportedPart>> entry : byPrefix.entrySet()) {
+            String prefix = entry.getKey();
+            FileVersion current = masterServer.getFile(Namespace.pathOfPrefix(prefix));
+            if (current != null && current.getVersion() == Namespace.versionOfPrefix(prefix)) {
+                unknownFiles.remove(prefix);
+                mergeKnownFile(slave, current, entry.getValue(), report.full);
+            } else {
+                mergeUnknownFile(slave, prefix, entry.getValue());
+            }
+        }
+
+        if (report.full) {
+            // Parties attribuées au slave qu'il ne détient plus (disque effacé, slave réinstallé)
+            for (String fileName : new ArrayList<>(masterServer.getFileLocations().keySet())) {
+                FileVersion file = masterServer.getFile(fileName);
+                if (file != null && !byPrefix.containsKey(file.storagePrefix())) {
+                    mergeKnownFile(slave, file, Collections.emptyList(), true);
+                }
+            }
+            for (Iterator<UnknownFile> it = unknownFiles.values().iterator(); it.hasNext(); ) {
+                UnknownFile file = it.next();
+                if (!byPrefix.containsKey(file.prefix)) {
+                    file.removeSlave(slave);
+                    if (file.parts.isEmpty()) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+        System.out.println("Rapport de blocs " + (report.full ? "complet" : "incrémental") + " de " + slave
+                + " fusionné : " + report.entries.size() + " entrée(s), version " + report.version);
+    }
+
+    // Ajoute ou retire le slave des répliques d'une version connue ; full : les parties non mentionnées sont absentes
+    private void mergeKnownFile(SlaveInfo slave, FileVersion file, List<ReportedPart> parts, boolean full) throws IOException {
+        long fileSize = file.getSize();
+        masterServer.updatePlacement(file.getPath(), file.getVersion(), (name, placement) -> {
+            Map<Integer, ReportedPart> reported = new HashMap<>();
+            for (ReportedPart part : parts) {
+                if (part.partIndex() < placement.size()) {
+                    reported.put(part.partIndex(), part);
+                }
+            }
+
+            List<List<SlaveInfo>> updated = null;
+            for (int i = 0; i < placement.size(); i++) {
+                ReportedPart part = reported.get(i);
+                if (part == null && !full) {
+                    continue;
+                }
+                boolean holds = part != null && part.present;
+                if (holds && fileSize >= 0 && part.length != Rebalancer.partLength(fileSize, placement.size(), i)) {
+                    System.out.println("Réplique périmée de " + part.partName + " sur " + slave + " : " + part.length + " octets");
+                    holds = false;
+                }
+                List<SlaveInfo> replicas = placement.get(i);
+                if (holds == replicas.contains(slave)) {
+                    continue;
+                }
+                List<SlaveInfo> updatedReplicas = new ArrayList<>(replicas);
+                if (holds) {
+                    updatedReplicas.add(slave);
+                    foundReplicas.incrementAndGet();
+                } else {
+                    updatedReplicas.remove(slave);
+                    staleReplicas.incrementAndGet();
+                }
+                if (updated == null) {
+                    updated = new ArrayList<>(placement);
+                }
+                updated.set(i, updatedReplicas);
+            }
+            return updated == null ? placement : updated;
+        });
+    }
+
+    private void mergeUnknownFile(SlaveInfo slave, String prefix, List<ReportedPart> parts) {
+        UnknownFile file = unknownFiles.computeIfAbsent(prefix, UnknownFile::new);
+        file.lastChange = System.currentTimeMillis();
+        for (ReportedPart part : parts) {
+            Map<SlaveInfo, ReportedPart> replicas = file.parts.computeIfAbsent(part.partIndex(), index -> new HashMap<>());
+            if (part.present) {
+                replicas.put(slave, part);
+            } else {
+                replicas.remove(slave);
+                if (replicas.isEmpty()) {
+                    file.parts.remove(part.partIndex());
+                }
+            }
+        }
+        if (file.parts.isEmpty()) {
+            unknownFiles.remove(prefix);
+        }
+    }
+
+    /**
+     * Réintègre les fichiers inconnus complets et stables. Pour chaque partie, les répliques retenues
+     * sont celles du checksum le plus répandu ; les parties 1..N-1 doivent avoir la même taille et
+     * la dernière ne pas la dépasser, comme à l'ADD.
+     */
+    private void adoptCompleteFiles() {
+        long now = System.currentTimeMillis();
+        // Plusieurs versions d'un même chemin : la plus récente qui est complète est réintégrée
+        List<UnknownFile> candidates = new ArrayList<>(unknownFiles.values());
+        candidates.sort(Comparator.comparingLong((UnknownFile file) -> file.version).reversed());
+        for (UnknownFile file : candidates) {
+            if (masterServer.getFileLocations().containsKey(file.path) || !isStable(file, now)) {
+                continue; // Chemin déjà connu : cette version sera effacée après la fenêtre de réintégration
+            }
+            if (file.hasPendingChecksums()) {
+                continue; // Checksums encore en calcul sur un slave : ils arrivent par un rapport incrémental
+            }
+            int partCount = file.parts.size();
+            List<List<SlaveInfo>> placement = new ArrayList<>();
+            long fileSize = 0;
+            long firstLength = -1;
+            for (int i = 0; i < partCount; i++) {
+                Map<SlaveInfo, ReportedPart> replicas = file.parts.get(i);
+                if (replicas == null) {
+                    break; // Parties manquantes : le fichier reste orphelin
+                }
+                String checksum = majorityChecksum(replicas.values());
+                List<SlaveInfo> matching = new ArrayList<>();
+                long length = -1;
+                for (Map.Entry<SlaveInfo, ReportedPart> replica : replicas.entrySet()) {
+                    if (replica.getValue().checksum.equals(checksum)) {
+                        matching.add(replica.getKey());
+                        length = replica.getValue().length;
+                    }
+                }
+                if (i == 0) {
+                    firstLength = length;
+                }
+                if (i < partCount - 1 ? length != firstLength : length > firstLength) {
+                    break;
+                }
+                matching.sort(Comparator.comparing(SlaveInfo::toString));
+                placement.add(matching);
+                fileSize += length;
+            }
+            if (placement.size() != partCount) {
+                continue;
+            }
+            try {
+                if (masterServer.recordFileIfAbsent(file.path, fileSize, file.version, placement)) {
+                    adoptedFiles.incrementAndGet();
+                    System.out.println("Fichier retrouvé dans les rapports de blocs : " + file.path
+                            + " (" + partCount + " partie(s), " + fileSize + " octets)");
+                    unknownFiles.remove(file.prefix);
+                }
+            } catch (IOException e) {
+                System.err.println("Fichier " + file.path + " non réintégré : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Efface des slaves les versions inconnues stables : REMOVE_PART sur leur préfixe, qui ne
+     * touche aucune autre version du chemin. Un slave injoignable est retenté au passage suivant.
+     */
+    private void deleteOrphanParts() {
+        long now = System.currentTimeMillis();
+        for (Iterator<UnknownFile> it = unknownFiles.values().iterator(); it.hasNext(); ) {
+            UnknownFile file = it.next();
+            FileVersion current = masterServer.getFile(file.path);
+            if (current != null && current.getVersion() == file.version) {
+                it.remove(); // Enregistrée entre-temps par un ADD, avec ses répliques
+                continue;
+            }
+            if (!isStable(file, now)) {
+                continue;
+            }
+            for (SlaveInfo slave : file.slaves()) {
+                if (masterServer.getSlaveRegistry().isAlive(slave)
+                        && masterServer.getPartDeleter().removeFromSlave(slave, file.prefix)) {
+                    deletedOrphans.addAndGet(file.removeSlave(slave));
+                    System.out.println("Parties orphelines " + file.prefix + " effacées sur " + slave);
+                }
+            }
+            if (file.parts.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    // Sans changement depuis graceMs, hors ADD en cours du chemin et hors version retirée encore lue
+    private boolean isStable(UnknownFile file, long now) {
+        return now - file.lastChange >= graceMs && !masterServer.getFileVersions().isReserved(file.path)
+                && !masterServer.getFileVersions().isRetiring(file.prefix);
+    }
+
+    private static String majorityChecksum(Collection<ReportedPart> replicas) {
+        Map<String, Integer> votes = new HashMap<>();
+        for (ReportedPart replica : replicas) {
+            votes.merge(replica.checksum, 1, Integer::sum);
+        }
+        return Collections.max(votes.entrySet(), Map.Entry.comparingByValue()).getKey();
+    }
+
+    // Ligne ajoutée à la réponse de STATS
+    public String describe() {
+        return "rapportsBlocs=" + mergedReports.get() + " repliquesRetrouvees=" + foundReplicas.get()
+                + " repliquesRetirees=" + staleReplicas.get() + " partiesOrphelines=" + orphanParts
+                + " partiesOrphelinesEffacees=" + deletedOrphans.get() + " fichiersRetrouves=" + adoptedFiles.get();
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private static class BlockReport {
+        final long epoch;
+        final long version;
+        final boolean full;
+        final List<ReportedPart> entries = new ArrayList<>();
+
+        BlockReport(long epoch, long version, boolean full) {
+            this.epoch = epoch;
+            this.version = version;
+            this.full = full;
+        }
+    }
+
+    private static class ReportedPart {
+        final String partName;
+        final boolean present;
+        final long length;
+        final String checksum; // "" tant que le slave le calcule
+
+        ReportedPart(String partName, boolean present, long length, String checksum) {
+            this.partName = partName;
+            this.present = present;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        // Préfixe de stockage (chemin et version), ou null si le nom ne suit pas le format <préfixe>.partN
+        String prefix() {
+            return Namespace.prefixOfPart(partName);
+        }
+
+        int partIndex() {
+            return Namespace.partIndexOf(partName);
+        }
+    }
+
+    // Parties d'une version absente de fileLocations : index -> slave -> partie rapportée
+    private static class UnknownFile {
+        final String prefix;
+        final String path;
+        final long version;
+        final Map<Integer, Map<SlaveInfo, ReportedPart>> parts = new HashMap<>();
+        long lastChange;
+
+        UnknownFile(String prefix) {
+            this.prefix = prefix;
+            this.path = Namespace.pathOfPrefix(prefix);
+            this.version = Namespace.versionOfPrefix(prefix);
+        }
+
+        boolean hasPendingChecksums() {
+            for (Map<SlaveInfo, ReportedPart> replicas : parts.values()) {
+                for (ReportedPart part : replicas.values()) {
+                    if (part.checksum.isEmpty()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        Set<SlaveInfo> slaves() {
+            Set<SlaveInfo> slaves = new HashSet<>();
+            for (Map<SlaveInfo, ReportedPart> replicas : parts.values()) {
+                slaves.addAll(replicas.keySet());
+            }
+            return slaves;
+        }
+
+        // Retourne le nombre de parties que le slave détenait
+        int removeSlave(SlaveInfo slave) {
+            lastChange = System.currentTimeMillis();
+            int removed = 0;
+            for (Iterator<Map<SlaveInfo, ReportedPart>> it = parts.values().iterator(); it.hasNext(); ) {
+                Map<SlaveInfo, ReportedPart> replicas = it.next();
+                if (replicas.remove(slave) != null) {
+                    removed++;
+                }
+                if (replicas.isEmpty()) {
+                    it.remove();
+                }
+            }
+            return removed;
+        }
+    }
+}
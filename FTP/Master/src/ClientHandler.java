@@ -1,54 +1,55 @@
 import java.io.*;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public class ClientHandler implements Runnable {
     private final MasterServer masterServer;
     private Socket clientSocket;
+    // Versions prévues par ADD_MAP (numéro, taille et placement), en attente de l'ADD_COMMIT du client
+    private final Map<String, FileVersion> plannedUploads = new HashMap<>();
+    // Admission obtenue par ADMIT, consommée par la commande suivante
+    private AdmissionController.Ticket reservation;
 
     public ClientHandler(MasterServer masterServer, Socket clientSocket) {
         this.masterServer = masterServer;
         this.clientSocket = clientSocket;
     }
 
+    // Connexion gérée par le front end NIO : les commandes arrivent une à une par handleCommand
+    public ClientHandler(MasterServer masterServer) {
+        this(masterServer, null);
+    }
+
     @Override
     public void run() {
         try (DataOutputStream dos = new DataOutputStream(clientSocket.getOutputStream());
-             DataInputStream dis = new DataInputStream(clientSocket.getInputStream())) {
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()))) {
 
-            while (true) {
-                String command = dis.readUTF();
-                if ("QUIT".equals(command)) {
-                    System.out.println("Client déconnecté.");
-                    break;
-                }
+            // Même port pour les deux protocoles : le binaire se reconnaît à son ouverture
+            if (BinaryProtocol.detect(dis)) {
+                BinaryProtocol.serve(dis, clientSocket.getOutputStream(), masterServer.getBinaryExecutor(),
+                        new BinaryRequestHandler(masterServer));
+                return;
+            }
 
-                System.out.println("Commande reçue : " + command);
-
-                switch (command) {
-                    case "LIST":
-                        handleList(dos, dis);
-                        break;
-                    case "ADD":
-                        handleAdd(dos, dis);
-                        break;
-                    case "GET":
-                        handleGet(dos, dis);
-                        break;
-                    case "REMOVE":
-                        handleRemove(dos, dis);
-                        break;
-                    default:
-                        System.out.println("Commande inconnue : " + command);
-                }
+            while (handleCommand(dis.readUTF(), dis, dos)) {
                 dos.flush();
             }
         } catch (IOException e) {
             System.err.println("Erreur de communication avec le client : " + e.getMessage());
         } finally {
+            connectionClosed();
             try {
                 if (clientSocket != null && !clientSocket.isClosed()) {
                     clientSocket.close();
@@ -59,133 +60,791 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /**
+     * Rend le ticket ADMIT non utilisé et les chemins réservés par des ADD_MAP jamais confirmés
+     * par ADD_COMMIT, et efface les parties déjà envoyées pour ces derniers.
+     */
+    public void connectionClosed() {
+        if (reservation != null) {
+            reservation.close();
+            reservation = null;
+        }
+        for (FileVersion planned : plannedUploads.values()) {
+            masterServer.getFileVersions().unreserve(planned.getPath());
+            masterServer.getFileVersions().retireInBackground(FileVersions.Retirement.of(planned));
+        }
+        plannedUploads.clear();
+    }
+
+    /**
+     * Traite une commande déjà lue ; ses arguments et ses données sont lus sur dis.
+     * Retourne false quand le client demande la déconnexion.
+     */
+    public boolean handleCommand(String command, DataInputStream dis, DataOutputStream dos) throws IOException {
+        if ("QUIT".equals(command)) {
+            System.out.println("Client déconnecté.");
+            return false;
+        }
+
+        System.out.println("Commande reçue : " + command);
+
+        if ("ADMIT".equals(command)) {
+            handleAdmit(dos, dis);
+            return true;
+        }
+
+        try {
+            dispatch(command, dis, dos);
+        } finally {
+            // Une réservation non utilisée par la commande qui la suit est rendue
+            if (reservation != null) {
+                reservation.close();
+                reservation = null;
+            }
+        }
+        return true;
+    }
+
+    private void dispatch(String command, DataInputStream dis, DataOutputStream dos) throws IOException {
+        switch (command) {
+            case "LIST":
+                handleList(dos, dis);
+                break;
+            case "LIST_PAGE":
+                handleListPage(dos, dis);
+                break;
+            case "LIST_DIR":
+                handleListDir(dos, dis);
+                break;
+            case "REMOVE_DIR":
+                handleRemoveDir(dos, dis);
+                break;
+            case "ADD":
+                handleAdd(dos, dis);
+                break;
+            case "GET":
+                handleGet(dos, dis);
+                break;
+            case "GET_STREAM":
+                handleStreamingGet(dos, dis);
+                break;
+            case "REMOVE":
+                handleRemove(dos, dis);
+                break;
+            case "GET_MAP":
+                handleGetMap(dos, dis);
+                break;
+            case "GET_RANGE":
+                handleGetRange(dos, dis);
+                break;
+            case "ADD_MAP":
+                handleAddMap(dos, dis);
+                break;
+            case "ADD_COMMIT":
+                handleAddCommit(dos, dis);
+                break;
+            case "STATS":
+                dos.writeUTF(masterServer.getHandlerExecutor().describe() + " "
+                        + masterServer.getAdmissionController().describe() + " "
+                        + masterServer.getReplicationManager().describe() + " "
+                        + masterServer.getRebalancer().describe() + " "
+                        + masterServer.getBlockReportManager().describe() + " "
+                        + masterServer.getFileVersions().describe());
+                break;
+            default:
+                System.out.println("Commande inconnue : " + command);
+        }
+    }
+
+    /**
+     * ADMIT (type "ADD" ou "GET", taille) : le client demande l'admission avant d'envoyer
+     * les données d'un ADD, pour ne pas les transmettre en vain. Réponse "OK" ou "BUSY:<ms>".
+     */
+    private void handleAdmit(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String type = dis.readUTF();
+        long bytes = dis.readLong();
+        AdmissionController.Kind kind = "ADD".equals(type) ? AdmissionController.Kind.UPLOAD : AdmissionController.Kind.DOWNLOAD;
+
+        if (reservation != null) {
+            reservation.close();
+            reservation = null;
+        }
+        AdmissionController.Ticket ticket = admit(kind, bytes);
+        if (ticket == null) {
+            dos.writeUTF(busyResponse(kind));
+            return;
+        }
+        reservation = ticket;
+        dos.writeUTF("OK");
+    }
+
+    // Utilise la réservation faite par ADMIT si elle correspond, sinon passe par le contrôle d'admission
+    private AdmissionController.Ticket admit(AdmissionController.Kind kind, long bytes) throws IOException {
+        if (reservation != null && reservation.getKind() == kind) {
+            AdmissionController.Ticket ticket = reservation;
+            reservation = null;
+            return ticket;
+        }
+        try {
+            return masterServer.getAdmissionController().admit(kind, bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Attente d'admission interrompue");
+        }
+    }
+
+    private String busyResponse(AdmissionController.Kind kind) {
+        long retryAfter = masterServer.getAdmissionController().retryAfterMs(kind);
+        System.out.println("Transfert refusé (" + kind + "), nouvel essai conseillé dans " + retryAfter + " ms");
+        return "BUSY:" + retryAfter;
+    }
+
     // Modifier la méthode handleList :
     private void handleList(DataOutputStream dos, DataInputStream dis) throws IOException {
         System.out.println("Envoi de la liste des fichiers...");
-        Map<String, List<List<SlaveInfo>>> files = masterServer.getFileLocations();
+        // Copie triée : le nombre annoncé correspond aux entrées envoyées même si des ADD arrivent entre-temps
+        List<Map.Entry<String, List<List<SlaveInfo>>>> files = new ArrayList<>(masterServer.getFileLocations().entrySet());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(dos, FileTransferUtils.STREAM_BUFFER_SIZE));
 
         // Envoyer le nombre total de fichiers
-        dos.writeInt(files.size());
-        dos.flush();
+        out.writeInt(files.size());
 
         // Pour chaque fichier, envoyer son nom et le nombre de parties
-        for (Map.Entry<String, List<List<SlaveInfo>>> entry : files.entrySet()) {
-            dos.writeUTF(entry.getKey()); // Nom du fichier
-            dos.writeInt(entry.getValue().size()); // Nombre de parties
-            dos.flush();
+        for (Map.Entry<String, List<List<SlaveInfo>>> entry : files) {
+            out.writeUTF(entry.getKey()); // Nom du fichier
+            out.writeInt(entry.getValue().size()); // Nombre de parties
         }
+        out.flush();
     }
 
-    private void handleRemove(DataOutputStream dos, DataInputStream dis) throws IOException {
-        String fileName = dis.readUTF();
-        List<List<SlaveInfo>> slaves = masterServer.getFileLocations().get(fileName);
+    /**
+     * LIST paginé : préfixe, curseur (dernier nom de la page précédente, vide pour la première)
+     * et taille de page. La page est écrite d'un seul bloc.
+     */
+    private void handleListPage(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String prefix = dis.readUTF();
+        String startAfter = dis.readUTF();
+        int pageSize = dis.readInt();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(dos, FileTransferUtils.STREAM_BUFFER_SIZE));
+        writeListPage(out, prefix, startAfter, pageSize);
+        out.flush();
+    }
 
-        if (slaves == null || slaves.isEmpty()) {
-            dos.writeUTF("Erreur: Fichier non trouvé");
+    // Nombre d'entrées, chaque nom et son nombre de parties, puis le curseur de la page suivante (vide : dernière page)
+    void writeListPage(DataOutputStream out, String prefix, String startAfter, int pageSize) throws IOException {
+        int limit = masterServer.listPageSize(pageSize);
+        List<Map.Entry<String, List<List<SlaveInfo>>>> page = masterServer.listPage(prefix, startAfter, limit);
+        int count = Math.min(page.size(), limit);
+        boolean more = page.size() > limit;
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeUTF(page.get(i).getKey());
+            out.writeInt(page.get(i).getValue().size());
+        }
+        out.writeUTF(more ? page.get(count - 1).getKey() : "");
+    }
+
+    /**
+     * Contenu direct d'un répertoire ("" : la racine) : nombre d'entrées, puis pour chacune son nom
+     * (terminé par "/" pour un sous-répertoire) et son nombre de parties (0 pour un sous-répertoire).
+     */
+    private void handleListDir(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String directory = readPath(dis);
+        List<Map.Entry<String, List<List<SlaveInfo>>>> children = masterServer.listDirectory(directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(dos, FileTransferUtils.STREAM_BUFFER_SIZE));
+        out.writeInt(children.size());
+        for (Map.Entry<String, List<List<SlaveInfo>>> child : children) {
+            out.writeUTF(child.getKey());
+            out.writeInt(child.getValue() == null ? 0 : child.getValue().size());
+        }
+        out.flush();
+    }
+
+    /**
+     * Suppression récursive d'un répertoire : seuls les fichiers de son sous-arbre sont parcourus.
+     * Les fichiers quittent les métadonnées d'un seul lot, puis leurs parties sont effacées, chaque
+     * slave concerné en parallèle des autres ; celles d'un fichier en cours de lecture le sont à
+     * la fin des lectures.
+     */
+    private void handleRemoveDir(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String directory = readPath(dis);
+        if (directory.isEmpty()) {
+            dos.writeUTF("Erreur : Chemin invalide (la racine ne peut pas être supprimée)");
             return;
         }
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, List<List<SlaveInfo>>> file : masterServer.listSubtree(directory)) {
+            paths.add(file.getKey());
+        }
+        if (paths.isEmpty()) {
+            dos.writeUTF("Erreur : Répertoire introuvable");
+            return;
+        }
+        List<FileVersion> removed = masterServer.removeFiles(paths);
+        List<FileVersion> unread = new ArrayList<>();
+        for (FileVersion file : removed) {
+            if (masterServer.getFileVersions().retire(FileVersions.Retirement.of(file))) {
+                unread.add(file);
+            }
+        }
+        Set<FileVersion> failed = masterServer.getPartDeleter().removeVersions(unread);
+        System.out.println("Répertoire " + directory + " : " + removed.size() + " fichier(s) supprimé(s), "
+                + failed.size() + " dont les parties n'ont pas pu être effacées");
+        if (failed.isEmpty()) {
+            dos.writeUTF("SUCCESS: " + removed.size() + " fichier(s) supprimé(s)");
+        } else {
+            dos.writeUTF("WARNING: " + removed.size() + " fichier(s) supprimé(s), parties de " + failed.size()
+                    + " fichier(s) non effacées sur certains slaves");
+        }
+    }
+
+    // Chemin normalisé lu sur dis ; un chemin invalide devient "", qui ne désigne aucun fichier
+    static String readPath(DataInputStream dis) throws IOException {
+        String path = Namespace.normalize(dis.readUTF());
+        return path == null ? "" : path;
+    }
 
+    // Raison pour laquelle un fichier ne peut pas être créé à ce chemin, ou null
+    private String pathConflict(String path) {
+        if (path.isEmpty()) {
+            return "Chemin invalide";
+        }
+        if (masterServer.isDirectory(path)) {
+            return "Un répertoire existe déjà à ce chemin : " + path;
+        }
+        for (int separator = path.indexOf(Namespace.SEPARATOR); separator >= 0;
+             separator = path.indexOf(Namespace.SEPARATOR, separator + 1)) {
+            if (masterServer.getFileLocations().containsKey(path.substring(0, separator))) {
+                return "Un fichier existe déjà à ce chemin : " + path.substring(0, separator);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mode direct : le master ne renvoie que la carte des parties (taille du fichier, pour chaque
+     * partie ses répliques, puis le numéro de version qui nomme les parties) et le client lit
+     * les parties sur les slaves.
+     */
+    private void handleGetMap(DataOutputStream dos, DataInputStream dis) throws IOException {
+        // Placement, taille et version lus ensemble : un remplacement concurrent ne mélange pas deux versions
+        FileVersion file = masterServer.getFile(readPath(dis));
+        if (file == null || file.getPartCount() == 0) {
+            dos.writeUTF("Erreur : Fichier introuvable.");
+            return;
+        }
+
+        dos.writeUTF("SUCCESS");
+        dos.writeLong(file.getSize());
+        writePlacement(dos, file.getPlacement());
+        dos.writeLong(file.getVersion());
+    }
+
+    /**
+     * Lecture d'une plage d'octets : offset et longueur sont ramenés aux frontières de parties
+     * de FileTransferUtils.splitFile, et seules les portions utiles sont demandées aux slaves
+     * (GET_PART_RANGE, ou OP_GET_PART_RANGE avec slaveProtocol=binary). Réponse : "SUCCESS", longueur réelle, puis les octets.
+     */
+    private void handleGetRange(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String fileName = readPath(dis);
+        long offset = dis.readLong();
+        long length = dis.readLong();
+
+        String invalid = rangeError(masterServer.getFileSize(fileName), offset, length);
+        if (invalid != null) {
+            dos.writeUTF("Erreur : " + invalid);
+            return;
+        }
+        // Admission d'abord, puis bail sur la version lue : l'attente d'admission ne retient aucune version
+        long fileSize = masterServer.getFileSize(fileName);
+        try (AdmissionController.Ticket ticket = admit(AdmissionController.Kind.DOWNLOAD,
+                Math.min(length, Math.max(0, fileSize - offset)))) {
+            if (ticket == null) {
+                dos.writeUTF(busyResponse(AdmissionController.Kind.DOWNLOAD));
+                return;
+            }
+            FileVersions.Lease lease = masterServer.getFileVersions().open(fileName);
+            if (lease == null) {
+                dos.writeUTF("Erreur : Fichier introuvable.");
+                return;
+            }
+            try (lease) {
+                FileVersion file = lease.getFile();
+                invalid = rangeError(file.getSize(), offset, length);
+                if (invalid != null) {
+                    dos.writeUTF("Erreur : " + invalid);
+                    return;
+                }
+                long rangeLength = Math.min(length, file.getSize() - offset);
+                dos.writeUTF("SUCCESS");
+                dos.writeLong(rangeLength);
+                streamRange(file, offset, rangeLength, dos);
+                dos.flush();
+            }
+        }
+    }
+
+    // Raison pour laquelle la plage ne peut pas être lue dans un fichier de cette taille (-1 : absent), ou null
+    static String rangeError(long fileSize, long offset, long length) {
+        if (fileSize < 0) {
+            return "Fichier introuvable.";
+        }
+        if (offset < 0 || length < 0 || offset > fileSize) {
+            return "Plage invalide (taille du fichier : " + fileSize + ")";
+        }
+        return null;
+    }
+
+    // Envoie les octets [offset, offset + rangeLength) de la version, lus partie par partie sur les slaves
+    void streamRange(FileVersion file, long offset, long rangeLength, OutputStream out) throws IOException {
+        List<List<SlaveInfo>> slavesPerPart = file.getPlacement();
+        long fileSize = file.getSize();
+        int numParts = slavesPerPart.size();
+        long partSize = fileSize / numParts + ((fileSize % numParts == 0) ? 0 : 1);
+        byte[] buffer = new byte[FileTransferUtils.STREAM_BUFFER_SIZE];
+        long position = offset;
+        long end = offset + rangeLength;
+
+        while (position < end) {
+            int partIndex = (int) (position / partSize);
+            long partStart = partIndex * partSize;
+            long partEnd = Math.min(partStart + partSize, fileSize);
+            long sliceEnd = Math.min(end, partEnd);
+
+            String partName = file.partName(partIndex);
+            long sent = relayRangeFromReplicas(partName, slavesPerPart.get(partIndex), position - partStart,
+                    sliceEnd - position, out, buffer);
+            if (sent < sliceEnd - position) {
+                // Les octets promis ne peuvent plus être fournis : on coupe la connexion
+                throw new IOException("Impossible de lire " + partName + " sur ses répliques");
+            }
+            position = sliceEnd;
+        }
+    }
+
+    // Relaie une portion de partie ; en cas d'échec, la réplique suivante reprend là où la précédente s'est arrêtée
+    private long relayRangeFromReplicas(String partName, List<SlaveInfo> replicas, long offset, long length,
+                                        OutputStream client, byte[] buffer) throws IOException {
+        SlaveBinaryLinks links = masterServer.getSlaveBinaryLinks();
+        long sent = 0;
+        for (SlaveInfo slave : replicas) {
+            if (sent >= length) {
+                break;
+            }
+            sent += links != null
+                    ? relayRangeOverLink(links, slave, partName, offset + sent, length - sent, client, buffer)
+                    : relayRangeOverPool(slave, partName, offset + sent, length - sent, client, buffer);
+        }
+        return sent;
+    }
+
+    // GET_PART_RANGE sur une connexion du pool ; retourne les octets relayés depuis ce slave
+    private long relayRangeOverPool(SlaveInfo slave, String partName, long offset, long length,
+                                    OutputStream client, byte[] buffer) throws IOException {
+        SlaveConnectionPool pool = masterServer.getConnectionPool();
+        SlaveConnectionPool.SlaveConnection connection;
+        try {
+            connection = pool.borrow(slave);
+        } catch (IOException e) {
+            System.err.println("Slave injoignable " + slave + " : " + e.getMessage());
+            return 0;
+        }
+        long sent = 0;
+        boolean reusable = false;
+        try {
+            DataInputStream in = connection.getInput();
+            long available;
+            try {
+                DataOutputStream out = connection.getOutput();
+                out.writeUTF("GET_PART_RANGE");
+                out.writeUTF(partName);
+                out.writeLong(offset);
+                out.writeLong(length);
+                out.flush();
+                available = in.readLong();
+            } catch (IOException e) {
+                System.err.println("Échec de la lecture de " + partName + " sur " + slave + " : " + e.getMessage());
+                return 0;
+            }
+            if (available < length) {
+                System.err.println("Plage de " + partName + " incomplète sur " + slave);
+                return 0;
+            }
+
+            while (sent < length) {
+                int bytesRead;
+                try {
+                    bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, length - sent));
+                    if (bytesRead == -1) {
+                        throw new EOFException("Fin du flux inattendue");
+                    }
+                } catch (IOException e) {
+                    System.err.println("Lecture de " + partName + " interrompue sur " + slave + " : " + e.getMessage());
+                    break;
+                }
+                client.write(buffer, 0, bytesRead);
+                sent += bytesRead;
+            }
+            if (sent == available) {
+                reusable = "SUCCESS".equals(in.readUTF());
+            }
+        } catch (IOException e) {
+            // Échec côté slave après l'envoi complet de la plage : la connexion est seulement abandonnée
+            if (sent < length) {
+                throw e;
+            }
+        } finally {
+            if (reusable) {
+                pool.release(connection);
+            } else {
+                pool.invalidate(connection);
+            }
+        }
+        return sent;
+    }
+
+    // OP_GET_PART_RANGE sur la connexion binaire multiplexée du slave (slaveProtocol=binary)
+    private long relayRangeOverLink(SlaveBinaryLinks links, SlaveInfo slave, String partName, long offset, long length,
+                                    OutputStream client, byte[] buffer) throws IOException {
+        BinaryProtocol.Connection.Call call;
+        try {
+            call = links.get(slave).call(BinaryProtocol.OP_GET_PART_RANGE, BinaryProtocol.payload(out -> {
+                out.writeUTF(partName);
+                out.writeLong(offset);
+                out.writeLong(length);
+            }));
+        } catch (IOException e) {
+            System.err.println("Slave injoignable " + slave + " : " + e.getMessage());
+            return 0;
+        }
+        long sent = 0;
+        try {
+            DataInputStream in;
+            long available;
+            try {
+                if (call.status() != BinaryProtocol.STATUS_OK) {
+                    System.err.println("Échec de la lecture de " + partName + " sur " + slave + " : " + call.errorMessage());
+                    return 0;
+                }
+                in = call.body();
+                available = in.readLong();
+            } catch (IOException e) {
+                System.err.println("Échec de la lecture de " + partName + " sur " + slave + " : " + e.getMessage());
+                return 0;
+            }
+            if (available < length) {
+                System.err.println("Plage de " + partName + " incomplète sur " + slave);
+                return 0;
+            }
+
+            while (sent < length) {
+                int bytesRead;
+                try {
+                    bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, length - sent));
+                    if (bytesRead == -1) {
+                        throw new EOFException("Fin du flux inattendue");
+                    }
+                } catch (IOException e) {
+                    System.err.println("Lecture de " + partName + " interrompue sur " + slave + " : " + e.getMessage());
+                    break;
+                }
+                client.write(buffer, 0, bytesRead);
+                sent += bytesRead;
+            }
+            return sent;
+        } finally {
+            call.cancel(); // Sans effet sur une réponse complète ; sinon ses trames restantes sont jetées
+        }
+    }
+
+    /**
+     * Mode direct, étape 1 : le client annonce le nom et la taille du fichier, le master
+     * répond avec le mode de réplication, la taille des parties, leurs répliques cibles et le
+     * numéro de la nouvelle version. Le client écrit les parties sous ce numéro : un fichier
+     * existant reste lisible jusqu'à l'ADD_COMMIT qui le remplace.
+     */
+    private void handleAddMap(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String fileName = readPath(dis);
+        long fileSize = dis.readLong();
+
+        String conflict = pathConflict(fileName);
+        if (conflict == null && !plannedUploads.containsKey(fileName) && !masterServer.getFileVersions().reserve(fileName)) {
+            conflict = "Un ajout de ce fichier est déjà en cours";
+        }
+        if (conflict != null) {
+            dos.writeUTF("ERROR: " + conflict);
+            return;
+        }
+
+        List<SlaveInfo> slaves = masterServer.getActiveSlaves();
+        if (slaves.isEmpty()) {
+            if (!plannedUploads.containsKey(fileName)) {
+                masterServer.getFileVersions().unreserve(fileName);
+            }
+            dos.writeUTF("ERROR: Aucun slave disponible pour stocker le fichier.");
+            return;
+        }
+
+        int numParts = slaves.size();
+        long partSize = fileSize / numParts + ((fileSize % numParts == 0) ? 0 : 1);
+        List<List<SlaveInfo>> placement = masterServer.getPlacementPolicy()
+                .place(numParts, partSize, masterServer.getREPLICATION_FACTOR(), slaves);
+        FileVersion planned = new FileVersion(fileName, masterServer.nextVersion(), fileSize, placement);
+        FileVersion abandoned = plannedUploads.put(fileName, planned);
+        if (abandoned != null) {
+            // ADD_MAP répété sans ADD_COMMIT : les parties de l'envoi précédent ne serviront plus
+            masterServer.getFileVersions().retireInBackground(FileVersions.Retirement.of(abandoned));
+        }
+
+        dos.writeUTF("SUCCESS");
+        dos.writeBoolean(masterServer.isChainReplication());
+        dos.writeLong(partSize);
+        writePlacement(dos, placement);
+        dos.writeLong(planned.getVersion());
+    }
+
+    /**
+     * Mode direct, étape 2 : le client indique les répliques qui ont confirmé chaque partie.
+     * Seules les répliques prévues par ADD_MAP sont retenues.
+     */
+    private void handleAddCommit(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String fileName = readPath(dis);
+        long fileSize = dis.readLong();
+        List<List<SlaveInfo>> reported = readPlacement(dis);
+
+        FileVersion planned = plannedUploads.remove(fileName);
+        if (planned == null) {
+            dos.writeUTF("ERROR: Aucun envoi prévu pour ce fichier");
+            return;
+        }
+        try {
+            commitDirectUpload(dos, planned, fileSize, reported);
+        } finally {
+            masterServer.getFileVersions().unreserve(fileName);
+        }
+    }
+
+    private void commitDirectUpload(DataOutputStream dos, FileVersion planned, long fileSize,
+                                    List<List<SlaveInfo>> reported) throws IOException {
+        if (planned.getPartCount() != reported.size()) {
+            discardParts(planned);
+            dos.writeUTF("ERROR: Nombre de parties incohérent");
+            return;
+        }
+
+        List<List<SlaveInfo>> slaveList = new ArrayList<>();
         boolean success = true;
-        for (List<SlaveInfo> replicas : slaves) {
-            for (SlaveInfo slave : replicas) {
-                success &= removeFromSlave(slave, fileName);
+        for (int i = 0; i < planned.getPartCount(); i++) {
+            List<SlaveInfo> replicas = new ArrayList<>();
+            for (SlaveInfo slave : planned.getPlacement().get(i)) {
+                if (reported.get(i).contains(slave)) {
+                    replicas.add(slave);
+                }
+            }
+            if (replicas.isEmpty()) {
+                discardParts(planned);
+                dos.writeUTF("ERROR: Certaines parties n'ont pu être stockées sur aucun slave");
+                return;
             }
+            success &= replicas.size() == planned.getPlacement().get(i).size();
+            slaveList.add(replicas);
         }
 
+        retireReplaced(masterServer.recordFile(planned.getPath(), fileSize, planned.getVersion(), slaveList));
         if (success) {
-            masterServer.getFileLocations().remove(fileName);
-            dos.writeUTF("Fichier supprimé avec succès");
+            dos.writeUTF("SUCCESS: Fichier stocké avec succès");
         } else {
-            dos.writeUTF("Erreur: La suppression a échoué sur certains slaves");
+            dos.writeUTF("WARNING: Certaines répliques n'ont pas pu être créées");
         }
     }
 
-    private boolean removeFromSlave(SlaveInfo slave, String fileName) {
-        try (Socket slaveSocket = new Socket(slave.getIp(), slave.getPort());
-             DataOutputStream dos = new DataOutputStream(slaveSocket.getOutputStream());
-             DataInputStream dis = new DataInputStream(slaveSocket.getInputStream())) {
+    void writePlacement(DataOutputStream dos, List<List<SlaveInfo>> placement) throws IOException {
+        dos.writeInt(placement.size());
+        for (List<SlaveInfo> replicas : placement) {
+            dos.writeInt(replicas.size());
+            for (SlaveInfo slave : replicas) {
+                dos.writeUTF(slave.getIp());
+                dos.writeInt(slave.getPort());
+            }
+        }
+    }
 
-            dos.writeUTF("REMOVE_PART");
-            dos.writeUTF(fileName);
+    private List<List<SlaveInfo>> readPlacement(DataInputStream dis) throws IOException {
+        int partCount = dis.readInt();
+        List<List<SlaveInfo>> placement = new ArrayList<>();
+        for (int i = 0; i < partCount; i++) {
+            int replicaCount = dis.readInt();
+            List<SlaveInfo> replicas = new ArrayList<>();
+            for (int j = 0; j < replicaCount; j++) {
+                replicas.add(new SlaveInfo(dis.readUTF(), dis.readInt()));
+            }
+            placement.add(replicas);
+        }
+        return placement;
+    }
 
-            String response = dis.readUTF();
-            return "SUCCESS".equals(response);
-        } catch (IOException e) {
-            System.err.println("Erreur lors de la suppression sur le slave " + slave.getIp() + ": " + e.getMessage());
-            return false;
+    // Le fichier quitte les métadonnées tout de suite ; ses parties sont effacées à la fin des lectures en cours
+    private void handleRemove(DataOutputStream dos, DataInputStream dis) throws IOException {
+        FileVersion removed = masterServer.removeFile(readPath(dis));
+        if (removed == null) {
+            dos.writeUTF("Erreur: Fichier non trouvé");
+            return;
+        }
+        if (retireRemoved(removed)) {
+            dos.writeUTF("Fichier supprimé avec succès");
+        } else {
+            dos.writeUTF("Erreur: Fichier supprimé, mais ses parties n'ont pas pu être effacées sur certains slaves");
+        }
+    }
+
+    /**
+     * Retire une version qui a quitté les métadonnées : ses parties sont effacées tout de suite si
+     * aucune lecture ne la retient, sinon à la fin de ces lectures. Retourne false si un slave
+     * n'a pas pu effacer ses parties.
+     */
+    boolean retireRemoved(FileVersion file) {
+        FileVersions.Retirement retirement = FileVersions.Retirement.of(file);
+        return !masterServer.getFileVersions().retire(retirement) || masterServer.getFileVersions().delete(retirement);
+    }
+
+    // Version remplacée par un ADD : effacée en tâche de fond, après les lectures qui la retiennent
+    private void retireReplaced(FileVersion previous) {
+        if (previous != null) {
+            masterServer.getFileVersions().retireInBackground(FileVersions.Retirement.of(previous));
         }
     }
 
     private boolean sendToSlave(SlaveInfo slaveAddress, File filePart) throws IOException {
         System.out.println("Tentative d'envoi à " + slaveAddress.getIp() + ":" + slaveAddress.getPort());
-        try (Socket slaveSocket = new Socket(slaveAddress.getIp(), slaveAddress.getPort());
-             DataOutputStream dos = new DataOutputStream(slaveSocket.getOutputStream());
-             DataInputStream dis = new DataInputStream(slaveSocket.getInputStream())) {
-
+        SlaveConnectionPool pool = masterServer.getConnectionPool();
+        SlaveConnectionPool.SlaveConnection connection = pool.borrow(slaveAddress);
+        String response;
+        try {
+            DataOutputStream dos = connection.getOutput();
             dos.writeUTF("ADD_PART");
-            dos.flush();
-
             FileTransferUtils.sendFile(dos, filePart.getAbsolutePath());
+            dos.flush();
 
             // Attendre la confirmation du slave
-            if (!slaveSocket.isClosed()) {
-                String response = dis.readUTF();
+            response = connection.getInput().readUTF();
+        } catch (IOException e) {
+            pool.invalidate(connection);
+            throw e;
+        }
 
-                if (!"SUCCESS".equals(response)) {
-                    throw new IOException("Le slave n'a pas pu recevoir le fichier correctement");
-                } else {
-                    return true;
-                }
+        if (!"SUCCESS".equals(response)) {
+            // Le slave ferme la connexion après un échec de réception
+            pool.invalidate(connection);
+            throw new IOException("Le slave n'a pas pu recevoir le fichier correctement");
+        }
+        pool.release(connection);
+        return true;
+    }
+
+    // Envoi d'une partie stockée dans /temp en réplication chaînée
+    private List<SlaveInfo> sendChainToSlaves(List<SlaveInfo> chain, File filePart) throws IOException {
+        try (SlaveUpload upload = SlaveUpload.openChain(masterServer.getConnectionPool(), chain, filePart.getName(), filePart.length());
+             FileInputStream fis = new FileInputStream(filePart)) {
+            MessageDigest digest = FileTransferUtils.newDigest();
+            byte[] buffer = new byte[FileTransferUtils.STREAM_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) > 0) {
+                digest.update(buffer, 0, bytesRead);
+                upload.write(buffer, 0, bytesRead);
             }
+            return upload.finish(FileTransferUtils.toHex(digest.digest()));
         }
-        return false;
     }
 
     private void handleAdd(DataOutputStream dos, DataInputStream dis) throws IOException {
-        masterServer.discoverSlaves();
-        File tempDir = new File("/temp");
-        if (!tempDir.exists() && !tempDir.mkdirs()) {
-            throw new IOException("Impossible de créer le répertoire temporaire");
+        String fileName = readPath(dis);
+        long fileSize = dis.readLong();
+        String expectedChecksum = dis.readUTF();
+
+        String conflict = pathConflict(fileName);
+        if (conflict == null && !masterServer.getFileVersions().reserve(fileName)) {
+            conflict = "Un ajout de ce fichier est déjà en cours";
+        }
+        if (conflict != null) {
+            FileTransferUtils.skipFully(dis, fileSize);
+            dos.writeUTF("ERROR: " + conflict);
+            return;
         }
-        File file = FileTransferUtils.receiveFile(dis, tempDir.getAbsolutePath());
 
-        // Créer une copie de la liste des slaves pour éviter les modifications concurrentes
-        List<SlaveInfo> slaves;
-        synchronized (masterServer.getActiveSlaves()) {
-            slaves = new ArrayList<>(masterServer.getActiveSlaves());
+        try (AdmissionController.Ticket ticket = admit(AdmissionController.Kind.UPLOAD, fileSize)) {
+            if (ticket == null) {
+                // Le client a déjà commencé à envoyer les données (pas d'ADMIT préalable) : on les ignore
+                FileTransferUtils.skipFully(dis, fileSize);
+                dos.writeUTF(busyResponse(AdmissionController.Kind.UPLOAD));
+                return;
+            }
+            // Nouvelle version écrite à côté de l'actuelle : les lectures en cours continuent,
+            // l'échange des métadonnées la rend visible, et un échec n'efface que ses propres parties
+            long version = masterServer.nextVersion();
+            if (masterServer.isStreamingAdd()) {
+                handleStreamingAdd(dos, dis, fileName, version, fileSize, expectedChecksum);
+            } else {
+                handleStagedAdd(dos, dis, fileName, version, fileSize, expectedChecksum);
+            }
+        } finally {
+            masterServer.getFileVersions().unreserve(fileName);
         }
+    }
+
+    private void handleStagedAdd(DataOutputStream dos, DataInputStream dis, String fileName, long version,
+                                 long fileSize, String expectedChecksum) throws IOException {
+        // Répertoire propre à cet ADD dans /temp : deux ADD simultanés ne suppriment pas les fichiers l'un de l'autre
+        File stagingRoot = new File("/temp");
+        if (!stagingRoot.exists() && !stagingRoot.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire temporaire");
+        }
+        File tempDir = Files.createTempDirectory(stagingRoot.toPath(), "add_").toFile();
+        File file;
+        try {
+            // Nommé d'après la version : splitFile en tire les noms de ses parties
+            file = FileTransferUtils.receiveFileData(dis, tempDir.getAbsolutePath(),
+                    Namespace.storagePrefix(fileName, version), fileSize, expectedChecksum);
+        } catch (IOException e) {
+            FileTransferUtils.deleteDirectory(tempDir.getAbsolutePath());
+            throw e;
+        }
+
+        // Vue courante des slaves vivants (copie fournie par le registre)
+        List<SlaveInfo> slaves = masterServer.getActiveSlaves();
 
         if (slaves.isEmpty()) {
+            FileTransferUtils.deleteDirectory(tempDir.getAbsolutePath());
             dos.writeUTF("ERROR: Aucun slave disponible pour stocker le fichier.");
             return;
         }
 
         File[] parts = FileTransferUtils.splitFile(file.getAbsolutePath(), slaves.size());
-        // Modifier la section d'envoi des parties :
-        List<List<SlaveInfo>> slaveList = new ArrayList<>();
-        boolean success = true;
+        List<List<SlaveInfo>> targets = masterServer.getPlacementPolicy()
+                .place(parts.length, parts[0].length(), masterServer.getREPLICATION_FACTOR(), slaves);
 
         try {
-            for (int i = 0; i < parts.length; i++) {
-                List<SlaveInfo> replicas = new ArrayList<>();
-                for (int j = 0; j < masterServer.getREPLICATION_FACTOR(); j++) {
-                    int slaveIndex = (i + j) % slaves.size(); // Sélection circulaire
-                    SlaveInfo slaveAddress = slaves.get(slaveIndex);
-                    System.out.println("Envoi de la partie " + (i + 1) + " (réplique " + (j + 1) + ") à " + slaveAddress);
-                    try {
-                        if (sendToSlave(slaveAddress, parts[i])) {
-                            replicas.add(slaveAddress);
-                        }
-                    } catch (IOException e) {
-                        success = false;
-                        System.err.println("Erreur lors de l'envoi à " + slaveAddress + ": " + e.getMessage());
-                    }
-                }
-                slaveList.add(replicas);
+            // Envoi parallèle des (partie, réplique) vers des slaves distincts
+            UploadScheduler scheduler = masterServer.getUploadScheduler();
+            List<List<SlaveInfo>> slaveList = masterServer.isChainReplication()
+                    ? scheduler.uploadChains(parts, targets, this::sendChainToSlaves)
+                    : scheduler.uploadParts(parts, targets, this::sendToSlave);
+            boolean stored = slaveList.size() == parts.length;
+            boolean success = stored;
+            for (int i = 0; stored && i < slaveList.size(); i++) {
+                stored = !slaveList.get(i).isEmpty();
+                success &= slaveList.get(i).size() == targets.get(i).size();
+            }
+
+            if (!stored) {
+                // Version non enregistrée : ses parties ne seraient référencées nulle part
+                discardParts(new FileVersion(fileName, version, file.length(), targets));
+                dos.writeUTF("ERROR: Certaines parties n'ont pu être stockées sur aucun slave");
+                return;
             }
 
+            // Répliques manquantes recréées ensuite par le ReplicationManager
+            retireReplaced(masterServer.recordFile(fileName, file.length(), version, slaveList));
             if (success) {
-                masterServer.getFileLocations().put(file.getName(), slaveList);
                 dos.writeUTF("SUCCESS: Fichier stocké avec succès");
             } else {
                 dos.writeUTF("WARNING: Certaines répliques n'ont pas pu être créées");
@@ -198,27 +857,198 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /**
+     * ADD en flux : le fichier du client est découpé au fil de la réception et chaque
+     * partie est transmise directement à ses répliques. Rien n'est écrit sur le disque
+     * du master et la mémoire utilisée se limite à un tampon.
+     */
+    private void handleStreamingAdd(DataOutputStream dos, DataInputStream dis, String fileName, long version,
+                                    long fileSize, String expectedChecksum) throws IOException {
+        List<SlaveInfo> slaves = masterServer.getActiveSlaves();
+
+        if (slaves.isEmpty()) {
+            FileTransferUtils.skipFully(dis, fileSize);
+            dos.writeUTF("ERROR: Aucun slave disponible pour stocker le fichier.");
+            return;
+        }
+
+        // Mêmes frontières de parties que FileTransferUtils.splitFile
+        int numParts = slaves.size();
+        long partSize = fileSize / numParts + ((fileSize % numParts == 0) ? 0 : 1);
+
+        List<List<SlaveInfo>> placement = masterServer.getPlacementPolicy()
+                .place(numParts, partSize, masterServer.getREPLICATION_FACTOR(), slaves);
+        // Toutes les cibles prévues : une partie interrompue en cours d'envoi est effacée elle aussi
+        FileVersion staged = new FileVersion(fileName, version, fileSize, placement);
+        UploadScheduler scheduler = masterServer.getUploadScheduler();
+
+        MessageDigest fileDigest = FileTransferUtils.newDigest();
+        byte[] buffer = new byte[FileTransferUtils.STREAM_BUFFER_SIZE];
+        List<List<SlaveInfo>> slaveList = new ArrayList<>();
+        boolean success = true;
+        long remaining = fileSize;
+
+        try {
+            for (int i = 0; i < numParts; i++) {
+                long partLength = Math.min(partSize, remaining);
+                remaining -= partLength;
+
+                List<SlaveInfo> targets = placement.get(i);
+                String partName = staged.partName(i);
+                List<SlaveInfo> replicas;
+                scheduler.acquire(targets);
+                try {
+                    replicas = streamPart(dis, partName, partLength, targets, buffer, fileDigest);
+                } finally {
+                    scheduler.release(targets);
+                }
+                if (replicas.size() < targets.size()) {
+                    success = false;
+                }
+                slaveList.add(replicas);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discardParts(staged);
+            throw new IOException("Envoi interrompu", e);
+        } catch (IOException e) {
+            discardParts(staged);
+            throw e;
+        }
+
+        String receivedChecksum = FileTransferUtils.toHex(fileDigest.digest());
+        if (!expectedChecksum.equals(receivedChecksum)) {
+            discardParts(staged);
+            dos.writeUTF("ERROR: Checksum invalide. Attendu: " + expectedChecksum + ", Reçu: " + receivedChecksum);
+            return;
+        }
+
+        for (List<SlaveInfo> replicas : slaveList) {
+            if (replicas.isEmpty()) {
+                discardParts(staged);
+                dos.writeUTF("ERROR: Certaines parties n'ont pu être stockées sur aucun slave");
+                return;
+            }
+        }
+
+        retireReplaced(masterServer.recordFile(fileName, fileSize, version, slaveList));
+        if (success) {
+            dos.writeUTF("SUCCESS: Fichier stocké avec succès");
+        } else {
+            dos.writeUTF("WARNING: Certaines répliques n'ont pas pu être créées");
+        }
+    }
+
+    // Lit une partie depuis le client et l'écrit en même temps vers toutes ses répliques
+    private List<SlaveInfo> streamPart(DataInputStream dis, String partName, long partLength, List<SlaveInfo> targets,
+                                       byte[] buffer, MessageDigest fileDigest) throws IOException {
+        List<SlaveUpload> uploads = new ArrayList<>();
+        if (masterServer.isChainReplication()) {
+            // Un seul envoi : les slaves se recopient la partie entre eux
+            System.out.println("Envoi en chaîne de " + partName + " à " + targets);
+            try {
+                uploads.add(SlaveUpload.openChain(masterServer.getConnectionPool(), targets, partName, partLength));
+            } catch (IOException e) {
+                System.err.println("Erreur lors de l'envoi en chaîne à " + targets + ": " + e.getMessage());
+            }
+        } else {
+            for (SlaveInfo target : targets) {
+                System.out.println("Envoi en flux de " + partName + " à " + target);
+                try {
+                    uploads.add(SlaveUpload.open(masterServer.getConnectionPool(), target, partName, partLength));
+                } catch (IOException e) {
+                    System.err.println("Erreur lors de l'envoi à " + target + ": " + e.getMessage());
+                }
+            }
+        }
+
+        MessageDigest partDigest = FileTransferUtils.newDigest();
+        List<SlaveInfo> stored = new ArrayList<>();
+        try {
+            long remaining = partLength;
+            while (remaining > 0) {
+                int bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (bytesRead == -1) {
+                    throw new IOException("Fin du flux inattendue");
+                }
+                partDigest.update(buffer, 0, bytesRead);
+                fileDigest.update(buffer, 0, bytesRead);
+
+                // Un slave en échec est abandonné, la lecture du client continue pour les autres
+                Iterator<SlaveUpload> it = uploads.iterator();
+                while (it.hasNext()) {
+                    SlaveUpload upload = it.next();
+                    try {
+                        upload.write(buffer, 0, bytesRead);
+                    } catch (IOException e) {
+                        System.err.println("Erreur lors de l'envoi à " + upload.getSlave() + ": " + e.getMessage());
+                        upload.close();
+                        it.remove();
+                    }
+                }
+                remaining -= bytesRead;
+            }
+
+            String partChecksum = FileTransferUtils.toHex(partDigest.digest());
+            for (SlaveUpload upload : uploads) {
+                try {
+                    stored.addAll(upload.finish(partChecksum));
+                } catch (IOException e) {
+                    System.err.println("Erreur lors de la confirmation de " + upload.getSlave() + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            for (SlaveUpload upload : uploads) {
+                upload.close();
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Supprime des slaves les parties d'un ADD abandonné. Elles portent le numéro de la nouvelle
+     * version : la version enregistrée du même chemin, si elle existe, n'est pas touchée.
+     */
+    private void discardParts(FileVersion staged) {
+        masterServer.getPartDeleter().removeVersion(staged);
+    }
+
     private void handleGet(DataOutputStream dos, DataInputStream dis) throws IOException {
-        String fileName = dis.readUTF();
+        String fileName = readPath(dis);
         System.out.println("Demande de téléchargement pour le fichier: " + fileName);
 
-        // Récupérer les slaves associés à ce fichier
-        List<List<SlaveInfo>> slavesPerPart  = masterServer.getFileLocations().get(fileName);
-        if (slavesPerPart  == null || slavesPerPart .isEmpty()) {
+        if (!masterServer.getFileLocations().containsKey(fileName)) {
             dos.writeUTF("Erreur : Fichier introuvable.");
             return;
         }
+        // Admission d'abord, puis bail sur la version lue : l'attente d'admission ne retient aucune version
+        try (AdmissionController.Ticket ticket = admit(AdmissionController.Kind.DOWNLOAD,
+                masterServer.getFileSize(fileName))) {
+            if (ticket == null) {
+                dos.writeUTF(busyResponse(AdmissionController.Kind.DOWNLOAD));
+                return;
+            }
+            FileVersions.Lease lease = masterServer.getFileVersions().open(fileName);
+            if (lease == null) {
+                dos.writeUTF("Erreur : Fichier introuvable.");
+                return;
+            }
+            try (lease) {
+                mergeAndSend(dos, lease.getFile());
+            }
+        }
+    }
 
+    private void mergeAndSend(DataOutputStream dos, FileVersion file) throws IOException {
+        List<List<SlaveInfo>> slavesPerPart = file.getPlacement();
         // Créer un répertoire temporaire
-        File tempDir = new File(System.getProperty("user.dir"), "temp_" + System.currentTimeMillis());
-        if (!tempDir.mkdirs()) {
-            throw new IOException("Impossible de créer le répertoire temporaire");
-        }
+        // Répertoire unique : deux GET commencés dans la même milliseconde ne le partagent pas
+        File tempDir = Files.createTempDirectory(Path.of(System.getProperty("user.dir")), "temp_").toFile();
 
         boolean allPartsFetched = true;
 
         for (int i = 0; i < slavesPerPart.size(); i++) {
-            String partName = fileName + ".part" + (i + 1);
+            String partName = file.partName(i);
             List<SlaveInfo> replicas = slavesPerPart.get(i);
             boolean partFetched = false;
 
@@ -244,16 +1074,228 @@ public class ClientHandler implements Runnable {
         }
 
         try {
-            sendMergedFile(dos, fileName, tempDir);
+            sendMergedFile(dos, file, tempDir);
         } finally {
             FileTransferUtils.deleteDirectory(tempDir.getAbsolutePath());
         }
     }
 
+    /**
+     * GET en flux : chaque partie est relayée du slave vers le client, dans l'ordre,
+     * par blocs de la taille du tampon. Aucun fichier temporaire sur le master.
+     * Si une réplique échoue en cours de partie, le client reçoit PART_RESTART
+     * et la partie est reprise depuis la réplique suivante. Une partie qu'aucune réplique ne
+     * fournit termine ce GET par STREAM_ERROR et un message ; la connexion attend alors la
+     * commande suivante.
+     */
+    private void handleStreamingGet(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String fileName = readPath(dis);
+        System.out.println("Demande de téléchargement en flux pour le fichier: " + fileName);
+
+        if (!masterServer.getFileLocations().containsKey(fileName)) {
+            dos.writeUTF("Erreur : Fichier introuvable.");
+            return;
+        }
+        // Admission d'abord, puis bail sur la version lue : l'attente d'admission ne retient aucune version
+        try (AdmissionController.Ticket ticket = admit(AdmissionController.Kind.DOWNLOAD,
+                masterServer.getFileSize(fileName))) {
+            if (ticket == null) {
+                dos.writeUTF(busyResponse(AdmissionController.Kind.DOWNLOAD));
+                return;
+            }
+            FileVersions.Lease lease = masterServer.getFileVersions().open(fileName);
+            if (lease == null) {
+                dos.writeUTF("Erreur : Fichier introuvable.");
+                return;
+            }
+            try (lease) {
+                streamParts(dos, lease.getFile());
+            }
+        }
+    }
+
+    private void streamParts(DataOutputStream dos, FileVersion file) throws IOException {
+        String fileName = file.getPath();
+        List<List<SlaveInfo>> slavesPerPart = file.getPlacement();
+        dos.writeUTF("SUCCESS");
+        dos.writeUTF(Namespace.baseName(fileName));
+        dos.writeInt(slavesPerPart.size());
+
+        byte[] buffer = new byte[FileTransferUtils.STREAM_BUFFER_SIZE];
+        if (masterServer.getPartFetcher().getMaxParallel() > 1) {
+            sendPartsInParallel(dos, file, buffer);
+            return;
+        }
+
+        for (int i = 0; i < slavesPerPart.size(); i++) {
+            String partName = file.partName(i);
+            boolean partSent = false;
+            for (SlaveInfo slave : slavesPerPart.get(i)) {
+                if (relayPartFromSlave(partName, slave, dos, buffer)) {
+                    partSent = true;
+                    break;
+                }
+            }
+
+            if (!partSent) {
+                dos.writeInt(FileTransferUtils.STREAM_ERROR);
+                dos.writeUTF("Erreur : Impossible de récupérer la partie " + (i + 1));
+                return;
+            }
+        }
+        System.out.println("Fichier envoyé en flux : " + fileName);
+    }
+
+    /**
+     * Les parties sont téléchargées en parallèle dans une fenêtre de maxParallelFetches parties,
+     * puis envoyées au client dans l'ordre. Une nouvelle partie n'entre dans la fenêtre
+     * qu'une fois la plus ancienne envoyée, ce qui borne le tampon de réordonnancement.
+     */
+    private void sendPartsInParallel(DataOutputStream dos, FileVersion file, byte[] buffer) throws IOException {
+        List<List<SlaveInfo>> slavesPerPart = file.getPlacement();
+        PartFetcher fetcher = masterServer.getPartFetcher();
+        List<CompletableFuture<PartFetcher.FetchedPart>> pending = new ArrayList<>();
+        int nextToFetch = 0;
+        try {
+            for (; nextToFetch < Math.min(fetcher.getMaxParallel(), slavesPerPart.size()); nextToFetch++) {
+                pending.add(fetcher.submit(file.partName(nextToFetch), slavesPerPart.get(nextToFetch)));
+            }
+
+            for (int i = 0; i < slavesPerPart.size(); i++) {
+                PartFetcher.FetchedPart part;
+                try {
+                    part = pending.get(i).get();
+                } catch (ExecutionException e) {
+                    dos.writeInt(FileTransferUtils.STREAM_ERROR);
+                    dos.writeUTF("Erreur : Impossible de récupérer la partie " + (i + 1));
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Téléchargement interrompu", e);
+                }
+
+                if (nextToFetch < slavesPerPart.size()) {
+                    pending.add(fetcher.submit(file.partName(nextToFetch), slavesPerPart.get(nextToFetch)));
+                    nextToFetch++;
+                }
+
+                try (PartFetcher.FetchedPart released = part;
+                     InputStream in = released.openInput()) {
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) > 0) {
+                        dos.writeInt(bytesRead);
+                        dos.write(buffer, 0, bytesRead);
+                    }
+                    dos.writeInt(FileTransferUtils.PART_END);
+                    dos.writeUTF(released.getChecksum());
+                }
+                pending.set(i, null);
+            }
+            System.out.println("Fichier envoyé en flux : " + file.getPath());
+        } finally {
+            // Libère les parties déjà téléchargées si le client est parti en cours de route
+            for (CompletableFuture<PartFetcher.FetchedPart> future : pending) {
+                if (future != null) {
+                    PartFetcher.release(future);
+                }
+            }
+        }
+    }
+
+    // Relaie une partie depuis un slave ; une erreur côté client remonte, une erreur côté slave retourne false
+    private boolean relayPartFromSlave(String partName, SlaveInfo slave, DataOutputStream client, byte[] buffer) throws IOException {
+        SlaveConnectionPool pool = masterServer.getConnectionPool();
+        SlaveConnectionPool.SlaveConnection connection;
+        DataInputStream in;
+        long partLength;
+        String expectedChecksum;
+        try {
+            connection = pool.borrow(slave);
+        } catch (IOException e) {
+            System.err.println("Échec du téléchargement de " + partName + " : " + e.getMessage());
+            return false;
+        }
+
+        boolean reusable = false;
+        try {
+            try {
+                DataOutputStream out = connection.getOutput();
+                in = connection.getInput();
+                out.writeUTF("GET_PART");
+                out.writeUTF(partName);
+                out.flush();
+
+                in.readUTF(); // Nom de la partie
+                partLength = in.readLong();
+                if (partLength < 0) {
+                    reusable = true;
+                    System.err.println("Partie " + partName + " absente sur " + slave);
+                    return false;
+                }
+                expectedChecksum = in.readUTF();
+            } catch (IOException e) {
+                System.err.println("Échec du téléchargement de " + partName + " : " + e.getMessage());
+                return false;
+            }
+
+            MessageDigest digest = FileTransferUtils.newDigest();
+            boolean started = false;
+            long remaining = partLength;
+            while (remaining > 0) {
+                int bytesRead;
+                try {
+                    bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (bytesRead == -1) {
+                        throw new EOFException("Fin du flux inattendue");
+                    }
+                } catch (IOException e) {
+                    System.err.println("Transfert de " + partName + " interrompu par " + slave + " : " + e.getMessage());
+                    if (started) {
+                        client.writeInt(FileTransferUtils.PART_RESTART);
+                    }
+                    return false;
+                }
+                client.writeInt(bytesRead);
+                client.write(buffer, 0, bytesRead);
+                digest.update(buffer, 0, bytesRead);
+                started = true;
+                remaining -= bytesRead;
+            }
+
+            String status;
+            try {
+                status = in.readUTF();
+                reusable = true;
+            } catch (IOException e) {
+                status = "ERROR";
+            }
+            if (!"SUCCESS".equals(status) || !expectedChecksum.equals(FileTransferUtils.toHex(digest.digest()))) {
+                System.err.println("Partie " + partName + " invalide sur " + slave);
+                if (started) {
+                    client.writeInt(FileTransferUtils.PART_RESTART);
+                }
+                return false;
+            }
+
+            client.writeInt(FileTransferUtils.PART_END);
+            client.writeUTF(expectedChecksum);
+            return true;
+        } finally {
+            if (reusable) {
+                pool.release(connection);
+            } else {
+                pool.invalidate(connection);
+            }
+        }
+    }
+
     private boolean downloadPartFromSlave(String partName, SlaveInfo slave, File tempDir) {
-        try (Socket slaveSocket = new Socket(slave.getIp(), slave.getPort());
-             DataOutputStream dos = new DataOutputStream(slaveSocket.getOutputStream());
-             DataInputStream dis = new DataInputStream(slaveSocket.getInputStream())) {
+        SlaveConnectionPool pool = masterServer.getConnectionPool();
+        SlaveConnectionPool.SlaveConnection connection = null;
+        try {
+            connection = pool.borrow(slave);
+            DataOutputStream dos = connection.getOutput();
+            DataInputStream dis = connection.getInput();
 
             dos.writeUTF("GET_PART");
             dos.writeUTF(partName);
@@ -261,20 +1303,25 @@ public class ClientHandler implements Runnable {
 
             File receivedFile = FileTransferUtils.receiveFile(dis, tempDir.getAbsolutePath());
             String response = dis.readUTF();
+            pool.release(connection);
             return "SUCCESS".equals(response) && receivedFile.exists();
 
         } catch (IOException e) {
+            if (connection != null) {
+                pool.invalidate(connection);
+            }
             System.err.println("Échec du téléchargement de " + partName + " : " + e.getMessage());
             return false;
         }
     }
 
-    private void sendMergedFile(DataOutputStream dos, String fileName, File tempDir) throws IOException {
+    private void sendMergedFile(DataOutputStream dos, FileVersion file, File tempDir) throws IOException {
+        String fileName = file.getPath();
         List<File> partFiles = new ArrayList<>();
 
         // 1. Récupérer toutes les parties et trier par numéro
-        for (int i = 1; i <= getFilePartitionCount(fileName); i++) {
-            File part = new File(tempDir, fileName + ".part" + i);
+        for (int i = 1; i <= file.getPartCount(); i++) {
+            File part = new File(tempDir, file.partName(i - 1));
             if (part.exists()) {
                 partFiles.add(part);
             }
@@ -284,13 +1331,13 @@ public class ClientHandler implements Runnable {
         partFiles.sort(Comparator.comparingInt(f -> extractPartNumber(f.getName())));
 
         // 2. Vérifier que toutes les parties sont présentes
-        if (partFiles.size() != getFilePartitionCount(fileName)) {
-            dos.writeUTF("ERROR: Partitions manquantes (" + partFiles.size() + "/" + getFilePartitionCount(fileName) + ")");
+        if (partFiles.size() != file.getPartCount()) {
+            dos.writeUTF("ERROR: Partitions manquantes (" + partFiles.size() + "/" + file.getPartCount() + ")");
             dos.flush();
             return;
         }
 
-        File mergedFile = new File(tempDir, fileName);
+        File mergedFile = new File(tempDir, Namespace.storageName(fileName));
         boolean mergeSuccess = mergeFiles(partFiles, mergedFile);
 
         if (mergeSuccess) {
@@ -300,7 +1347,7 @@ public class ClientHandler implements Runnable {
 
             // Envoyer les métadonnées
             dos.writeUTF("SUCCESS");
-            dos.writeUTF(mergedFile.getName());
+            dos.writeUTF(Namespace.baseName(fileName));
             dos.writeLong(mergedFile.length());
             dos.writeUTF(mergedChecksum);
             dos.flush();
@@ -357,15 +1404,14 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private boolean fetchFromSlave(String fileName, int numPartitions, File tempDir) {
-        masterServer.discoverSlaves();
+    private boolean fetchFromSlave(FileVersion file, File tempDir) {
         if (masterServer.getActiveSlaves().isEmpty()) {
             System.out.println("Aucun slave disponible");
             return false;
         }
 
-        for (int i = 1; i <= numPartitions; i++) {
-            String partName = fileName + ".part" + i;
+        for (int i = 1; i <= file.getPartCount(); i++) {
+            String partName = file.partName(i - 1);
             boolean partFetched = false;
 
             for (SlaveInfo slave : masterServer.getActiveSlaves()) {
@@ -405,9 +1451,4 @@ public class ClientHandler implements Runnable {
             return false;
         }
     }
-
-    private int getFilePartitionCount(String fileName) {
-        List<List<SlaveInfo>> parts = masterServer.getFileLocations().get(fileName);
-        return (parts != null) ? parts.size() : 0;
-    }
 }
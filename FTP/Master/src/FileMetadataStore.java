@@ -0,0 +1,358 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Métadonnées des fichiers sous forme compacte : taille, version et placement de chaque fichier.
+ * Les slaves sont numérotés dans une table dense (un numéro par slave, attribué à sa première
+ * apparition) ; un fichier n'occupe qu'un char[] de valeurs 16 bits : taille et version (quatre
+ * valeurs chacune), nombre de parties, puis pour chaque partie le nombre de répliques suivi de leurs numéros.
+ * Aucun SlaveInfo ni liste n'est donc gardé par fichier. Comme dans les instantanés du
+ * journal, les numéros de slaves tiennent sur 16 bits.
+ * Les fichiers sont triés par chemin (liste à enjambements concurrente) : page() parcourt une
+ * page de LIST sans toucher au reste de l'espace de noms, et le sous-arbre d'un répertoire
+ * (voir Namespace) est une plage contiguë, listée par children() et parcourue par subtree().
+ * En lecture, la classe est une Map<String, List<List<SlaveInfo>>> : get et les itérations,
+ * dans l'ordre des noms, décodent à la demande des listes non modifiables ; version() lit taille, version et
+ * placement d'un seul tableau. Les mutations passent par store, storeIfAbsent, replacePlacement et remove,
+ * appelées par MasterServer qui les journalise.
+ */
+public class FileMetadataStore extends AbstractMap<String, List<List<SlaveInfo>>> {
+    private static final int HEADER = 9; // Taille et version (du poids fort au poids faible), nombre de parties
+
+    private final NavigableMap<String, char[]> files = new ConcurrentSkipListMap<>();
+    private final Map<SlaveInfo, Integer> slaveIds = new ConcurrentHashMap<>();
+    private volatile SlaveInfo[] slaves = new SlaveInfo[0];
+    private final UnaryOperator<SlaveInfo> interner;
+    private final Set<Entry<String, List<List<SlaveInfo>>>> entrySet = new EntrySet();
+    private final AtomicLong highestVersion = new AtomicLong();
+
+    // interner fournit l'instance unique de chaque slave (celle du registre des heartbeats)
+    public FileMetadataStore(UnaryOperator<SlaveInfo> interner) {
+        this.interner = interner;
+    }
+
+    // Enregistre une version du fichier ; retourne la version qu'elle remplace, ou null
+    public FileVersion store(String fileName, long fileSize, long version, List<List<SlaveInfo>> placement) {
+        char[] previous = files.put(fileName, encode(fileSize, version, placement));
+        return previous == null ? null : decode(fileName, previous);
+    }
+
+    // Retourne false si le fichier existe déjà
+    public boolean storeIfAbsent(String fileName, long fileSize, long version, List<List<SlaveInfo>> placement) {
+        return files.putIfAbsent(fileName, encode(fileSize, version, placement)) == null;
+    }
+
+    // Remplace le placement d'un fichier existant en gardant sa taille et sa version ; false si le fichier n'existe pas
+    public boolean replacePlacement(String fileName, List<List<SlaveInfo>> placement) {
+        return files.computeIfPresent(fileName, (name, data) -> encode(sizeOf(data), versionOf(data), placement)) != null;
+    }
+
+    // Taille du fichier, ou -1 si le fichier ou sa taille ne sont pas connus
+    public long getSize(String fileName) {
+        char[] data = files.get(fileName);
+        return data == null ? -1 : sizeOf(data);
+    }
+
+    // Version courante du fichier, ou -1 s'il n'existe pas
+    public long getVersion(String fileName) {
+        char[] data = files.get(fileName);
+        return data == null ? -1 : versionOf(data);
+    }
+
+    // Version courante du fichier (taille, numéro et placement cohérents entre eux), ou null
+    public FileVersion version(String fileName) {
+        char[] data = files.get(fileName);
+        return data == null ? null : decode(fileName, data);
+    }
+
+    // Plus grand numéro de version enregistré, pour que les nouvelles versions ne le réutilisent pas
+    public long getHighestVersion() {
+        return highestVersion.get();
+    }
+
+    /**
+     * Fichiers dont le nom commence par prefix, dans l'ordre des noms, à partir du premier nom
+     * strictement après startAfter (vide : depuis le début). Retourne au plus limit + 1 entrées :
+     * la dernière, si elle est présente, indique seulement qu'une page suivante existe.
+     */
+    public List<Entry<String, List<List<SlaveInfo>>>> page(String prefix, String startAfter, int limit) {
+        NavigableMap<String, char[]> tail = startAfter.compareTo(prefix) >= 0
+                ? files.tailMap(startAfter, false)
+                : files.tailMap(prefix, true);
+        List<Entry<String, List<List<SlaveInfo>>>> page = new ArrayList<>(Math.min(limit + 1, 1024));
+        for (Map.Entry<String, char[]> entry : tail.entrySet()) {
+            if (page.size() > limit || !entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            page.add(new SimpleImmutableEntry<>(entry.getKey(), new Placement(entry.getValue(), slaves)));
+        }
+        return page;
+    }
+
+    /**
+     * Enfants directs du répertoire ("" : la racine) dans l'ordre des noms : ses fichiers, avec leur
+     * placement, et ses sous-répertoires, nommés avec un "/" final et sans placement. Le contenu
+     * d'un sous-répertoire est sauté d'une seule recherche : le coût suit le nombre d'enfants,
+     * pas la taille du sous-arbre.
+     */
+    public List<Entry<String, List<List<SlaveInfo>>>> children(String directory) {
+        String prefix = Namespace.directoryPrefix(directory);
+        List<Entry<String, List<List<SlaveInfo>>>> children = new ArrayList<>();
+        Map.Entry<String, char[]> entry = files.ceilingEntry(prefix);
+        while (entry != null && entry.getKey().startsWith(prefix)) {
+            String name = entry.getKey().substring(prefix.length());
+            int separator = name.indexOf(Namespace.SEPARATOR);
+            if (separator < 0) {
+                children.add(new SimpleImmutableEntry<>(name, new Placement(entry.getValue(), slaves)));
+                entry = files.higherEntry(entry.getKey());
+            } else {
+                String subdirectory = name.substring(0, separator);
+                children.add(new SimpleImmutableEntry<>(subdirectory + Namespace.SEPARATOR, null));
+                entry = files.ceilingEntry(endOfSubtree(prefix + subdirectory));
+            }
+        }
+        return children;
+    }
+
+    // Fichiers du sous-arbre du répertoire, avec leur placement, dans l'ordre des chemins
+    public List<Entry<String, List<List<SlaveInfo>>>> subtree(String directory) {
+        List<Entry<String, List<List<SlaveInfo>>>> subtree = new ArrayList<>();
+        NavigableMap<String, char[]> range = directory.isEmpty()
+                ? files
+                : files.subMap(Namespace.directoryPrefix(directory), true, endOfSubtree(directory), false);
+        for (Map.Entry<String, char[]> entry : range.entrySet()) {
+            subtree.add(new SimpleImmutableEntry<>(entry.getKey(), new Placement(entry.getValue(), slaves)));
+        }
+        return subtree;
+    }
+
+    // true si au moins un fichier se trouve sous ce chemin
+    public boolean isDirectory(String path) {
+        String prefix = Namespace.directoryPrefix(path);
+        String next = files.ceilingKey(prefix);
+        return next != null && next.startsWith(prefix);
+    }
+
+    // Premier chemin après tout le sous-arbre de directory : "/" est remplacé par le caractère suivant
+    private static String endOfSubtree(String directory) {
+        return directory + (char) (Namespace.SEPARATOR + 1);
+    }
+
+    @Override
+    public List<List<SlaveInfo>> get(Object fileName) {
+        char[] data = files.get(fileName);
+        return data == null ? null : new Placement(data, slaves);
+    }
+
+    @Override
+    public List<List<SlaveInfo>> remove(Object fileName) {
+        char[] data = files.remove(fileName);
+        return data == null ? null : new Placement(data, slaves);
+    }
+
+    // Retire le fichier ; retourne la version retirée, ou null
+    public FileVersion removeVersion(String fileName) {
+        char[] data = files.remove(fileName);
+        return data == null ? null : decode(fileName, data);
+    }
+
+    @Override
+    public boolean containsKey(Object fileName) {
+        return files.containsKey(fileName);
+    }
+
+    @Override
+    public int size() {
+        return files.size();
+    }
+
+    @Override
+    public void clear() {
+        files.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    @Override
+    public Set<Entry<String, List<List<SlaveInfo>>>> entrySet() {
+        return entrySet;
+    }
+
+    // Les nombres de parties et de répliques tiennent sur 16 bits : au-delà, l'enregistrement serait corrompu
+    private char[] encode(long fileSize, long version, List<List<SlaveInfo>> placement) {
+        if (placement.size() > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Trop de parties pour les métadonnées : " + placement.size());
+        }
+        int length = HEADER;
+        for (List<SlaveInfo> replicas : placement) {
+            if (replicas.size() > Character.MAX_VALUE) {
+                throw new IllegalArgumentException("Trop de répliques pour une partie : " + replicas.size());
+            }
+            length += 1 + replicas.size();
+        }
+        char[] data = new char[length];
+        for (int i = 0; i < 4; i++) {
+            data[i] = (char) (fileSize >>> (48 - 16 * i));
+            data[4 + i] = (char) (version >>> (48 - 16 * i));
+        }
+        data[HEADER - 1] = (char) placement.size();
+        highestVersion.accumulateAndGet(version, Math::max);
+        int position = HEADER;
+        for (List<SlaveInfo> replicas : placement) {
+            data[position++] = (char) replicas.size();
+            for (SlaveInfo slave : replicas) {
+                data[position++] = (char) idOf(slave);
+            }
+        }
+        return data;
+    }
+
+    private static long sizeOf(char[] data) {
+        long size = 0;
+        for (int i = 0; i < 4; i++) {
+            size = (size << 16) | data[i];
+        }
+        return size;
+    }
+
+    private static long versionOf(char[] data) {
+        long version = 0;
+        for (int i = 4; i < 8; i++) {
+            version = (version << 16) | data[i];
+        }
+        return version;
+    }
+
+    private FileVersion decode(String fileName, char[] data) {
+        return new FileVersion(fileName, versionOf(data), sizeOf(data), new Placement(data, slaves));
+    }
+
+    private int idOf(SlaveInfo slave) {
+        Integer id = slaveIds.get(slave);
+        return id != null ? id : register(slave);
+    }
+
+    // La table ne grandit qu'à l'arrivée d'un nouveau slave : la recopier reste peu coûteux
+    private synchronized int register(SlaveInfo slave) {
+        Integer id = slaveIds.get(slave);
+        if (id != null) {
+            return id;
+        }
+        if (slaves.length > Character.MAX_VALUE) {
+            throw new IllegalStateException("Trop de slaves pour la table des métadonnées : " + slaves.length);
+        }
+        SlaveInfo[] grown = Arrays.copyOf(slaves, slaves.length + 1);
+        grown[slaves.length] = interner.apply(slave);
+        slaves = grown; // Publiée avant le numéro : un placement qui l'utilise trouve toujours le slave
+        slaveIds.put(slave, slaves.length - 1);
+        return slaves.length - 1;
+    }
+
+    /**
+     * Vue d'un placement encodé : répliques de chaque partie. Les parties sont de longueur variable,
+     * donc get(i) parcourt les i premières ; l'itérateur avance d'une partie à la suivante.
+     */
+    private static class Placement extends AbstractList<List<SlaveInfo>> {
+        private final char[] data;
+        private final SlaveInfo[] table;
+
+        Placement(char[] data, SlaveInfo[] table) {
+            this.data = data;
+            this.table = table;
+        }
+
+        @Override
+        public List<SlaveInfo> get(int index) {
+            Objects.checkIndex(index, size());
+            int position = HEADER;
+            for (int i = 0; i < index; i++) {
+                position += 1 + data[position];
+            }
+            return new Replicas(data, position + 1, data[position], table);
+        }
+
+        @Override
+        public Iterator<List<SlaveInfo>> iterator() {
+            return new Iterator<>() {
+                private int index = 0;
+                private int position = HEADER;
+
+                @Override
+                public boolean hasNext() {
+                    return index < size();
+                }
+
+                @Override
+                public List<SlaveInfo> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    List<SlaveInfo> replicas = new Replicas(data, position + 1, data[position], table);
+                    position += 1 + data[position];
+                    index++;
+                    return replicas;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return data[HEADER - 1];
+        }
+    }
+
+    private static class Replicas extends AbstractList<SlaveInfo> implements RandomAccess {
+        private final char[] data;
+        private final int offset;
+        private final int count;
+        private final SlaveInfo[] table;
+
+        Replicas(char[] data, int offset, int count, SlaveInfo[] table) {
+            this.data = data;
+            this.offset = offset;
+            this.count = count;
+            this.table = table;
+        }
+
+        @Override
+        public SlaveInfo get(int index) {
+            Objects.checkIndex(index, count);
+            return table[data[offset + index]];
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, List<List<SlaveInfo>>>> {
+        @Override
+        public Iterator<Entry<String, List<List<SlaveInfo>>>> iterator() {
+            Iterator<Map.Entry<String, char[]>> it = files.entrySet().iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Entry<String, List<List<SlaveInfo>>> next() {
+                    Map.Entry<String, char[]> entry = it.next();
+                    return new SimpleImmutableEntry<>(entry.getKey(), new Placement(entry.getValue(), slaves));
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return files.size();
+        }
+    }
+}
@@ -3,16 +3,33 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class FileTransferUtils {
+    // Taille des tampons utilisés pour les transferts en flux
+    public static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    // Marqueurs du flux découpé en parties envoyé au client (GET_STREAM)
+    public static final int PART_END = 0;
+    public static final int PART_RESTART = -1;
+    public static final int STREAM_ERROR = -2;
+
     public static File receiveFile(DataInputStream dis, String saveDirectory) throws IOException {
         // 1. Lire le nom du fichier
         String fileName = dis.readUTF();
 
-        // 2. Lire la taille du fichier
+        // 2. Lire la taille du fichier (-1 : fichier absent chez l'émetteur)
         long fileSize = dis.readLong();
+        if (fileSize < 0) {
+            throw new FileNotFoundException("Fichier absent chez l'émetteur : " + fileName);
+        }
 
         // 3. Lire le checksum
         String expectedChecksum = dis.readUTF();
 
+        return receiveFileData(dis, saveDirectory, fileName, fileSize, expectedChecksum);
+    }
+
+    // Réception des données d'un fichier dont l'en-tête (nom, taille, checksum) a déjà été lu
+    public static File receiveFileData(DataInputStream dis, String saveDirectory, String fileName, long fileSize,
+                                       String expectedChecksum) throws IOException {
         // Créer le répertoire de sauvegarde s'il n'existe pas
         File directory = new File(saveDirectory);
         if (!directory.exists() && !directory.mkdirs()) {
@@ -22,37 +39,29 @@ public class FileTransferUtils {
         // Chemin complet pour sauvegarder le fichier
         File saveFile = new File(directory, fileName);
 
-        // Buffer pour stocker temporairement les données
-        byte[] buffer = new byte[4096];
-        int bytesRead;
+        // Tampon de STREAM_BUFFER_SIZE écrit tel quel dans le fichier ; le checksum est calculé
+        // sur ce même tampon pendant la réception, le fichier n'est donc pas relu
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
         long totalRead = 0;
 
-        try (FileOutputStream fos = new FileOutputStream(saveFile);
-             BufferedOutputStream bos = new BufferedOutputStream(fos)) {
+        try (FileOutputStream fos = new FileOutputStream(saveFile)) {
 
             System.out.println("Début de la réception des données...");
 
             while (totalRead < fileSize) {
-                bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalRead));
+                int bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalRead));
                 if (bytesRead == -1) {
                     throw new IOException("Fin du flux inattendue");
                 }
-                bos.write(buffer, 0, bytesRead);
+                digest.update(buffer, 0, bytesRead);
+                fos.write(buffer, 0, bytesRead);
                 totalRead += bytesRead;
-
-                // Log de progression optionnel
-                if (totalRead % (1024 * 1024) == 0) { // Log tous les 1MB
-                    System.out.println("Progression : " + (totalRead * 100 / fileSize) + "%");
-                }
             }
-            bos.flush();
         }
 
-        System.out.println("Fichier reçu, vérification du checksum...");
-
-        // Vérifier le checksum du fichier reçu
-        String receivedChecksum = calculateChecksum(saveFile.getAbsolutePath());
-        System.out.println("Checksum calculé : " + receivedChecksum);
+        String receivedChecksum = toHex(digest.digest());
+        System.out.println("Fichier reçu, checksum calculé : " + receivedChecksum);
 
         if (!expectedChecksum.equals(receivedChecksum)) {
             if (!saveFile.delete()) {
@@ -119,7 +128,7 @@ public class FileTransferUtils {
 
     public static String calculateChecksum(String filePath) throws IOException {
         try (FileInputStream fis = new FileInputStream(filePath)) {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
+            MessageDigest digest = newDigest();
             byte[] buffer = new byte[4096];
             int bytesRead;
 
@@ -127,17 +136,26 @@ public class FileTransferUtils {
                 digest.update(buffer, 0, bytesRead);
             }
 
-            byte[] checksumBytes = digest.digest();
-            StringBuilder checksum = new StringBuilder();
-            for (byte b : checksumBytes) {
-                checksum.append(String.format("%02x", b));
-            }
-            return checksum.toString();
+            return toHex(digest.digest());
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Algorithme de hashage MD5 introuvable.", e);
         }
     }
 
+    public static String toHex(byte[] checksumBytes) {
+        StringBuilder checksum = new StringBuilder();
+        for (byte b : checksumBytes) {
+            checksum.append(String.format("%02x", b));
+        }
+        return checksum.toString();
+    }
+
     public static File[] splitFile(String filePath, int numParts) throws IOException {
         File file = new File(filePath);
         if (!file.exists() || !file.isFile()) {
@@ -156,7 +174,9 @@ public class FileTransferUtils {
                 try (FileOutputStream fos = new FileOutputStream(parts[i])) {
                     long bytesWritten = 0;
                     int bytesRead;
-                    while (bytesWritten < partSize && (bytesRead = fis.read(buffer)) > 0) {
+                    // Ne jamais lire au-delà de la frontière de la partie
+                    while (bytesWritten < partSize
+                            && (bytesRead = fis.read(buffer, 0, (int) Math.min(buffer.length, partSize - bytesWritten))) > 0) {
                         fos.write(buffer, 0, bytesRead);
                         bytesWritten += bytesRead;
                     }
@@ -166,6 +186,19 @@ public class FileTransferUtils {
         return parts;
     }
 
+    // Consomme les octets restants d'un envoi que l'on refuse, pour garder le protocole synchronisé
+    public static void skipFully(DataInputStream dis, long length) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            int bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (bytesRead == -1) {
+                throw new IOException("Fin du flux inattendue");
+            }
+            remaining -= bytesRead;
+        }
+    }
+
     public static void deleteDirectory(String directoryPath) {
         File directory = new File(directoryPath);
 
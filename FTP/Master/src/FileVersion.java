@@ -0,0 +1,55 @@
+import java.util.List;
+
+/**
+ * Une version d'un fichier, lue d'un bloc dans fileLocations : chemin, numéro de version, taille
+ * et placement. Les parties d'une version portent son numéro dans leur nom de stockage (voir
+ * Namespace) : un remplacement écrit une nouvelle version à côté de l'ancienne, qui reste lisible
+ * jusqu'à ce que FileVersions la retire.
+ */
+public final class FileVersion {
+    private final String path;
+    private final long version;
+    private final long size;
+    private final List<List<SlaveInfo>> placement;
+
+    public FileVersion(String path, long version, long size, List<List<SlaveInfo>> placement) {
+        this.path = path;
+        this.version = version;
+        this.size = size;
+        this.placement = placement;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // Taille du fichier, ou -1 si elle n'est pas connue
+    public long getSize() {
+        return size;
+    }
+
+    public List<List<SlaveInfo>> getPlacement() {
+        return placement;
+    }
+
+    public int getPartCount() {
+        return placement.size();
+    }
+
+    public String storagePrefix() {
+        return Namespace.storagePrefix(path, version);
+    }
+
+    public String partName(int index) {
+        return Namespace.partName(path, version, index);
+    }
+
+    @Override
+    public String toString() {
+        return path + " (version " + version + ")";
+    }
+}
@@ -0,0 +1,269 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Coordination par fichier des opérations du master, sans verrou tenu pendant les transferts.
+ * Un lecteur (GET, GET_STREAM, GET_RANGE) ouvre un bail sur la version courante du fichier et
+ * la lit jusqu'au bout, même si un ADD la remplace ou si REMOVE la supprime entre-temps : les
+ * parties d'une version remplacée ou supprimée ne sont effacées des slaves (retrait) qu'une fois
+ * fermés les baux ouverts avant le retrait. Remplacer ou supprimer un fichier n'échange donc que
+ * ses métadonnées, sans attendre les lectures.
+ * Un ADD en cours réserve son chemin : un second ADD du même chemin est refusé.
+ * Les tâches de fond qui changent les répliques d'un fichier (réplication, rééquilibrage, retrait
+ * d'une seule réplique) prennent le verrou de maintenance de son chemin, créé à la demande ;
+ * les commandes des clients ne le prennent jamais.
+ */
+public class FileVersions {
+    private final Function<String, FileVersion> lookup;
+    private final PartDeleter deleter;
+    private final Set<String> reservedPaths = ConcurrentHashMap.newKeySet();
+    private final Map<String, MaintenanceLock> maintenanceLocks = new ConcurrentHashMap<>();
+    // Sous le moniteur : baux ouverts et retraits en attente, par préfixe de stockage de la version
+    private final Map<String, TreeSet<Long>> openLeases = new HashMap<>();
+    private final Map<String, List<PendingRetirement>> pendingRetirements = new HashMap<>();
+    private long lastLeaseId = 0;
+    private final ExecutorService retirer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "version-retirement");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong refusedReservations = new AtomicLong();
+    private final AtomicLong deferredRetirements = new AtomicLong();
+    private final AtomicLong failedRetirements = new AtomicLong();
+
+    // lookup : version courante d'un chemin dans fileLocations, ou null
+    public FileVersions(Function<String, FileVersion> lookup, PartDeleter deleter) {
+        this.lookup = lookup;
+        this.deleter = deleter;
+    }
+
+    /**
+     * Bail sur la version courante du fichier, ou null s'il n'existe pas ; à fermer à la fin du
+     * transfert. Lu sous le moniteur : un retrait qui suit le changement des métadonnées voit le bail.
+     */
+    public synchronized Lease open(String path) {
+        FileVersion file = lookup.apply(path);
+        if (file == null) {
+            return null;
+        }
+        Lease lease = new Lease(file, ++lastLeaseId);
+        openLeases.computeIfAbsent(file.storagePrefix(), prefix -> new TreeSet<>()).add(lease.id);
+        return lease;
+    }
+
+    private void close(Lease lease) {
+        List<Retirement> ready = new ArrayList<>();
+        synchronized (this) {
+            String prefix = lease.file.storagePrefix();
+            TreeSet<Long> leases = openLeases.get(prefix);
+            leases.remove(lease.id);
+            long oldest = leases.isEmpty() ? Long.MAX_VALUE : leases.first();
+            if (leases.isEmpty()) {
+                openLeases.remove(prefix);
+            }
+            List<PendingRetirement> pending = pendingRetirements.get(prefix);
+            if (pending != null) {
+                // Un retrait n'attend que les baux ouverts avant lui
+                for (Iterator<PendingRetirement> it = pending.iterator(); it.hasNext(); ) {
+                    PendingRetirement retirement = it.next();
+                    if (retirement.lastBlockingLease < oldest) {
+                        ready.add(retirement.retirement);
+                        it.remove();
+                    }
+                }
+                if (pending.isEmpty()) {
+                    pendingRetirements.remove(prefix);
+                }
+            }
+        }
+        for (Retirement retirement : ready) {
+            retirer.execute(() -> delete(retirement));
+        }
+    }
+
+    /**
+     * Retire une version (ou une réplique d'une de ses parties) qui n'est plus dans les métadonnées.
+     * Retourne true si aucun bail ne la retient : l'appelant la supprime alors lui-même avec
+     * delete(). Sinon, elle sera supprimée en tâche de fond à la fermeture des baux qui la retiennent.
+     */
+    public synchronized boolean retire(Retirement retirement) {
+        String prefix = retirement.file.storagePrefix();
+        TreeSet<Long> leases = openLeases.get(prefix);
+        if (leases == null) {
+            return true;
+        }
+        pendingRetirements.computeIfAbsent(prefix, p -> new ArrayList<>())
+                .add(new PendingRetirement(retirement, lastLeaseId));
+        deferredRetirements.incrementAndGet();
+        return false;
+    }
+
+    // Retrait sans attendre la suppression, faite en tâche de fond dès qu'aucun bail ne la retient
+    public void retireInBackground(Retirement retirement) {
+        if (retire(retirement)) {
+            retirer.execute(() -> delete(retirement));
+        }
+    }
+
+    // true si une version retirée attend encore la fin de lectures (ses parties ne sont pas orphelines)
+    public synchronized boolean isRetiring(String storagePrefix) {
+        return pendingRetirements.containsKey(storagePrefix);
+    }
+
+    /**
+     * Supprime des slaves ce qu'un retrait désigne ; false si un slave a échoué. Une réplique seule
+     * est revérifiée sous le verrou de maintenance : si le rééquilibrage l'a entre-temps remise
+     * dans le placement de la version courante, elle est gardée.
+     */
+    public boolean delete(Retirement retirement) {
+        boolean success;
+        if (retirement.slave == null) {
+            success = deleter.removeVersion(retirement.file);
+        } else {
+            String path = retirement.file.getPath();
+            lockForMaintenance(path);
+            try {
+                if (isReferenced(retirement.file, retirement.partIndex, retirement.slave)) {
+                    return true;
+                }
+                success = deleter.deletePart(retirement.slave, retirement.file.partName(retirement.partIndex));
+            } finally {
+                unlockForMaintenance(path);
+            }
+        }
+        if (!success) {
+            failedRetirements.incrementAndGet();
+        }
+        return success;
+    }
+
+    /**
+     * true si le placement courant range encore slave parmi les répliques de la partie partIndex
+     * de cette version. À appeler sous le verrou de maintenance du chemin avant d'effacer une copie.
+     */
+    public boolean isReferenced(FileVersion file, int partIndex, SlaveInfo slave) {
+        FileVersion current = lookup.apply(file.getPath());
+        return current != null && current.getVersion() == file.getVersion()
+                && partIndex < current.getPartCount()
+                && current.getPlacement().get(partIndex).contains(slave);
+    }
+
+    // Réserve le chemin pour un ADD ; false si un autre ADD du même chemin est en cours
+    public boolean reserve(String path) {
+        if (reservedPaths.add(path)) {
+            return true;
+        }
+        refusedReservations.incrementAndGet();
+        return false;
+    }
+
+    public void unreserve(String path) {
+        reservedPaths.remove(path);
+    }
+
+    public boolean isReserved(String path) {
+        return reservedPaths.contains(path);
+    }
+
+    // Verrou de maintenance du chemin (réentrant), pour les tâches de fond uniquement
+    public void lockForMaintenance(String path) {
+        MaintenanceLock lock = maintenanceLocks.compute(path, (p, existing) -> {
+            MaintenanceLock held = existing == null ? new MaintenanceLock() : existing;
+            held.users++;
+            return held;
+        });
+        lock.lock.lock();
+    }
+
+    public void unlockForMaintenance(String path) {
+        maintenanceLocks.get(path).lock.unlock();
+        // Le verrou disparaît avec son dernier utilisateur : la table ne garde que les chemins en cours
+        maintenanceLocks.computeIfPresent(path, (p, held) -> --held.users == 0 ? null : held);
+    }
+
+    // Ligne ajoutée à la réponse de STATS
+    public String describe() {
+        int leases = 0;
+        int pending = 0;
+        synchronized (this) {
+            for (TreeSet<Long> open : openLeases.values()) {
+                leases += open.size();
+            }
+            for (List<PendingRetirement> retirements : pendingRetirements.values()) {
+                pending += retirements.size();
+            }
+        }
+        return "ajoutsEnCours=" + reservedPaths.size() + " ajoutsRefuses=" + refusedReservations.get()
+                + " baux=" + leases + " retraitsEnAttente=" + pending + " retraitsDifferes=" + deferredRetirements.get()
+                + " retraitsEchoues=" + failedRetirements.get();
+    }
+
+    /**
+     * Bail de lecture sur une version : ses parties restent sur les slaves tant qu'il est ouvert.
+     */
+    public final class Lease implements AutoCloseable {
+        private final FileVersion file;
+        private final long id;
+        private boolean closed = false;
+
+        private Lease(FileVersion file, long id) {
+            this.file = file;
+            this.id = id;
+        }
+
+        public FileVersion getFile() {
+            return file;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                FileVersions.this.close(this);
+            }
+        }
+    }
+
+    /**
+     * Ce qu'un retrait supprime : toutes les parties d'une version, ou une réplique d'une partie.
+     */
+    public static final class Retirement {
+        private final FileVersion file;
+        private final int partIndex;
+        private final SlaveInfo slave;
+
+        private Retirement(FileVersion file, int partIndex, SlaveInfo slave) {
+            this.file = file;
+            this.partIndex = partIndex;
+            this.slave = slave;
+        }
+
+        public static Retirement of(FileVersion file) {
+            return new Retirement(file, -1, null);
+        }
+
+        public static Retirement ofReplica(FileVersion file, int partIndex, SlaveInfo slave) {
+            return new Retirement(file, partIndex, slave);
+        }
+    }
+
+    private static final class PendingRetirement {
+        final Retirement retirement;
+        final long lastBlockingLease; // Baux ouverts avant le retrait : numéros jusqu'à celui-ci
+
+        PendingRetirement(Retirement retirement, long lastBlockingLease) {
+            this.retirement = retirement;
+            this.lastBlockingLease = lastBlockingLease;
+        }
+    }
+
+    private static final class MaintenanceLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int users; // Modifié dans compute / computeIfPresent de la table
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.Arrays;
+
+/**
+ * Fenêtre glissante des derniers temps de réponse mesurés (en millisecondes),
+ * utilisée pour calculer le délai au-delà duquel une lecture est doublée.
+ */
+public class LatencyTracker {
+    private final long[] samples;
+    private final double percentile;
+    private final long minDelayMs;
+    private final long initialDelayMs;
+    private int count = 0;
+    private int next = 0;
+
+    public LatencyTracker(int windowSize, double percentile, long minDelayMs, long initialDelayMs) {
+        this.samples = new long[Math.max(1, windowSize)];
+        this.percentile = percentile;
+        this.minDelayMs = minDelayMs;
+        this.initialDelayMs = initialDelayMs;
+    }
+
+    public synchronized void record(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    // Délai correspondant au percentile configuré, jamais inférieur à minDelayMs
+    public synchronized long deadlineMs() {
+        if (count == 0) {
+            return Math.max(minDelayMs, initialDelayMs);
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return Math.max(minDelayMs, sorted[Math.max(0, Math.min(index, count - 1))]);
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.*;
+
+/**
+ * Placement selon la capacité et la charge des slaves.
+ * Chaque réplique va au slave qui a le plus d'espace libre par transfert en cours,
+ * en comptant les parties déjà attribuées dans ce même placement. Un slave qui
+ * n'a plus la place pour une partie n'est choisi qu'en dernier recours.
+ */
+public class LoadAwarePlacementPolicy implements PlacementPolicy {
+    private final UploadScheduler uploadScheduler;
+
+    public LoadAwarePlacementPolicy(UploadScheduler uploadScheduler) {
+        this.uploadScheduler = uploadScheduler;
+    }
+
+    @Override
+    public List<List<SlaveInfo>> place(int numParts, long partSize, int replicationFactor, List<SlaveInfo> slaves) {
+        // Un slave qui n'a pas encore annoncé son espace libre est traité comme le mieux doté
+        long bestKnownFree = 0;
+        for (SlaveInfo slave : slaves) {
+            bestKnownFree = Math.max(bestKnownFree, slave.getFreeBytes());
+        }
+
+        Map<SlaveInfo, Long> projectedFree = new HashMap<>();
+        Map<SlaveInfo, Integer> projectedLoad = new HashMap<>();
+        for (SlaveInfo slave : slaves) {
+            long free = slave.getFreeBytes() >= 0 ? slave.getFreeBytes() : bestKnownFree;
+            projectedFree.put(slave, free);
+            projectedLoad.put(slave, Math.max(slave.getInFlight(), uploadScheduler.getInFlight(slave)));
+        }
+
+        List<List<SlaveInfo>> placement = new ArrayList<>();
+        for (int i = 0; i < numParts; i++) {
+            List<SlaveInfo> candidates = new ArrayList<>(slaves);
+            candidates.sort(Comparator
+                    .comparing((SlaveInfo s) -> projectedFree.get(s) < partSize) // les slaves pleins en dernier
+                    .thenComparing(s -> -score(projectedFree.get(s), projectedLoad.get(s)))
+                    .thenComparing(SlaveInfo::toString));
+
+            List<SlaveInfo> targets = new ArrayList<>(candidates.subList(0, Math.min(replicationFactor, candidates.size())));
+            for (SlaveInfo target : targets) {
+                projectedFree.put(target, projectedFree.get(target) - partSize);
+                projectedLoad.put(target, projectedLoad.get(target) + 1);
+            }
+            placement.add(targets);
+        }
+        return placement;
+    }
+
+    private double score(long freeBytes, int load) {
+        return (double) Math.max(0, freeBytes) / (1 + load);
+    }
+}
@@ -2,22 +2,252 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 
 public class MasterServer {
 
     private static int CLIENT_PORT;
     private static int BROADCAST_PORT;
     private static int RESPONSE_PORT;
-    private List<SlaveInfo> activeSlaves = new CopyOnWriteArrayList<>(); // Liste des slaves actifs
-    private Map<String, List<List<SlaveInfo>>> fileLocations = new ConcurrentHashMap<>(); // Nom du fichier -> Liste de répliques par partie
+    private FileMetadataStore fileLocations; // Nom du fichier -> taille, version et répliques par partie, sous forme compacte
+    // Numéros de version croissants d'un démarrage à l'autre : au-delà de l'heure en microsecondes
+    // au premier ADD, et de toute version rechargée ou retrouvée dans les rapports de blocs
+    private final AtomicLong lastVersion = new AtomicLong(System.currentTimeMillis() * 1000);
     private final int REPLICATION_FACTOR = 2; // Nombre de copies par partie
+    private boolean streamingAdd = true; // ADD en flux (true) ou via /temp (false)
+    private boolean chainReplication = false; // Réplication en chaîne entre slaves (true) ou depuis le master (false)
+    private int maxUploadsPerSlave = 2; // Transferts simultanés vers un même slave
+    private int maxUploadsTotal = 8; // Transferts simultanés pour tout le master
+    private UploadScheduler uploadScheduler;
+    private long slaveExpiryMs = 6000; // Délai sans heartbeat avant de considérer un slave perdu
+    private long discoveryIntervalMs = 10000; // Période du broadcast DISCOVER_SLAVES
+    private SlaveRegistry slaveRegistry;
+    private String placementPolicyName = "loadAware"; // loadAware ou roundRobin
+    private PlacementPolicy placementPolicy;
+    private int maxParallelFetches = 4; // Parties téléchargées en parallèle par GET_STREAM (1 : relais séquentiel)
+    private long reorderBufferBytes = 64L * 1024 * 1024; // Mémoire max des parties en attente, au-delà : disque
+    private PartFetcher partFetcher;
+    private boolean hedgedReads = true; // Doubler une lecture de partie trop lente sur une autre réplique
+    private double hedgePercentile = 95; // Délai de doublement : ce percentile des temps de première réponse
+    private long hedgeMinDelayMs = 20;
+    private int slaveConnectTimeoutMs = 3000;
+    private int slaveReadTimeoutMs = 30000;
+    private int maxIdleConnectionsPerSlave = 4; // Connexions persistantes gardées ouvertes par slave
+    private long idleConnectionTimeoutMs = 60000;
+    private long connectionValidateAfterMs = 1000; // Au-delà de ce délai d'inactivité, PING avant réutilisation
+    private int maxActiveConnectionsPerSlave = 32; // Connexions prêtées en même temps vers un slave (0 : sans limite)
+    private long connectionAcquireTimeoutMs = 5000; // Attente d'une connexion quand cette limite est atteinte
+    private SlaveConnectionPool connectionPool;
+    private boolean nioFrontEnd = false; // frontend=nio : Selector unique + pool de workers ; blocking : un thread par client
+    private int nioWorkerThreads = 32;
+    private int nioIoTimeoutMs = 60000; // Délai max d'attente du client au milieu d'une commande (front end NIO)
+    private String executionMode = "thread"; // Handlers clients (front end bloquant) : thread, virtual ou pool
+    private int maxHandlerThreads = 256;
+    private HandlerExecutor handlerExecutor;
+    private int maxConcurrentUploads = 4; // Admission : ADD simultanés passant par le master
+    private int maxConcurrentDownloads = 16; // Admission : GET / GET_STREAM / GET_RANGE simultanés
+    private long maxInFlightBytes = 1024L * 1024 * 1024; // Admission : octets des transferts admis
+    private long admissionQueueTimeoutMs = 2000; // Attente maximale avant de répondre BUSY
+    private long admissionRetryAfterMs = 500; // Délai de base conseillé au client dans BUSY:<ms>
+    private AdmissionController admissionController;
+    private boolean autoReplication = true; // Réparation en tâche de fond des parties sous-répliquées
+    private long replicationCheckIntervalMs = 10000;
+    private int maxConcurrentReplications = 2;
+    private long replicationBandwidth = 10L * 1024 * 1024; // Octets/s pour l'ensemble des copies (0 : sans limite)
+    private long deadReplicaTrimMs = 600000; // Absence d'un slave avant que ses répliques soient retirées du placement
+    private ReplicationManager replicationManager;
+    private boolean autoRebalance = true; // Déplacer des parties vers les slaves les moins remplis
+    private long rebalanceIntervalMs = 30000;
+    private double rebalanceTolerance = 0.1; // Écart à la moyenne toléré avant de déplacer des parties
+    private int maxRebalanceMoves = 16; // Déplacements au plus par passage
+    private Rebalancer rebalancer;
+    private boolean blockReports = true; // Rapports de blocs des slaves fusionnés dans fileLocations
+    private long blockReportIntervalMs = 2000;
+    private boolean adoptReportedFiles = true; // Réintégrer les fichiers complets inconnus du master (démarrage à froid)
+    private long adoptionWindowMs = 300000; // Durée de la réintégration après un démarrage sans métadonnées
+    private long unknownPartsGraceMs = 30000; // Délai sans changement avant de réintégrer ou d'effacer des parties inconnues
+    private boolean deleteOrphanParts = true; // Effacer les parties d'aucune version connue, hors fenêtre de réintégration
+    private BlockReportManager blockReportManager;
+    private FileVersions fileVersions;
+    private PartDeleter partDeleter;
+    private int maxListPageSize = 10000; // Entrées au plus par page de LIST_PAGE
+    private boolean binarySlaveProtocol = false; // slaveProtocol=binary : connexions multiplexées vers les slaves
+    private SlaveBinaryLinks slaveBinaryLinks;
+    private final ExecutorService binaryExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "binary-request");
+        thread.setDaemon(true);
+        return thread;
+    });
 
+    private boolean persistMetadata = true; // Journal + instantanés de fileLocations dans metadataDirectory
+    private String metadataDirectory = "metadata";
+    private boolean journalFsync = true; // fsync groupé de chaque lot de mutations avant de répondre
+    private long snapshotIntervalMs = 300000;
+    private long snapshotJournalRecords = 100000; // Instantané anticipé au-delà de ce nombre de mutations journalisées
+    private MetadataJournal metadataJournal;
+    // Les mutations sont appliquées et journalisées dans le même ordre ; les lectures ne prennent pas ce verrou
+    private final Object metadataLock = new Object();
+    private final ScheduledExecutorService metadataScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metadata-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long lastSnapshot = System.currentTimeMillis();
+
+    // Lecture seule : les mutations passent par recordFile, removeFile et updatePlacement, qui les journalisent
     public Map<String, List<List<SlaveInfo>>> getFileLocations() {
         return fileLocations;
     }
 
+    /**
+     * Enregistre une version stockée d'un fichier : emplacement de ses parties et taille totale.
+     * Retourne, une fois la mutation durable, la version remplacée (à retirer), ou null.
+     */
+    public FileVersion recordFile(String fileName, long fileSize, long version,
+                                  List<List<SlaveInfo>> placement) throws IOException {
+        long sequence = 0;
+        FileVersion previous;
+        synchronized (metadataLock) {
+            previous = fileLocations.store(fileName, fileSize, version, placement);
+            if (metadataJournal != null) {
+                sequence = metadataJournal.logPut(fileName, fileSize, version, placement);
+            }
+        }
+        awaitDurable(sequence);
+        return previous;
+    }
+
+    // Numéro de la prochaine version d'un fichier, jamais attribué auparavant
+    public long nextVersion() {
+        return lastVersion.updateAndGet(last -> Math.max(last, fileLocations.getHighestVersion()) + 1);
+    }
+
+    /**
+     * Enregistre un fichier retrouvé dans les rapports de blocs, sauf s'il est apparu entre-temps
+     * (ADD terminé pendant le rapport). Retourne true si le fichier a été enregistré.
+     */
+    public boolean recordFileIfAbsent(String fileName, long fileSize, long version,
+                                      List<List<SlaveInfo>> placement) throws IOException {
+        long sequence = 0;
+        synchronized (metadataLock) {
+            if (!fileLocations.storeIfAbsent(fileName, fileSize, version, placement)) {
+                return false;
+            }
+            if (metadataJournal != null) {
+                sequence = metadataJournal.logPut(fileName, fileSize, version, placement);
+            }
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    // Retire le fichier des métadonnées ; retourne la version retirée (à retirer des slaves), ou null
+    public FileVersion removeFile(String fileName) throws IOException {
+        List<FileVersion> removed = removeFiles(List.of(fileName));
+        return removed.isEmpty() ? null : removed.get(0);
+    }
+
+    // Suppression groupée (REMOVE_DIR) : une seule attente de durabilité pour tout le lot
+    public List<FileVersion> removeFiles(Collection<String> fileNames) throws IOException {
+        long sequence = 0;
+        List<FileVersion> removed = new ArrayList<>();
+        synchronized (metadataLock) {
+            for (String fileName : fileNames) {
+                FileVersion file = fileLocations.removeVersion(fileName);
+                if (file == null) {
+                    continue;
+                }
+                removed.add(file);
+                if (metadataJournal != null) {
+                    sequence = metadataJournal.logRemove(fileName);
+                }
+            }
+        }
+        awaitDurable(sequence);
+        return removed;
+    }
+
+    /**
+     * Remplace le placement de la version donnée d'un fichier par update(nom, placement actuel) ;
+     * si le fichier a changé de version ou si update retourne le placement actuel, rien ne change.
+     * Retourne true si le placement a été remplacé.
+     */
+    public boolean updatePlacement(String fileName, long version,
+                                   BiFunction<String, List<List<SlaveInfo>>, List<List<SlaveInfo>>> update) throws IOException {
+        long sequence = 0;
+        synchronized (metadataLock) {
+            List<List<SlaveInfo>> current = fileLocations.get(fileName);
+            if (current == null || fileLocations.getVersion(fileName) != version) {
+                return false;
+            }
+            List<List<SlaveInfo>> updated = update.apply(fileName, current);
+            if (updated == current) {
+                return false;
+            }
+            fileLocations.replacePlacement(fileName, updated);
+            if (metadataJournal != null) {
+                sequence = metadataJournal.logPut(fileName, getFileSize(fileName), version, updated);
+            }
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    private void awaitDurable(long sequence) throws IOException {
+        if (metadataJournal != null && sequence > 0) {
+            metadataJournal.awaitDurable(sequence);
+        }
+    }
+
+    /**
+     * Page de l'espace de noms triée par nom (voir FileMetadataStore.page) : au plus pageSize
+     * entrées, plus une si une page suivante existe.
+     */
+    public List<Map.Entry<String, List<List<SlaveInfo>>>> listPage(String prefix, String startAfter, int pageSize) {
+        return fileLocations.page(prefix, startAfter, pageSize);
+    }
+
+    // Enfants directs d'un répertoire ("" : la racine), les sous-répertoires avec un "/" final et sans placement
+    public List<Map.Entry<String, List<List<SlaveInfo>>>> listDirectory(String directory) {
+        return fileLocations.children(directory);
+    }
+
+    // Tous les fichiers sous un répertoire, avec leur placement
+    public List<Map.Entry<String, List<List<SlaveInfo>>>> listSubtree(String directory) {
+        return fileLocations.subtree(directory);
+    }
+
+    // Version courante du fichier (taille, numéro et placement lus ensemble), ou null
+    public FileVersion getFile(String fileName) {
+        return fileLocations.version(fileName);
+    }
+
+    public FileVersions getFileVersions() {
+        return fileVersions;
+    }
+
+    public PartDeleter getPartDeleter() {
+        return partDeleter;
+    }
+
+    public boolean isDirectory(String path) {
+        return fileLocations.isDirectory(path);
+    }
+
+    // Taille de page demandée par un client, ramenée entre 1 et maxListPageSize
+    public int listPageSize(int requested) {
+        return Math.max(1, Math.min(requested, maxListPageSize));
+    }
+
+    // Taille du fichier, ou -1 si elle n'est pas connue
+    public long getFileSize(String fileName) {
+        return fileLocations.getSize(fileName);
+    }
+
+    // Vue courante des slaves vivants, fournie par le registre de heartbeats
     public List<SlaveInfo> getActiveSlaves() {
-        return activeSlaves;
+        return slaveRegistry.getLiveSlaves();
     }
 
     public static void main(String[] args) {
@@ -37,70 +267,148 @@ public class MasterServer {
             CLIENT_PORT = Integer.parseInt(properties.getProperty("clientPort"));
             BROADCAST_PORT = Integer.parseInt(properties.getProperty("broadcastPort"));
             RESPONSE_PORT = Integer.parseInt(properties.getProperty("responsePort"));
+            streamingAdd = !"staged".equalsIgnoreCase(properties.getProperty("addMode", "streaming"));
+            chainReplication = "chain".equalsIgnoreCase(properties.getProperty("replicationMode", "fanout"));
+            maxUploadsPerSlave = Integer.parseInt(properties.getProperty("maxUploadsPerSlave", "2"));
+            maxUploadsTotal = Integer.parseInt(properties.getProperty("maxUploadsTotal", "8"));
+            slaveExpiryMs = Long.parseLong(properties.getProperty("slaveExpiryMs", "6000"));
+            discoveryIntervalMs = Long.parseLong(properties.getProperty("discoveryIntervalMs", "10000"));
+            placementPolicyName = properties.getProperty("placementPolicy", "loadAware");
+            maxParallelFetches = Integer.parseInt(properties.getProperty("maxParallelFetches", "4"));
+            reorderBufferBytes = Long.parseLong(properties.getProperty("reorderBufferBytes", String.valueOf(64L * 1024 * 1024)));
+            hedgedReads = Boolean.parseBoolean(properties.getProperty("hedgedReads", "true"));
+            hedgePercentile = Double.parseDouble(properties.getProperty("hedgePercentile", "95"));
+            hedgeMinDelayMs = Long.parseLong(properties.getProperty("hedgeMinDelayMs", "20"));
+            slaveConnectTimeoutMs = Integer.parseInt(properties.getProperty("slaveConnectTimeoutMs", "3000"));
+            slaveReadTimeoutMs = Integer.parseInt(properties.getProperty("slaveReadTimeoutMs", "30000"));
+            maxIdleConnectionsPerSlave = Integer.parseInt(properties.getProperty("maxIdleConnectionsPerSlave", "4"));
+            idleConnectionTimeoutMs = Long.parseLong(properties.getProperty("idleConnectionTimeoutMs", "60000"));
+            connectionValidateAfterMs = Long.parseLong(properties.getProperty("connectionValidateAfterMs", "1000"));
+            maxActiveConnectionsPerSlave = Integer.parseInt(properties.getProperty("maxActiveConnectionsPerSlave", "32"));
+            connectionAcquireTimeoutMs = Long.parseLong(properties.getProperty("connectionAcquireTimeoutMs", "5000"));
+            nioFrontEnd = "nio".equalsIgnoreCase(properties.getProperty("frontend", "blocking"));
+            nioWorkerThreads = Integer.parseInt(properties.getProperty("nioWorkerThreads", "32"));
+            nioIoTimeoutMs = Integer.parseInt(properties.getProperty("nioIoTimeoutMs", "60000"));
+            executionMode = properties.getProperty("executionMode", "thread");
+            maxHandlerThreads = Integer.parseInt(properties.getProperty("maxHandlerThreads", "256"));
+            maxConcurrentUploads = Integer.parseInt(properties.getProperty("maxConcurrentUploads", "4"));
+            maxConcurrentDownloads = Integer.parseInt(properties.getProperty("maxConcurrentDownloads", "16"));
+            maxInFlightBytes = Long.parseLong(properties.getProperty("maxInFlightBytes", String.valueOf(1024L * 1024 * 1024)));
+            admissionQueueTimeoutMs = Long.parseLong(properties.getProperty("admissionQueueTimeoutMs", "2000"));
+            admissionRetryAfterMs = Long.parseLong(properties.getProperty("admissionRetryAfterMs", "500"));
+            autoReplication = Boolean.parseBoolean(properties.getProperty("autoReplication", "true"));
+            replicationCheckIntervalMs = Long.parseLong(properties.getProperty("replicationCheckIntervalMs", "10000"));
+            maxConcurrentReplications = Integer.parseInt(properties.getProperty("maxConcurrentReplications", "2"));
+            replicationBandwidth = Long.parseLong(properties.getProperty("replicationBandwidth", String.valueOf(10L * 1024 * 1024)));
+            deadReplicaTrimMs = Long.parseLong(properties.getProperty("deadReplicaTrimMs", "600000"));
+            autoRebalance = Boolean.parseBoolean(properties.getProperty("autoRebalance", "true"));
+            rebalanceIntervalMs = Long.parseLong(properties.getProperty("rebalanceIntervalMs", "30000"));
+            rebalanceTolerance = Double.parseDouble(properties.getProperty("rebalanceTolerance", "0.1"));
+            maxRebalanceMoves = Integer.parseInt(properties.getProperty("maxRebalanceMoves", "16"));
+            blockReports = Boolean.parseBoolean(properties.getProperty("blockReports", "true"));
+            blockReportIntervalMs = Long.parseLong(properties.getProperty("blockReportIntervalMs", "2000"));
+            adoptReportedFiles = Boolean.parseBoolean(properties.getProperty("adoptReportedFiles", "true"));
+            adoptionWindowMs = Long.parseLong(properties.getProperty("adoptionWindowMs", "300000"));
+            unknownPartsGraceMs = Long.parseLong(properties.getProperty("unknownPartsGraceMs", "30000"));
+            deleteOrphanParts = Boolean.parseBoolean(properties.getProperty("deleteOrphanParts", "true"));
+            maxListPageSize = Integer.parseInt(properties.getProperty("maxListPageSize", "10000"));
+            persistMetadata = Boolean.parseBoolean(properties.getProperty("persistMetadata", "true"));
+            metadataDirectory = properties.getProperty("metadataDirectory", "metadata");
+            journalFsync = Boolean.parseBoolean(properties.getProperty("journalFsync", "true"));
+            snapshotIntervalMs = Long.parseLong(properties.getProperty("snapshotIntervalMs", "300000"));
+            snapshotJournalRecords = Long.parseLong(properties.getProperty("snapshotJournalRecords", "100000"));
+            binarySlaveProtocol = "binary".equalsIgnoreCase(properties.getProperty("slaveProtocol", "text"));
         } catch (IOException ex) {
             ex.printStackTrace();
         }
+        uploadScheduler = new UploadScheduler(maxUploadsPerSlave, maxUploadsTotal);
+        slaveRegistry = new SlaveRegistry(BROADCAST_PORT, RESPONSE_PORT, slaveExpiryMs, discoveryIntervalMs);
+        fileLocations = new FileMetadataStore(slaveRegistry::intern);
+        partDeleter = new PartDeleter(this);
+        fileVersions = new FileVersions(fileLocations::version, partDeleter);
+        handlerExecutor = new HandlerExecutor(executionMode, maxHandlerThreads, "client-handler");
+        admissionController = new AdmissionController(maxConcurrentUploads, maxConcurrentDownloads, maxInFlightBytes,
+                admissionQueueTimeoutMs, admissionRetryAfterMs);
+        if (binarySlaveProtocol) {
+            slaveBinaryLinks = new SlaveBinaryLinks(slaveConnectTimeoutMs, slaveReadTimeoutMs);
+        }
+        connectionPool = new SlaveConnectionPool(slaveConnectTimeoutMs, slaveReadTimeoutMs, maxIdleConnectionsPerSlave,
+                idleConnectionTimeoutMs, connectionValidateAfterMs, maxActiveConnectionsPerSlave, connectionAcquireTimeoutMs);
+        LatencyTracker firstByteLatency = new LatencyTracker(256, hedgePercentile, hedgeMinDelayMs, 200);
+        partFetcher = new PartFetcher(maxParallelFetches, reorderBufferBytes, hedgedReads, firstByteLatency, connectionPool);
+        placementPolicy = "roundRobin".equalsIgnoreCase(placementPolicyName)
+                ? new RoundRobinPlacementPolicy()
+                : new LoadAwarePlacementPolicy(uploadScheduler);
+        replicationManager = new ReplicationManager(this, replicationCheckIntervalMs, maxConcurrentReplications,
+                replicationBandwidth, deadReplicaTrimMs, slaveConnectTimeoutMs, slaveReadTimeoutMs);
+        rebalancer = new Rebalancer(this, replicationManager, rebalanceIntervalMs, rebalanceTolerance, maxRebalanceMoves);
+        blockReportManager = new BlockReportManager(this, blockReportIntervalMs, adoptReportedFiles, adoptionWindowMs,
+                deleteOrphanParts, unknownPartsGraceMs);
     }
 
     public void start() throws IOException {
         System.out.println("MasterServer démarré sur le port " + CLIENT_PORT);
+        if (persistMetadata) {
+            // Avant d'accepter des clients : l'espace de noms est celui d'avant le redémarrage
+            MetadataJournal journal = new MetadataJournal(new File(metadataDirectory), journalFsync);
+            journal.recover(fileLocations);
+            metadataJournal = journal;
+            metadataScheduler.scheduleWithFixedDelay(this::snapshotIfDue, 1, 1, TimeUnit.SECONDS);
+        }
+        slaveRegistry.start();
+        if (blockReports) {
+            blockReportManager.start();
+        }
+        if (autoReplication) {
+            replicationManager.start();
+        }
+        if (autoRebalance) {
+            rebalancer.start();
+        }
+
+        if (nioFrontEnd) {
+            new NioFrontEnd(this, CLIENT_PORT, nioWorkerThreads, nioIoTimeoutMs).run();
+            return;
+        }
 
         try (ServerSocket serverSocket = new ServerSocket(CLIENT_PORT)) {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("Client connecté : " + clientSocket.getInetAddress().getHostAddress());
 
-                new Thread(new ClientHandler(this, clientSocket)).start();
+                handlerExecutor.execute(new ClientHandler(this, clientSocket));
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    public synchronized void discoverSlaves() {
-        activeSlaves.clear();
-
-        try (DatagramSocket socket = new DatagramSocket()) {
-            socket.setBroadcast(true);
-
-            String message = "DISCOVER_SLAVES";
-            byte[] buffer = message.getBytes();
-
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, InetAddress.getByName("255.255.255.255"), BROADCAST_PORT);
-            socket.send(packet);
-
-            System.out.println("Message de broadcast envoyé pour découvrir les slaves.");
-
-            // Attendre les réponses des slaves
-            listenForSlaveResponses();
+    // Instantané périodique, ou anticipé quand le journal courant a beaucoup grossi
+    private void snapshotIfDue() {
+        if (metadataJournal.getRecordsSinceSnapshot() == 0
+                || System.currentTimeMillis() - lastSnapshot < snapshotIntervalMs
+                && metadataJournal.getRecordsSinceSnapshot() < snapshotJournalRecords) {
+            return;
+        }
+        try {
+            snapshotMetadata();
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println("Erreur lors de l'instantané des métadonnées : " + e.getMessage());
         }
     }
 
-    private void listenForSlaveResponses() {
-        try (DatagramSocket socket = new DatagramSocket(RESPONSE_PORT)) {
-            socket.setSoTimeout(5000);
-            byte[] buffer = new byte[1024];
-
-            while (true) {
-                try {
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-                    String message = new String(packet.getData(), 0, packet.getLength());
-                    String slaveIp = packet.getAddress().getHostAddress();
-
-                    if (message.startsWith("SLAVE_AVAILABLE")) {
-                        String[] parts = message.split(":");
-                        int slavePort = (parts.length > 1) ? Integer.parseInt(parts[1]) : 1235; // Parse custom port
-                        activeSlaves.add(new SlaveInfo(slaveIp, slavePort));
-                        System.out.println("Slave détecté: " + slaveIp + ":" + slavePort);
-                    }
-                } catch (SocketTimeoutException e) {
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    public void snapshotMetadata() throws IOException {
+        long generation;
+        synchronized (metadataLock) {
+            generation = metadataJournal.roll();
         }
+        lastSnapshot = System.currentTimeMillis();
+        metadataJournal.writeSnapshot(generation, fileLocations);
+    }
+
+    // Relance une découverte en broadcast sans attendre : les réponses arrivent dans le registre
+    public void discoverSlaves() {
+        slaveRegistry.broadcastDiscovery();
     }
 
     public int getFilePartitionCount(String filename) {
@@ -131,17 +439,72 @@ public class MasterServer {
         RESPONSE_PORT = responsePort;
     }
 
-    public void setActiveSlaves(List<SlaveInfo> activeSlaves) {
-        this.activeSlaves = activeSlaves;
-    }
-
-    public void setFileLocations(Map<String, List<List<SlaveInfo>>> fileLocations) {
+    public void setFileLocations(FileMetadataStore fileLocations) {
         this.fileLocations = fileLocations;
     }
 
     public int getREPLICATION_FACTOR() {
         return REPLICATION_FACTOR;
     }
+
+    public boolean isStreamingAdd() {
+        return streamingAdd;
+    }
+
+    public boolean isChainReplication() {
+        return chainReplication;
+    }
+
+    public SlaveRegistry getSlaveRegistry() {
+        return slaveRegistry;
+    }
+
+    public PlacementPolicy getPlacementPolicy() {
+        return placementPolicy;
+    }
+
+    // Connexions binaires vers les slaves, null avec slaveProtocol=text
+    public SlaveBinaryLinks getSlaveBinaryLinks() {
+        return slaveBinaryLinks;
+    }
+
+    // Traitement des requêtes des connexions clientes en protocole binaire
+    public ExecutorService getBinaryExecutor() {
+        return binaryExecutor;
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    public ReplicationManager getReplicationManager() {
+        return replicationManager;
+    }
+
+    public Rebalancer getRebalancer() {
+        return rebalancer;
+    }
+
+    public BlockReportManager getBlockReportManager() {
+        return blockReportManager;
+    }
+
+    public HandlerExecutor getHandlerExecutor() {
+        return handlerExecutor;
+    }
+
+    // Connexions persistantes vers les slaves, avec délais de connexion et de lecture
+    public SlaveConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public PartFetcher getPartFetcher() {
+        return partFetcher;
+    }
+
+    public UploadScheduler getUploadScheduler() {
+        return uploadScheduler;
+    }
 }
 
 
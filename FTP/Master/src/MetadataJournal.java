@@ -0,0 +1,420 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Persistance de fileLocations (placement et taille des fichiers) : journal des mutations (écriture anticipée)
+ * et instantanés compacts, dans metadataDirectory.
+ * Chaque mutation est ajoutée au journal courant (journal-G.log) ; un thread unique écrit
+ * les enregistrements en attente et appelle force() pour tout le lot (validation groupée) :
+ * un appelant n'attend donc qu'un fsync, partagé avec les mutations simultanées.
+ * Un instantané ouvre d'abord le journal G+1, puis écrit l'état dans snapshot-(G+1).dat ;
+ * les journaux et instantanés plus anciens sont alors supprimés. Au démarrage, le dernier
+ * instantané est chargé puis les journaux de même génération et suivants sont rejoués.
+ * Les enregistrements portent l'état complet d'un fichier (PUT, avec sa version) ou sa suppression
+ * (REMOVE) : les rejouer sur un état qui les contient déjà ne change rien. Les enregistrements et
+ * instantanés écrits avant les versions se relisent avec la version 0.
+ */
+public class MetadataJournal {
+    private static final int RECORD_PUT = 1; // Sans version : journaux antérieurs aux versions
+    private static final int RECORD_REMOVE = 2;
+    private static final int RECORD_PUT_VERSION = 3;
+    private static final int SNAPSHOT_MAGIC_V1 = 0x464D5331; // "FMS1", sans versions
+    private static final int SNAPSHOT_MAGIC = 0x464D5332; // "FMS2"
+
+    private final File directory;
+    private final boolean fsync;
+    private FileChannel journal;
+    private long generation;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appendedSequence = 0;
+    private long durableSequence = 0;
+    private long recordsSinceSnapshot = 0;
+    private IOException syncFailure;
+    private final Thread syncer;
+
+    public MetadataJournal(File directory, boolean fsync) {
+        this.directory = directory;
+        this.fsync = fsync;
+        this.syncer = new Thread(this::syncLoop, "metadata-journal");
+        this.syncer.setDaemon(true);
+    }
+
+    /**
+     * Recharge l'état persistant dans locations, puis ouvre un nouveau journal.
+     */
+    public void recover(FileMetadataStore locations) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire des métadonnées : " + directory);
+        }
+        long start = System.currentTimeMillis();
+        long snapshotGeneration = -1;
+        for (long candidate : generations("snapshot-", ".dat")) {
+            try {
+                readSnapshot(snapshotFile(candidate), locations);
+                snapshotGeneration = candidate;
+                break;
+            } catch (IOException e) {
+                System.err.println("Instantané " + candidate + " illisible, essai du précédent : " + e.getMessage());
+                locations.clear();
+            }
+        }
+
+        long replayed = 0;
+        long lastGeneration = snapshotGeneration;
+        List<Long> journals = generations("journal-", ".log");
+        Collections.reverse(journals);
+        for (long journalGeneration : journals) {
+            if (journalGeneration >= snapshotGeneration) {
+                replayed += replay(journalFile(journalGeneration), locations);
+            }
+            lastGeneration = Math.max(lastGeneration, journalGeneration);
+        }
+
+        generation = lastGeneration + 1;
+        journal = openJournal(generation);
+        recordsSinceSnapshot = replayed;
+        syncer.start();
+        System.out.println("Métadonnées rechargées : " + locations.size() + " fichier(s), instantané "
+                + (snapshotGeneration < 0 ? "aucun" : snapshotGeneration) + ", " + replayed
+                + " mutation(s) rejouée(s) en " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Journalise l'état complet d'un fichier ; retourne le numéro à passer à awaitDurable
+    public synchronized long logPut(String fileName, long fileSize, long version,
+                                    List<List<SlaveInfo>> placement) throws IOException {
+        return append(out -> {
+            out.writeByte(RECORD_PUT_VERSION);
+            out.writeUTF(fileName);
+            out.writeLong(fileSize);
+            out.writeLong(version);
+            writePlacement(out, placement);
+        });
+    }
+
+    public synchronized long logRemove(String fileName) throws IOException {
+        return append(out -> {
+            out.writeByte(RECORD_REMOVE);
+            out.writeUTF(fileName);
+        });
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Enregistrement : longueur, CRC32 du contenu, contenu. Un enregistrement tronqué par un arrêt brutal est ignoré
+    private long append(RecordWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        writer.write(new DataOutputStream(bytes));
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record);
+
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+        recordsSinceSnapshot++;
+        notifyAll();
+        return ++appendedSequence;
+    }
+
+    // Attend que l'enregistrement sequence soit sur le disque
+    public synchronized void awaitDurable(long sequence) throws IOException {
+        while (durableSequence < sequence) {
+            if (syncFailure != null) {
+                throw new IOException("Écriture du journal des métadonnées impossible", syncFailure);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Attente du journal interrompue");
+            }
+        }
+    }
+
+    /**
+     * Validation groupée : tout ce qui s'est accumulé pendant le fsync précédent
+     * part en une écriture et un fsync.
+     */
+    private void syncLoop() {
+        while (true) {
+            byte[] batch;
+            long batchSequence;
+            FileChannel target;
+            synchronized (this) {
+                while (pending.size() == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending.toByteArray();
+                pending.reset();
+                batchSequence = appendedSequence;
+                target = journal;
+            }
+            try {
+                // Le journal n'est changé par roll() qu'après avoir attendu ce lot : target reste ouvert
+                write(target, batch);
+                if (fsync) {
+                    target.force(false);
+                }
+                synchronized (this) {
+                    durableSequence = Math.max(durableSequence, batchSequence);
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                System.err.println("Erreur d'écriture du journal des métadonnées : " + e.getMessage());
+                synchronized (this) {
+                    syncFailure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    public synchronized long getRecordsSinceSnapshot() {
+        return recordsSinceSnapshot;
+    }
+
+    /**
+     * Passe au journal suivant et retourne sa génération. À appeler sous le verrou des mutations :
+     * toute mutation postérieure va dans le nouveau journal, que l'instantané de cette génération précède.
+     */
+    public synchronized long roll() throws IOException {
+        long sequence = appendedSequence;
+        awaitDurable(sequence);
+        journal.close();
+        generation++;
+        journal = openJournal(generation);
+        recordsSinceSnapshot = 0;
+        return generation;
+    }
+
+    /**
+     * Écrit l'instantané de la génération donnée par roll(), puis supprime ce qu'il remplace.
+     * Peut se faire pendant que les mutations continuent : celles qui ne sont pas dans
+     * l'instantané sont dans le journal de même génération, rejoué après lui.
+     * Format compact : table des slaves, puis chaque fichier avec des indices dans cette table.
+     */
+    public void writeSnapshot(long snapshotGeneration, FileMetadataStore locations) throws IOException {
+        long start = System.currentTimeMillis();
+        File temporary = new File(directory, "snapshot-" + snapshotGeneration + ".tmp");
+
+        // Taille, version et placement lus ensemble : un remplacement concurrent ne les mélange pas
+        Map<SlaveInfo, Integer> slaveIds = new LinkedHashMap<>();
+        List<FileVersion> entries = new ArrayList<>(locations.size());
+        for (String fileName : locations.keySet()) {
+            FileVersion file = locations.version(fileName);
+            if (file != null) {
+                entries.add(file);
+            }
+        }
+        for (FileVersion file : entries) {
+            for (List<SlaveInfo> replicas : file.getPlacement()) {
+                for (SlaveInfo slave : replicas) {
+                    slaveIds.putIfAbsent(slave, slaveIds.size());
+                }
+            }
+        }
+
+        try (FileOutputStream file = new FileOutputStream(temporary)) {
+            // Tampon au-dessus du calcul du CRC : il porte sur des blocs et non octet par octet
+            CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1024 * 1024));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(slaveIds.size());
+            for (SlaveInfo slave : slaveIds.keySet()) {
+                out.writeUTF(slave.getIp());
+                out.writeInt(slave.getPort());
+            }
+            out.writeInt(entries.size());
+            for (FileVersion entry : entries) {
+                out.writeUTF(entry.getPath());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getVersion());
+                out.writeInt(entry.getPartCount());
+                for (List<SlaveInfo> replicas : entry.getPlacement()) {
+                    out.writeByte(replicas.size());
+                    for (SlaveInfo slave : replicas) {
+                        out.writeShort(slaveIds.get(slave));
+                    }
+                }
+            }
+            out.flush();
+            new DataOutputStream(file).writeLong(checked.getChecksum().getValue());
+            if (fsync) {
+                file.getFD().sync();
+            }
+        }
+        Files.move(temporary.toPath(), snapshotFile(snapshotGeneration).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // L'instantané remplace les instantanés précédents et les journaux des générations antérieures
+        for (long older : generations("snapshot-", ".dat")) {
+            if (older < snapshotGeneration) {
+                Files.deleteIfExists(snapshotFile(older).toPath());
+            }
+        }
+        for (long older : generations("journal-", ".log")) {
+            if (older < snapshotGeneration) {
+                Files.deleteIfExists(journalFile(older).toPath());
+            }
+        }
+        System.out.println("Instantané des métadonnées " + snapshotGeneration + " : " + entries.size()
+                + " fichier(s) en " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void readSnapshot(File file, FileMetadataStore locations) throws IOException {
+        // Lu d'un bloc : le CRC est vérifié avant de décoder quoi que ce soit
+        byte[] content = Files.readAllBytes(file.toPath());
+        if (content.length < 8) {
+            throw new IOException("Instantané incomplet");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - 8);
+        if (ByteBuffer.wrap(content, content.length - 8, 8).getLong() != crc.getValue()) {
+            throw new IOException("Instantané incomplet ou corrompu");
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - 8))) {
+            int magic = in.readInt();
+            if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1) {
+                throw new IOException("Format d'instantané inconnu");
+            }
+            SlaveInfo[] slaves = new SlaveInfo[in.readInt()];
+            for (int i = 0; i < slaves.length; i++) {
+                slaves[i] = new SlaveInfo(in.readUTF(), in.readInt());
+            }
+            int fileCount = in.readInt();
+            for (int f = 0; f < fileCount; f++) {
+                String fileName = in.readUTF();
+                long fileSize = in.readLong();
+                long version = magic == SNAPSHOT_MAGIC ? in.readLong() : 0;
+                int partCount = in.readInt();
+                List<List<SlaveInfo>> placement = new ArrayList<>(partCount);
+                for (int p = 0; p < partCount; p++) {
+                    int replicaCount = in.readUnsignedByte();
+                    List<SlaveInfo> replicas = new ArrayList<>(replicaCount);
+                    for (int r = 0; r < replicaCount; r++) {
+                        replicas.add(slaves[in.readUnsignedShort()]);
+                    }
+                    placement.add(replicas);
+                }
+                locations.store(fileName, fileSize, version, placement);
+            }
+        }
+    }
+
+    // Rejoue un journal ; s'arrête au premier enregistrement tronqué ou corrompu (fin d'un arrêt brutal)
+    private long replay(File file, FileMetadataStore locations) throws IOException {
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024))) {
+            while (true) {
+                byte[] record;
+                int expectedCrc;
+                try {
+                    int length = in.readInt();
+                    expectedCrc = in.readInt();
+                    if (length <= 0 || length > 16 * 1024 * 1024) {
+                        throw new EOFException();
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    return count;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != expectedCrc) {
+                    System.err.println("Enregistrement corrompu dans " + file.getName() + ", fin du rejeu de ce journal");
+                    return count;
+                }
+
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+                int type = data.readUnsignedByte();
+                String fileName = data.readUTF();
+                if (type == RECORD_PUT || type == RECORD_PUT_VERSION) {
+                    long fileSize = data.readLong();
+                    long version = type == RECORD_PUT_VERSION ? data.readLong() : 0;
+                    locations.store(fileName, fileSize, version, readPlacement(data));
+                } else if (type == RECORD_REMOVE) {
+                    locations.remove(fileName);
+                }
+                count++;
+            }
+        }
+    }
+
+    private static void writePlacement(DataOutputStream out, List<List<SlaveInfo>> placement) throws IOException {
+        out.writeInt(placement.size());
+        for (List<SlaveInfo> replicas : placement) {
+            out.writeInt(replicas.size());
+            for (SlaveInfo slave : replicas) {
+                out.writeUTF(slave.getIp());
+                out.writeInt(slave.getPort());
+            }
+        }
+    }
+
+    private static List<List<SlaveInfo>> readPlacement(DataInputStream in) throws IOException {
+        int partCount = in.readInt();
+        List<List<SlaveInfo>> placement = new ArrayList<>(partCount);
+        for (int i = 0; i < partCount; i++) {
+            int replicaCount = in.readInt();
+            List<SlaveInfo> replicas = new ArrayList<>(replicaCount);
+            for (int r = 0; r < replicaCount; r++) {
+                replicas.add(new SlaveInfo(in.readUTF(), in.readInt()));
+            }
+            placement.add(replicas);
+        }
+        return placement;
+    }
+
+    private static void write(FileChannel channel, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private FileChannel openJournal(long journalGeneration) throws IOException {
+        return FileChannel.open(journalFile(journalGeneration).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private File journalFile(long journalGeneration) {
+        return new File(directory, "journal-" + journalGeneration + ".log");
+    }
+
+    private File snapshotFile(long snapshotGeneration) {
+        return new File(directory, "snapshot-" + snapshotGeneration + ".dat");
+    }
+
+    // Générations présentes sur le disque, de la plus récente à la plus ancienne
+    private List<Long> generations(String prefix, String suffix) {
+        List<Long> found = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    try {
+                        found.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                    } catch (NumberFormatException e) {
+                        // Fichier étranger au journal
+                    }
+                }
+            }
+        }
+        found.sort(Collections.reverseOrder());
+        return found;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Chemins de l'espace de noms hiérarchique. Un fichier est désigné par son chemin normalisé
+ * ("rapports/2024/report.csv", sans "/" initial ni final) ; un fichier à la racine garde son
+ * simple nom. Les répertoires n'existent que par les fichiers qu'ils contiennent : dans
+ * fileLocations, trié par chemin, le sous-arbre d'un répertoire est la plage des chemins qui
+ * commencent par "répertoire/".
+ * Les slaves stockent les parties à plat : le nom de stockage échappe "%" et "/" pour qu'un
+ * chemin donne un nom de fichier valide, distinct de celui de tout autre chemin. Chaque version
+ * d'un fichier ajoute son numéro au nom de stockage ("%V" suivi du numéro en base 36, marque qui
+ * ne peut pas venir d'un chemin échappé) : un remplacement écrit ses parties à côté de celles de
+ * la version précédente au lieu de les écraser. La version 0, sans marque, est celle des fichiers
+ * enregistrés avant les versions.
+ */
+public final class Namespace {
+    public static final char SEPARATOR = '/';
+    private static final String VERSION_MARK = "%V";
+    private static final String PART_SUFFIX = ".part";
+
+    private Namespace() {
+    }
+
+    // Chemin normalisé (séparateurs multiples, "/" initial et final retirés), ou null si le chemin est invalide
+    public static String normalize(String path) {
+        StringBuilder normalized = new StringBuilder(path.length());
+        for (String segment : path.replace('\\', SEPARATOR).split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (segment.equals(".") || segment.equals("..")) {
+                return null;
+            }
+            if (normalized.length() > 0) {
+                normalized.append(SEPARATOR);
+            }
+            normalized.append(segment);
+        }
+        return normalized.toString();
+    }
+
+    // Préfixe commun des chemins du sous-arbre ("" pour la racine)
+    public static String directoryPrefix(String directory) {
+        return directory.isEmpty() ? "" : directory + SEPARATOR;
+    }
+
+    // Dernier élément du chemin, utilisé comme nom de fichier local par le client
+    public static String baseName(String path) {
+        return path.substring(path.lastIndexOf(SEPARATOR) + 1);
+    }
+
+    public static String storageName(String path) {
+        return path.replace("%", "%25").replace("/", "%2F");
+    }
+
+    public static String pathOf(String storageName) {
+        return storageName.replace("%2F", "/").replace("%25", "%");
+    }
+
+    // Préfixe commun des parties d'une version du fichier sur les slaves
+    public static String storagePrefix(String path, long version) {
+        return version == 0 ? storageName(path) : storageName(path) + VERSION_MARK + Long.toString(version, 36);
+    }
+
+    // Nom de la partie index (à partir de 0) d'une version du fichier sur les slaves
+    public static String partName(String path, long version, int index) {
+        return storagePrefix(path, version) + PART_SUFFIX + (index + 1);
+    }
+
+    // Préfixe de stockage d'un nom de partie (<préfixe>.partN), ou null si le nom ne suit pas ce format
+    public static String prefixOfPart(String partName) {
+        int position = partName.lastIndexOf(PART_SUFFIX);
+        return position > 0 && partIndexOf(partName) >= 0 ? partName.substring(0, position) : null;
+    }
+
+    // Index (à partir de 0) d'un nom de partie, ou -1 si le nom ne suit pas le format <préfixe>.partN
+    public static int partIndexOf(String partName) {
+        int position = partName.lastIndexOf(PART_SUFFIX);
+        if (position <= 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(partName.substring(position + PART_SUFFIX.length())) - 1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Chemin désigné par un préfixe de stockage
+    public static String pathOfPrefix(String storagePrefix) {
+        int mark = storagePrefix.lastIndexOf(VERSION_MARK);
+        return pathOf(mark < 0 ? storagePrefix : storagePrefix.substring(0, mark));
+    }
+
+    // Version désignée par un préfixe de stockage, ou -1 si son numéro est illisible
+    public static long versionOfPrefix(String storagePrefix) {
+        int mark = storagePrefix.lastIndexOf(VERSION_MARK);
+        if (mark < 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(storagePrefix.substring(mark + VERSION_MARK.length()), 36);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
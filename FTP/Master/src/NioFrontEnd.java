@@ -0,0 +1,310 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Front end non bloquant du master : un seul thread surveille toutes les connexions
+ * clientes avec un Selector et décode le nom de la commande au fur et à mesure que
+ * les octets arrivent. Une connexion inactive n'occupe donc aucun thread.
+ * Dès qu'une commande est complète, la connexion est confiée à un pool borné de
+ * workers, qui exécute la commande avec le ClientHandler de la connexion ; pendant
+ * ce temps le Selector ne la surveille plus. Le protocole est inchangé.
+ */
+public class NioFrontEnd {
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final int MAX_COMMAND_SIZE = 2 + 65535; // writeUTF : longueur sur 2 octets + contenu
+
+    private final MasterServer masterServer;
+    private final int port;
+    private final int ioTimeoutMs;
+    private final ExecutorService workers;
+    private final ThreadLocal<Selector> waitSelectors = ThreadLocal.withInitial(() -> {
+        try {
+            return Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    });
+    private Selector selector;
+
+    public NioFrontEnd(MasterServer masterServer, int port, int workerThreads, int ioTimeoutMs) {
+        this.masterServer = masterServer;
+        this.port = port;
+        this.ioTimeoutMs = ioTimeoutMs;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), runnable -> {
+            Thread thread = new Thread(runnable, "nio-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void run() throws IOException {
+        selector = Selector.open();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Front end NIO à l'écoute sur le port " + port);
+
+            while (true) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(server);
+                    } else if (key.isReadable()) {
+                        readCommand(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            System.out.println("Client connecté : " + channel.socket().getInetAddress().getHostAddress());
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    // Lit ce qui est disponible ; si une commande complète est arrivée, la confie à un worker
+    private void readCommand(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            String command;
+            synchronized (connection) {
+                if (connection.fill() < 0) {
+                    connection.close();
+                    return;
+                }
+                if (connection.isBinary()) {
+                    serveBinary(connection);
+                    return;
+                }
+                command = connection.decodeCommand();
+                if (command == null) {
+                    return;
+                }
+                key.interestOps(0);
+            }
+            String first = command;
+            workers.execute(() -> process(connection, first));
+        } catch (IOException e) {
+            System.err.println("Erreur de communication avec le client : " + e.getMessage());
+            connection.close();
+        }
+    }
+
+    /**
+     * Exécute la commande, puis les commandes suivantes déjà reçues en entier (envoyées
+     * à la suite par le client), avant de rendre la connexion au Selector.
+     */
+    private void process(Connection connection, String command) {
+        // Flux créés le temps du traitement : une connexion inactive ne garde que son petit tampon de lecture
+        DataInputStream input = new DataInputStream(connection.new ChannelInputStream());
+        DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(connection.new ChannelOutputStream(), FileTransferUtils.STREAM_BUFFER_SIZE));
+        try {
+            while (command != null) {
+                if (!connection.handler.handleCommand(command, input, output)) {
+                    connection.close();
+                    return;
+                }
+                output.flush();
+                synchronized (connection) {
+                    command = connection.decodeCommand();
+                    if (command == null) {
+                        connection.key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+            }
+            selector.wakeup();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Erreur de communication avec le client : " + e.getMessage());
+            connection.close();
+        }
+    }
+
+    /**
+     * Connexion en protocole binaire : plusieurs requêtes peuvent y être en cours, elle est donc
+     * lue en continu. Elle quitte le Selector, repasse en mode bloquant et est servie par un
+     * thread virtuel, ses requêtes étant traitées par l'executor binaire comme sur le front end bloquant.
+     */
+    private void serveBinary(Connection connection) {
+        byte[] received = new byte[connection.buffer.remaining()];
+        connection.buffer.get(received);
+        connection.key.cancel();
+
+        Thread.ofVirtual().name("nio-binary").start(() -> {
+            SocketChannel channel = connection.channel;
+            try {
+                // La désinscription prend effet au prochain select du thread du Selector
+                while (channel.isRegistered()) {
+                    selector.wakeup();
+                    Thread.sleep(1);
+                }
+                channel.configureBlocking(true);
+                InputStream in = new SequenceInputStream(new ByteArrayInputStream(received),
+                        channel.socket().getInputStream());
+                BinaryProtocol.serve(new DataInputStream(new BufferedInputStream(in)), channel.socket().getOutputStream(),
+                        masterServer.getBinaryExecutor(), new BinaryRequestHandler(masterServer));
+            } catch (IOException e) {
+                System.err.println("Erreur de communication avec le client : " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connection.close();
+            }
+        });
+    }
+
+    // Attend, depuis un worker, que le canal soit prêt en lecture ou en écriture
+    private void await(SocketChannel channel, int operation) throws IOException {
+        Selector waitSelector = waitSelectors.get();
+        SelectionKey key = channel.register(waitSelector, operation);
+        try {
+            if (waitSelector.select(ioTimeoutMs) == 0) {
+                throw new SocketTimeoutException("Client inactif depuis " + ioTimeoutMs + " ms");
+            }
+        } finally {
+            key.cancel();
+            waitSelector.selectNow(); // Désenregistre effectivement le canal
+            waitSelector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * État d'une connexion cliente. Le tampon de lecture est partagé entre le décodage
+     * des commandes (thread du Selector) et la lecture des arguments (worker) : les octets
+     * reçus en avance ne sont donc jamais perdus. Il reste en mode lecture entre deux usages.
+     */
+    private class Connection {
+        final SocketChannel channel;
+        final ClientHandler handler = new ClientHandler(masterServer);
+        ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).flip();
+        SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Ajoute au tampon les octets disponibles sans bloquer ; -1 en fin de flux
+        int fill() throws IOException {
+            buffer.compact();
+            try {
+                return channel.read(buffer);
+            } finally {
+                buffer.flip();
+            }
+        }
+
+        boolean isBinary() {
+            return buffer.remaining() >= 2 && (buffer.getShort(buffer.position()) & 0xFFFF) == BinaryProtocol.MAGIC;
+        }
+
+        // Nom de la commande si elle est entièrement dans le tampon, sinon null
+        String decodeCommand() throws IOException {
+            if (buffer.remaining() < 2) {
+                ensureCapacity(2);
+                return null;
+            }
+            int length = buffer.getShort(buffer.position()) & 0xFFFF;
+            if (buffer.remaining() < 2 + length) {
+                ensureCapacity(2 + length);
+                return null;
+            }
+            byte[] encoded = new byte[2 + length];
+            buffer.get(encoded);
+            return new DataInputStream(new ByteArrayInputStream(encoded)).readUTF();
+        }
+
+        private void ensureCapacity(int needed) {
+            if (buffer.capacity() < needed) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_COMMAND_SIZE, Math.max(needed, buffer.capacity() * 2)));
+                larger.put(buffer).flip();
+                buffer = larger;
+            }
+        }
+
+        void close() {
+            handler.connectionClosed();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la fermeture de la connexion : " + e.getMessage());
+            }
+        }
+
+        private class ChannelInputStream extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                synchronized (Connection.this) {
+                    if (!buffer.hasRemaining() && length >= buffer.capacity()) {
+                        // Gros transfert (données d'un ADD) : lecture directe, sans passer par le petit tampon
+                        ByteBuffer direct = ByteBuffer.wrap(target, offset, length);
+                        int read;
+                        while ((read = channel.read(direct)) == 0) {
+                            await(channel, SelectionKey.OP_READ);
+                        }
+                        return read;
+                    }
+                    while (!buffer.hasRemaining()) {
+                        int read = fill();
+                        if (read < 0) {
+                            return -1;
+                        }
+                        if (read == 0) {
+                            await(channel, SelectionKey.OP_READ);
+                        }
+                    }
+                    int count = Math.min(length, buffer.remaining());
+                    buffer.get(target, offset, count);
+                    return count;
+                }
+            }
+        }
+
+        private class ChannelOutputStream extends OutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] source, int offset, int length) throws IOException {
+                ByteBuffer data = ByteBuffer.wrap(source, offset, length);
+                while (data.hasRemaining()) {
+                    if (channel.write(data) == 0) {
+                        await(channel, SelectionKey.OP_WRITE);
+                    }
+                }
+            }
+        }
+    }
+}
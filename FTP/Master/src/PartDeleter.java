@@ -0,0 +1,142 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Suppression de parties sur les slaves : toutes les parties d'une version de fichier (REMOVE_PART
+ * sur son préfixe de stockage, qui laisse intactes les autres versions du même chemin) ou une
+ * seule réplique (DELETE_PART). En protocole binaire, les demandes partent toutes avant que les
+ * réponses soient attendues.
+ */
+public class PartDeleter {
+    private final MasterServer masterServer;
+
+    public PartDeleter(MasterServer masterServer) {
+        this.masterServer = masterServer;
+    }
+
+    // Supprime les parties de la version sur chaque slave qui en détient ; false si un slave a échoué
+    public boolean removeVersion(FileVersion file) {
+        return removeVersions(List.of(file)).isEmpty();
+    }
+
+    // Supprime plusieurs versions, chaque slave en parallèle des autres ; retourne les versions en échec
+    public Set<FileVersion> removeVersions(Collection<FileVersion> files) {
+        Map<SlaveInfo, List<FileVersion>> filesBySlave = new LinkedHashMap<>();
+        for (FileVersion file : files) {
+            Set<SlaveInfo> slaves = new LinkedHashSet<>();
+            for (List<SlaveInfo> replicas : file.getPlacement()) {
+                slaves.addAll(replicas);
+            }
+            for (SlaveInfo slave : slaves) {
+                filesBySlave.computeIfAbsent(slave, s -> new ArrayList<>()).add(file);
+            }
+        }
+        Set<FileVersion> failed = ConcurrentHashMap.newKeySet();
+        if (filesBySlave.isEmpty()) {
+            return failed;
+        }
+
+        SlaveBinaryLinks links = masterServer.getSlaveBinaryLinks();
+        if (links != null) {
+            // Connexions multiplexées : toutes les demandes partent avant d'attendre les réponses
+            List<Map.Entry<FileVersion, BinaryProtocol.Connection.Call>> calls = new ArrayList<>();
+            for (Map.Entry<SlaveInfo, List<FileVersion>> entry : filesBySlave.entrySet()) {
+                for (FileVersion file : entry.getValue()) {
+                    try {
+                        calls.add(Map.entry(file, links.get(entry.getKey()).call(BinaryProtocol.OP_REMOVE_PART,
+                                BinaryProtocol.payload(out -> out.writeUTF(file.storagePrefix())))));
+                    } catch (IOException e) {
+                        System.err.println("Erreur lors de la suppression sur le slave " + entry.getKey().getIp() + ": " + e.getMessage());
+                        failed.add(file);
+                    }
+                }
+            }
+            for (Map.Entry<FileVersion, BinaryProtocol.Connection.Call> entry : calls) {
+                try {
+                    if (entry.getValue().status() != BinaryProtocol.STATUS_OK) {
+                        System.err.println("Suppression de " + entry.getKey() + " refusée : " + entry.getValue().errorMessage());
+                        failed.add(entry.getKey());
+                    }
+                } catch (IOException e) {
+                    System.err.println("Erreur lors de la suppression de " + entry.getKey() + " : " + e.getMessage());
+                    failed.add(entry.getKey());
+                }
+            }
+            return failed;
+        }
+
+        if (filesBySlave.size() == 1) {
+            Map.Entry<SlaveInfo, List<FileVersion>> entry = filesBySlave.entrySet().iterator().next();
+            for (FileVersion file : entry.getValue()) {
+                if (!removeFromSlave(entry.getKey(), file.storagePrefix())) {
+                    failed.add(file);
+                }
+            }
+            return failed;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(filesBySlave.size());
+        try {
+            List<Future<?>> removals = new ArrayList<>();
+            for (Map.Entry<SlaveInfo, List<FileVersion>> entry : filesBySlave.entrySet()) {
+                removals.add(executor.submit(() -> {
+                    for (FileVersion file : entry.getValue()) {
+                        if (!removeFromSlave(entry.getKey(), file.storagePrefix())) {
+                            failed.add(file);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> removal : removals) {
+                removal.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.addAll(files);
+        } catch (ExecutionException e) {
+            System.err.println("Erreur lors de la suppression : " + e.getCause().getMessage());
+            failed.addAll(files);
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    // REMOVE_PART : toutes les parties du préfixe de stockage sur ce slave
+    public boolean removeFromSlave(SlaveInfo slave, String storagePrefix) {
+        return send(slave, "REMOVE_PART", storagePrefix);
+    }
+
+    // DELETE_PART : une seule partie
+    public boolean deletePart(SlaveInfo slave, String partName) {
+        return send(slave, "DELETE_PART", partName);
+    }
+
+    private boolean send(SlaveInfo slave, String command, String name) {
+        SlaveConnectionPool pool = masterServer.getConnectionPool();
+        SlaveConnectionPool.SlaveConnection connection = null;
+        try {
+            connection = pool.borrow(slave);
+            DataOutputStream dos = connection.getOutput();
+            dos.writeUTF(command);
+            dos.writeUTF(name);
+            dos.flush();
+
+            String response = connection.getInput().readUTF();
+            pool.release(connection);
+            if (!"SUCCESS".equals(response)) {
+                System.err.println("Suppression de " + name + " refusée par " + slave);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            if (connection != null) {
+                pool.invalidate(connection);
+            }
+            System.err.println("Erreur lors de la suppression de " + name + " sur " + slave + " : " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Téléchargement parallèle des parties d'un fichier depuis les slaves.
+ * Les parties arrivent dans le désordre et sont gardées dans un tampon de réordonnancement :
+ * en mémoire tant que le budget memoryBudget n'est pas épuisé, sinon dans un fichier temporaire.
+ * Lectures doublées : si la première réplique n'a pas commencé à répondre dans le délai
+ * donné par le LatencyTracker, la partie est aussi demandée à la réplique suivante ;
+ * la première réponse complète gagne et l'autre connexion est fermée.
+ */
+public class PartFetcher {
+    private final int maxParallel;
+    private final AtomicLong memoryAvailable;
+    private final boolean hedgedReads;
+    private final LatencyTracker firstByteLatency;
+    private final SlaveConnectionPool connectionPool;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "part-fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PartFetcher(int maxParallel, long memoryBudget, boolean hedgedReads, LatencyTracker firstByteLatency,
+                       SlaveConnectionPool connectionPool) {
+        this.maxParallel = Math.max(1, maxParallel);
+        this.memoryAvailable = new AtomicLong(memoryBudget);
+        this.hedgedReads = hedgedReads;
+        this.firstByteLatency = firstByteLatency;
+        this.connectionPool = connectionPool;
+    }
+
+    public int getMaxParallel() {
+        return maxParallel;
+    }
+
+    /**
+     * Téléchargement en tâche de fond. Une partie obtenue après l'annulation de son futur est
+     * libérée par la tâche elle-même : une annulation ne perd jamais de mémoire ni de fichier temporaire.
+     */
+    public CompletableFuture<FetchedPart> submit(String partName, List<SlaveInfo> replicas) {
+        CompletableFuture<FetchedPart> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (result.isDone()) {
+                return; // Annulé avant de commencer
+            }
+            try {
+                FetchedPart part = fetch(partName, replicas);
+                if (!result.complete(part)) {
+                    part.close(); // Annulé pendant le téléchargement
+                }
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    // Abandonne une partie demandée par submit, sans attendre : annulée si elle est en cours, libérée si elle est là
+    public static void release(CompletableFuture<FetchedPart> future) {
+        if (!future.cancel(false)) {
+            future.thenAccept(FetchedPart::close);
+        }
+    }
+
+    /**
+     * Obtient une partie complète et valide. Une réplique en échec est remplacée
+     * immédiatement par la suivante ; une réplique trop lente à répondre est doublée.
+     */
+    public FetchedPart fetch(String partName, List<SlaveInfo> replicas) throws IOException {
+        if (replicas.isEmpty()) {
+            throw new FileNotFoundException("Aucune réplique pour " + partName);
+        }
+
+        CompletionService<FetchedPart> completion = new ExecutorCompletionService<>(executor);
+        List<Attempt> attempts = new ArrayList<>();
+        int nextReplica = 0;
+        int running = 0;
+        boolean hedged = !hedgedReads;
+        long deadline = System.currentTimeMillis() + firstByteLatency.deadlineMs();
+        IOException lastError = null;
+        AtomicBoolean claimed = new AtomicBoolean(false); // Une seule tentative peut livrer la partie
+
+        attempts.add(launch(completion, partName, replicas.get(nextReplica++), claimed));
+        running++;
+
+        try {
+            while (true) {
+                Future<FetchedPart> done;
+                boolean canHedge = !hedged && running == 1 && nextReplica < replicas.size() && !attempts.get(0).started;
+                if (canHedge) {
+                    done = completion.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        hedged = true;
+                        if (!attempts.get(0).started) {
+                            SlaveInfo backup = replicas.get(nextReplica++);
+                            System.out.println("Lecture doublée de " + partName + " sur " + backup
+                                    + " (pas de réponse de " + attempts.get(0).slave + ")");
+                            attempts.add(launch(completion, partName, backup, claimed));
+                            running++;
+                        }
+                        continue;
+                    }
+                } else {
+                    done = completion.take();
+                }
+
+                try {
+                    FetchedPart part = done.get();
+                    for (Attempt attempt : attempts) {
+                        attempt.cancel(); // Sans effet sur la tentative gagnante, déjà terminée
+                    }
+                    return part;
+                } catch (ExecutionException e) {
+                    running--;
+                    lastError = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                    if (running == 0) {
+                        if (nextReplica >= replicas.size()) {
+                            throw lastError;
+                        }
+                        attempts.add(launch(completion, partName, replicas.get(nextReplica++), claimed));
+                        running++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Téléchargement interrompu : " + partName, e);
+        } finally {
+            for (Attempt attempt : attempts) {
+                attempt.cancel();
+            }
+        }
+    }
+
+    private Attempt launch(CompletionService<FetchedPart> completion, String partName, SlaveInfo slave, AtomicBoolean claimed) {
+        Attempt attempt = new Attempt(slave, claimed);
+        completion.submit(() -> {
+            try {
+                return fetchFromSlave(partName, attempt);
+            } catch (IOException e) {
+                if (!attempt.cancelled) {
+                    System.err.println("Échec du téléchargement de " + partName + " depuis " + slave + " : " + e.getMessage());
+                }
+                throw e;
+            }
+        });
+        return attempt;
+    }
+
+    /**
+     * Une demande de partie à une réplique. cancel() ferme la connexion (qui ne retourne
+     * donc pas dans le pool), ce qui interrompt la lecture en cours ; une partie obtenue après qu'une autre tentative
+     * a gagné est libérée aussitôt.
+     */
+    private static class Attempt {
+        final SlaveInfo slave;
+        final AtomicBoolean claimed;
+        final long startedAt = System.currentTimeMillis();
+        private SlaveConnectionPool.SlaveConnection connection;
+        volatile boolean started = false;
+        volatile boolean cancelled = false;
+        volatile boolean finished = false;
+
+        Attempt(SlaveInfo slave, AtomicBoolean claimed) {
+            this.slave = slave;
+            this.claimed = claimed;
+        }
+
+        synchronized void cancel() {
+            if (finished) {
+                return;
+            }
+            cancelled = true;
+            if (connection != null) {
+                connection.close();
+            }
+        }
+
+        synchronized boolean attach(SlaveConnectionPool.SlaveConnection connection) {
+            this.connection = connection;
+            return !cancelled;
+        }
+
+        // Après detach(), cancel() ne touche plus la connexion, qui peut retourner dans le pool
+        synchronized boolean detach() {
+            connection = null;
+            return !cancelled;
+        }
+    }
+
+    private FetchedPart fetchFromSlave(String partName, Attempt attempt) throws IOException {
+        SlaveConnectionPool.SlaveConnection connection = connectionPool.borrow(attempt.slave);
+        boolean reusable = false;
+        try {
+            if (!attempt.attach(connection)) {
+                throw new IOException("Tentative annulée");
+            }
+            DataOutputStream dos = connection.getOutput();
+            DataInputStream dis = connection.getInput();
+
+            dos.writeUTF("GET_PART");
+            dos.writeUTF(partName);
+            dos.flush();
+
+            dis.readUTF(); // Nom de la partie
+            attempt.started = true;
+            firstByteLatency.record(System.currentTimeMillis() - attempt.startedAt);
+            long partLength = dis.readLong();
+            if (partLength < 0) {
+                reusable = true;
+                throw new FileNotFoundException("Partie absente : " + partName);
+            }
+            String expectedChecksum = dis.readUTF();
+
+            FetchedPart part = reserveMemory(partLength)
+                    ? FetchedPart.inMemory(this, partLength, expectedChecksum)
+                    : FetchedPart.spilled(partName, partLength, expectedChecksum);
+            try {
+                MessageDigest digest = FileTransferUtils.newDigest();
+                try (OutputStream out = part.openOutput()) {
+                    byte[] buffer = new byte[FileTransferUtils.STREAM_BUFFER_SIZE];
+                    long remaining = partLength;
+                    while (remaining > 0) {
+                        int bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (bytesRead == -1) {
+                            throw new EOFException("Fin du flux inattendue");
+                        }
+                        digest.update(buffer, 0, bytesRead);
+                        out.write(buffer, 0, bytesRead);
+                        remaining -= bytesRead;
+                    }
+                }
+
+                String status = dis.readUTF();
+                reusable = true;
+                if (!"SUCCESS".equals(status) || !expectedChecksum.equals(FileTransferUtils.toHex(digest.digest()))) {
+                    throw new IOException("Partie invalide : " + partName);
+                }
+                if (attempt.cancelled || !attempt.claimed.compareAndSet(false, true)) {
+                    // Une autre réplique a gagné entre-temps
+                    part.close();
+                    throw new IOException("Tentative annulée");
+                }
+                attempt.finished = true;
+                return part;
+            } catch (IOException e) {
+                part.close();
+                throw e;
+            }
+        } finally {
+            if (attempt.detach() && reusable) {
+                connectionPool.release(connection);
+            } else {
+                connectionPool.invalidate(connection);
+            }
+        }
+    }
+
+    private boolean reserveMemory(long bytes) {
+        if (bytes > Integer.MAX_VALUE - 8) {
+            return false;
+        }
+        while (true) {
+            long available = memoryAvailable.get();
+            if (available < bytes) {
+                return false;
+            }
+            if (memoryAvailable.compareAndSet(available, available - bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void releaseMemory(long bytes) {
+        memoryAvailable.addAndGet(bytes);
+    }
+
+    /**
+     * Partie téléchargée, en attente de son tour pour être envoyée au client.
+     */
+    public static class FetchedPart implements Closeable {
+        private final PartFetcher owner; // non nul si la partie occupe le budget mémoire
+        private final long length;
+        private final String checksum;
+        private final File spillFile;
+        private byte[] memory;
+        private boolean closed = false;
+
+        private FetchedPart(PartFetcher owner, long length, String checksum, File spillFile) {
+            this.owner = owner;
+            this.length = length;
+            this.checksum = checksum;
+            this.spillFile = spillFile;
+        }
+
+        static FetchedPart inMemory(PartFetcher owner, long length, String checksum) {
+            return new FetchedPart(owner, length, checksum, null);
+        }
+
+        static FetchedPart spilled(String partName, long length, String checksum) throws IOException {
+            return new FetchedPart(null, length, checksum, File.createTempFile(partName + "_", ".tmp"));
+        }
+
+        OutputStream openOutput() throws IOException {
+            if (spillFile != null) {
+                return new BufferedOutputStream(new FileOutputStream(spillFile), FileTransferUtils.STREAM_BUFFER_SIZE);
+            }
+            memory = new byte[(int) length];
+            return new OutputStream() {
+                private int position = 0;
+
+                @Override
+                public void write(int b) {
+                    memory[position++] = (byte) b;
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int count) {
+                    System.arraycopy(buffer, offset, memory, position, count);
+                    position += count;
+                }
+            };
+        }
+
+        public InputStream openInput() throws IOException {
+            if (spillFile != null) {
+                return new BufferedInputStream(new FileInputStream(spillFile), FileTransferUtils.STREAM_BUFFER_SIZE);
+            }
+            return new ByteArrayInputStream(memory);
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (owner != null) {
+                memory = null;
+                owner.releaseMemory(length);
+            } else if (spillFile != null && spillFile.exists() && !spillFile.delete()) {
+                System.err.println("Impossible de supprimer le fichier temporaire : " + spillFile.getAbsolutePath());
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+import java.util.List;
+
+/**
+ * Choix des slaves qui reçoivent chaque partie d'un fichier.
+ * Retourne, pour chaque partie, la liste ordonnée et sans doublon de ses répliques cibles.
+ */
+public interface PlacementPolicy {
+    List<List<SlaveInfo>> place(int numParts, long partSize, int replicationFactor, List<SlaveInfo> slaves);
+}
@@ -0,0 +1,249 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rééquilibrage des données entre slaves. Le placement est fixé à l'ADD : un slave arrivé
+ * plus tard ne reçoit que les nouveaux fichiers. À chaque passage, les octets stockés par
+ * chaque slave vivant (d'après fileLocations) sont comparés à la moyenne ; tant qu'un slave
+ * dépasse la bande de tolérance et qu'un autre est en dessous, une partie du plus chargé est
+ * déplacée vers le moins chargé : copie slave -> slave limitée en débit (REPLICATE_PART),
+ * remplacement de la réplique dans fileLocations, puis suppression sur l'ancien slave.
+ */
+public class Rebalancer {
+    private final MasterServer masterServer;
+    private final ReplicationManager replicationManager;
+    private final long intervalMs;
+    private final double tolerance;
+    private final int maxMovesPerRound;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rebalancer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong completedMoves = new AtomicLong();
+    private final AtomicLong movedBytes = new AtomicLong();
+    private final AtomicLong failedMoves = new AtomicLong();
+
+    /**
+     * tolerance : écart relatif à la moyenne toléré (0.1 : un slave entre 90 % et 110 %
+     * de la moyenne est considéré équilibré).
+     */
+    public Rebalancer(MasterServer masterServer, ReplicationManager replicationManager, long intervalMs,
+                      double tolerance, int maxMovesPerRound) {
+        this.masterServer = masterServer;
+        this.replicationManager = replicationManager;
+        this.intervalMs = intervalMs;
+        this.tolerance = Math.max(0, tolerance);
+        this.maxMovesPerRound = Math.max(1, maxMovesPerRound);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::rebalance, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void rebalance() {
+        try {
+            List<Move> moves = plan();
+            if (moves.isEmpty()) {
+                return;
+            }
+            System.out.println("Rééquilibrage : " + moves.size() + " déplacement(s) de partie prévu(s)");
+            for (Move move : moves) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                execute(move);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Erreur lors du rééquilibrage : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Planifie les déplacements sur une charge projetée : chaque déplacement va du slave le plus
+     * chargé au moins chargé et déplace la plus grosse partie qui réduit leur écart.
+     */
+    private List<Move> plan() {
+        List<SlaveInfo> live = masterServer.getActiveSlaves();
+        if (live.size() < 2) {
+            return Collections.emptyList();
+        }
+
+        Map<SlaveInfo, Long> load = new HashMap<>();
+        Map<SlaveInfo, List<Move>> candidatesBySlave = new HashMap<>();
+        for (SlaveInfo slave : live) {
+            load.put(slave, 0L);
+            candidatesBySlave.put(slave, new ArrayList<>());
+        }
+        for (String fileName : masterServer.getFileLocations().keySet()) {
+            FileVersion file = masterServer.getFile(fileName);
+            if (file == null || file.getSize() < 0) {
+                continue;
+            }
+            List<List<SlaveInfo>> placement = file.getPlacement();
+            for (int i = 0; i < placement.size(); i++) {
+                long partLength = partLength(file.getSize(), placement.size(), i);
+                for (SlaveInfo replica : placement.get(i)) {
+                    if (load.containsKey(replica)) {
+                        load.merge(replica, partLength, Long::sum);
+                        candidatesBySlave.get(replica).add(new Move(file, i, new HashSet<>(placement.get(i)),
+                                replica, partLength));
+                    }
+                }
+            }
+        }
+
+        long total = 0;
+        for (long bytes : load.values()) {
+            total += bytes;
+        }
+        double mean = (double) total / live.size();
+        double upper = mean * (1 + tolerance);
+        double lower = mean * (1 - tolerance);
+
+        List<Move> moves = new ArrayList<>();
+        Set<String> plannedParts = new HashSet<>();
+        while (moves.size() < maxMovesPerRound) {
+            SlaveInfo donor = Collections.max(live, Comparator.comparingLong(load::get));
+            SlaveInfo receiver = Collections.min(live, Comparator.comparingLong(load::get));
+            long gap = load.get(donor) - load.get(receiver);
+            if (load.get(donor) <= upper && load.get(receiver) >= lower) {
+                break;
+            }
+
+            Move best = null;
+            for (Move candidate : candidatesBySlave.get(donor)) {
+                if (candidate.length < gap && !candidate.replicas.contains(receiver)
+                        && !plannedParts.contains(candidate.partName())
+                        && (best == null || candidate.length > best.length)) {
+                    best = candidate;
+                }
+            }
+            if (best == null) {
+                break; // Aucune partie déplaçable ne réduit l'écart
+            }
+
+            Move move = best.to(receiver);
+            moves.add(move);
+            plannedParts.add(move.partName());
+            candidatesBySlave.get(donor).remove(best);
+            load.merge(donor, -move.length, Long::sum);
+            load.merge(receiver, move.length, Long::sum);
+        }
+        return moves;
+    }
+
+    // Sous le verrou de maintenance du chemin : la réplication ne touche pas la partie pendant le déplacement
+    private void execute(Move move) {
+        FileVersions versions = masterServer.getFileVersions();
+        versions.lockForMaintenance(move.file.getPath());
+        try {
+            move(move);
+        } finally {
+            versions.unlockForMaintenance(move.file.getPath());
+        }
+    }
+
+    private void move(Move move) {
+        List<SlaveInfo> copied;
+        try {
+            copied = replicationManager.copy(move.donor, move.partName(), move.length, List.of(move.receiver));
+        } catch (IOException e) {
+            System.err.println("Déplacement de " + move.partName() + " impossible : " + e.getMessage());
+            failedMoves.incrementAndGet();
+            return;
+        }
+        if (copied.isEmpty()) {
+            failedMoves.incrementAndGet();
+            return;
+        }
+
+        boolean swapped;
+        try {
+            swapped = swapReplica(move);
+        } catch (IOException e) {
+            // Mutation non durable : on garde la copie du donneur, seule référencée avec certitude après un redémarrage
+            System.err.println("Déplacement de " + move.partName() + " non enregistré : " + e.getMessage());
+            failedMoves.incrementAndGet();
+            return;
+        }
+        if (swapped) {
+            // Les lectures commencées avec l'ancien placement se terminent avant la suppression
+            FileVersions.Retirement retirement = FileVersions.Retirement.ofReplica(move.file, move.partIndex, move.donor);
+            if (masterServer.getFileVersions().retire(retirement)) {
+                masterServer.getFileVersions().delete(retirement);
+            }
+            completedMoves.incrementAndGet();
+            movedBytes.addAndGet(move.length);
+            System.out.println("Partie " + move.partName() + " déplacée de " + move.donor + " vers " + move.receiver);
+        } else {
+            // Le fichier a changé pendant la copie : la copie du receveur n'est effacée que si le
+            // placement relu ne la référence pas (un rapport de blocs a pu l'y ajouter entre-temps)
+            if (!masterServer.getFileVersions().isReferenced(move.file, move.partIndex, move.receiver)) {
+                masterServer.getPartDeleter().deletePart(move.receiver, move.partName());
+            }
+            failedMoves.incrementAndGet();
+        }
+    }
+
+    // Remplace atomiquement, dans fileLocations, l'ancien slave par le nouveau ; false si le placement a changé
+    private boolean swapReplica(Move move) throws IOException {
+        return masterServer.updatePlacement(move.file.getPath(), move.file.getVersion(), (name, placement) -> {
+            List<SlaveInfo> replicas = placement.get(move.partIndex);
+            int position = replicas.indexOf(move.donor);
+            if (position < 0 || replicas.contains(move.receiver)) {
+                return placement;
+            }
+            List<SlaveInfo> updatedReplicas = new ArrayList<>(replicas);
+            updatedReplicas.set(position, move.receiver);
+            List<List<SlaveInfo>> updated = new ArrayList<>(placement);
+            updated.set(move.partIndex, updatedReplicas);
+            return updated;
+        });
+    }
+
+    // Taille de la partie index : les parties font ceil(taille / nombre), la dernière prend le reste
+    static long partLength(long fileSize, int partCount, int index) {
+        long partSize = (fileSize + partCount - 1) / partCount;
+        return Math.max(0, Math.min(partSize, fileSize - index * partSize));
+    }
+
+    // Ligne ajoutée à la réponse de STATS
+    public String describe() {
+        return "deplacements=" + completedMoves.get() + " octetsDeplaces=" + movedBytes.get()
+                + " deplacementsEchoues=" + failedMoves.get();
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private static class Move {
+        final FileVersion file;
+        final int partIndex;
+        final Set<SlaveInfo> replicas;
+        final SlaveInfo donor;
+        final long length;
+        SlaveInfo receiver;
+
+        Move(FileVersion file, int partIndex, Set<SlaveInfo> replicas, SlaveInfo donor, long length) {
+            this.file = file;
+            this.partIndex = partIndex;
+            this.replicas = replicas;
+            this.donor = donor;
+            this.length = length;
+        }
+
+        Move to(SlaveInfo receiver) {
+            Move move = new Move(file, partIndex, replicas, donor, length);
+            move.receiver = receiver;
+            return move;
+        }
+
+        String partName() {
+            return file.partName(partIndex);
+        }
+    }
+}
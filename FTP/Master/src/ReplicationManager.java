@@ -0,0 +1,315 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Réparation en tâche de fond des parties sous-répliquées. À chaque passage, les répliques
+ * de fileLocations sont confrontées à la vue des slaves vivants ; les parties qui ont moins
+ * de REPLICATION_FACTOR répliques vivantes sont réparées en commençant par celles qui n'en
+ * ont plus qu'une. Un slave qui détient la partie la recopie directement vers les nouveaux
+ * slaves (REPLICATE_PART), à un débit limité pour ne pas pénaliser les transferts des clients.
+ * Une réparation ajoute les copies aux répliques existantes, y compris celles d'un slave mort
+ * qui peut revenir ; ces dernières ne sont retirées du placement qu'une fois le slave mort depuis
+ * deadReplicaTrimMs, et seulement si la partie a assez de répliques vivantes sans elles.
+ */
+public class ReplicationManager {
+    private final MasterServer masterServer;
+    private final long checkIntervalMs;
+    private final int maxConcurrentCopies;
+    private final long bytesPerSecondPerCopy;
+    private final long deadReplicaTrimMs;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replication-manager");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService copiers;
+    private final AtomicLong copiedReplicas = new AtomicLong();
+    private final AtomicLong failedCopies = new AtomicLong();
+    private final AtomicLong trimmedReplicas = new AtomicLong();
+    private volatile int underReplicatedParts = 0;
+    private volatile int lostParts = 0;
+
+    /**
+     * bandwidthBytesPerSecond : débit total des copies (0 : sans limite), partagé
+     * entre les maxConcurrentCopies copies simultanées.
+     */
+    public ReplicationManager(MasterServer masterServer, long checkIntervalMs, int maxConcurrentCopies,
+                              long bandwidthBytesPerSecond, long deadReplicaTrimMs, int connectTimeoutMs, int readTimeoutMs) {
+        this.masterServer = masterServer;
+        this.checkIntervalMs = checkIntervalMs;
+        this.maxConcurrentCopies = Math.max(1, maxConcurrentCopies);
+        this.bytesPerSecondPerCopy = Math.max(0, bandwidthBytesPerSecond) / this.maxConcurrentCopies;
+        this.deadReplicaTrimMs = deadReplicaTrimMs;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.copiers = Executors.newFixedThreadPool(this.maxConcurrentCopies, runnable -> {
+            Thread thread = new Thread(runnable, "replication-copy");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::scan, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Un passage complet : les copies de ce passage sont terminées avant le suivant
+    private void scan() {
+        try {
+            int replicationFactor = masterServer.getREPLICATION_FACTOR();
+            SlaveRegistry registry = masterServer.getSlaveRegistry();
+            List<Repair> repairs = new ArrayList<>();
+            Set<FileVersion> trims = new LinkedHashSet<>();
+            int lost = 0;
+
+            for (String fileName : masterServer.getFileLocations().keySet()) {
+                FileVersion file = masterServer.getFile(fileName);
+                if (file == null) {
+                    continue;
+                }
+                List<List<SlaveInfo>> placement = file.getPlacement();
+                for (int i = 0; i < placement.size(); i++) {
+                    List<SlaveInfo> alive = new ArrayList<>();
+                    for (SlaveInfo replica : placement.get(i)) {
+                        if (registry.isAlive(replica)) {
+                            alive.add(replica);
+                        }
+                    }
+                    if (alive.size() >= replicationFactor) {
+                        if (alive.size() < placement.get(i).size()) {
+                            trims.add(file);
+                        }
+                        continue;
+                    }
+                    if (alive.isEmpty()) {
+                        lost++;
+                        continue;
+                    }
+                    repairs.add(new Repair(file, i, alive, replicationFactor - alive.size()));
+                }
+            }
+            for (FileVersion file : trims) {
+                trimDeadReplicas(file, replicationFactor);
+            }
+            underReplicatedParts = repairs.size();
+            lostParts = lost;
+            if (repairs.isEmpty() && lost == 0) {
+                return;
+            }
+            System.out.println("Réplication : " + repairs.size() + " partie(s) sous-répliquée(s), "
+                    + lost + " partie(s) sans réplique vivante");
+
+            // Les plus proches de la perte d'abord : moins de répliques vivantes, puis plus de répliques manquantes
+            repairs.sort(Comparator.comparingInt((Repair r) -> r.alive.size())
+                    .thenComparing(r -> -r.missing)
+                    .thenComparing(r -> r.partName()));
+
+            List<Future<?>> copies = new ArrayList<>();
+            for (Repair repair : repairs) {
+                copies.add(copiers.submit(() -> repair(repair)));
+            }
+            for (Future<?> copy : copies) {
+                try {
+                    copy.get();
+                } catch (ExecutionException e) {
+                    System.err.println("Erreur de réplication : " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            System.err.println("Erreur lors de la recherche des parties sous-répliquées : " + e.getMessage());
+        }
+    }
+
+    // Sous le verrou de maintenance du chemin : un déplacement du Rebalancer n'efface pas la copie avant son enregistrement
+    private void repair(Repair repair) {
+        FileVersions versions = masterServer.getFileVersions();
+        versions.lockForMaintenance(repair.file.getPath());
+        try {
+            copyAndRecord(repair);
+        } finally {
+            versions.unlockForMaintenance(repair.file.getPath());
+        }
+    }
+
+    private void copyAndRecord(Repair repair) {
+        Set<SlaveInfo> current = new HashSet<>(repair.alive);
+        List<SlaveInfo> candidates = new ArrayList<>();
+        for (SlaveInfo slave : masterServer.getActiveSlaves()) {
+            if (!current.contains(slave)) {
+                candidates.add(slave);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return; // Pas assez de slaves vivants : la partie sera réparée quand un slave arrivera
+        }
+
+        long fileSize = repair.file.getSize();
+        int partCount = repair.file.getPartCount();
+        long partSize = fileSize < 0 ? 0 : (fileSize + partCount - 1) / partCount;
+        List<SlaveInfo> targets = masterServer.getPlacementPolicy()
+                .place(1, partSize, repair.missing, candidates).get(0);
+
+        // Source : la réplique la moins chargée ; les autres servent de repli
+        List<SlaveInfo> sources = new ArrayList<>(repair.alive);
+        sources.sort(Comparator.comparingInt(SlaveInfo::getInFlight));
+        for (SlaveInfo source : sources) {
+            try {
+                List<SlaveInfo> copied = copy(source, repair.partName(), partSize, targets);
+                failedCopies.addAndGet(targets.size() - copied.size());
+                if (!copied.isEmpty()) {
+                    copiedReplicas.addAndGet(copied.size());
+                    if (!record(repair, copied)) {
+                        discardCopies(repair, copied);
+                    }
+                }
+                return;
+            } catch (IOException e) {
+                // Une erreur du journal des métadonnées arrive aussi ici : la partie sera revue au passage suivant
+                System.err.println("Copie de " + repair.partName() + " depuis " + source + " impossible : " + e.getMessage());
+            }
+        }
+        failedCopies.addAndGet(targets.size());
+    }
+
+    /**
+     * Demande à source de recopier la partie vers targets ; retourne les cibles qui l'ont reçue.
+     * Connexion dédiée : la réponse n'arrive qu'à la fin de la copie, dont la durée dépend du débit.
+     * Sert aussi aux déplacements du Rebalancer, qui partagent ainsi la même limite de débit par copie.
+     */
+    List<SlaveInfo> copy(SlaveInfo source, String partName, long partSize, List<SlaveInfo> targets) throws IOException {
+        long copyTimeMs = bytesPerSecondPerCopy > 0 ? partSize * 1000 / bytesPerSecondPerCopy : 0;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(source.getIp(), source.getPort()), connectTimeoutMs);
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, readTimeoutMs + 2 * copyTimeMs));
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            dos.writeUTF("REPLICATE_PART");
+            dos.writeUTF(partName);
+            dos.writeInt(targets.size());
+            for (SlaveInfo target : targets) {
+                dos.writeUTF(target.getIp());
+                dos.writeInt(target.getPort());
+            }
+            dos.writeLong(bytesPerSecondPerCopy);
+            dos.flush();
+
+            List<SlaveInfo> copied = new ArrayList<>();
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                if (dis.readBoolean() && i < targets.size()) {
+                    copied.add(targets.get(i));
+                }
+            }
+            dos.writeUTF("QUIT");
+            dos.flush();
+            System.out.println("Partie " + partName + " recopiée depuis " + source + " vers " + copied.size()
+                    + "/" + targets.size() + " slave(s)");
+            return copied;
+        }
+    }
+
+    // Ajoute les nouvelles copies aux répliques de la partie ; les répliques des slaves morts sont gardées
+    // false si le fichier a été supprimé ou remplacé pendant la copie (autre version) : la copie ne le concerne plus
+    private boolean record(Repair repair, List<SlaveInfo> copied) throws IOException {
+        return masterServer.updatePlacement(repair.file.getPath(), repair.file.getVersion(), (name, placement) -> {
+            List<SlaveInfo> replicas = new ArrayList<>(placement.get(repair.partIndex));
+            for (SlaveInfo target : copied) {
+                if (!replicas.contains(target)) {
+                    replicas.add(target);
+                }
+            }
+            List<List<SlaveInfo>> updated = new ArrayList<>(placement);
+            updated.set(repair.partIndex, replicas);
+            return updated;
+        });
+    }
+
+    /**
+     * Retire du placement les répliques des slaves morts depuis deadReplicaTrimMs, pour les parties
+     * qui gardent replicationFactor répliques vivantes. Les fichiers restent sur le disque du
+     * slave : s'il revient, son rapport de blocs complet les fait réapparaître.
+     */
+    private void trimDeadReplicas(FileVersion file, int replicationFactor) {
+        SlaveRegistry registry = masterServer.getSlaveRegistry();
+        FileVersions versions = masterServer.getFileVersions();
+        versions.lockForMaintenance(file.getPath());
+        try {
+            masterServer.updatePlacement(file.getPath(), file.getVersion(), (name, placement) -> {
+                List<List<SlaveInfo>> updated = null;
+                for (int i = 0; i < placement.size(); i++) {
+                    List<SlaveInfo> kept = new ArrayList<>();
+                    int alive = 0;
+                    for (SlaveInfo replica : placement.get(i)) {
+                        if (registry.isAlive(replica)) {
+                            alive++;
+                        }
+                        if (registry.silentForMs(replica) < deadReplicaTrimMs) {
+                            kept.add(replica);
+                        }
+                    }
+                    if (alive < replicationFactor || kept.size() == placement.get(i).size()) {
+                        continue;
+                    }
+                    if (updated == null) {
+                        updated = new ArrayList<>(placement);
+                    }
+                    updated.set(i, kept);
+                    trimmedReplicas.addAndGet(placement.get(i).size() - kept.size());
+                }
+                return updated == null ? placement : updated;
+            });
+        } catch (IOException e) {
+            System.err.println("Répliques mortes de " + file + " non retirées : " + e.getMessage());
+        } finally {
+            versions.unlockForMaintenance(file.getPath());
+        }
+    }
+
+    // Efface les copies que le placement courant ne référence pas
+    private void discardCopies(Repair repair, List<SlaveInfo> copied) {
+        for (SlaveInfo target : copied) {
+            if (!masterServer.getFileVersions().isReferenced(repair.file, repair.partIndex, target)) {
+                masterServer.getPartDeleter().deletePart(target, repair.partName());
+            }
+        }
+    }
+
+    // Ligne ajoutée à la réponse de STATS
+    public String describe() {
+        return "sousRepliquees=" + underReplicatedParts + " perdues=" + lostParts
+                + " copiesReussies=" + copiedReplicas.get() + " copiesEchouees=" + failedCopies.get()
+                + " repliquesMortesRetirees=" + trimmedReplicas.get();
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        copiers.shutdownNow();
+    }
+
+    private static class Repair {
+        final FileVersion file;
+        final int partIndex;
+        final List<SlaveInfo> alive;
+        final int missing;
+
+        Repair(FileVersion file, int partIndex, List<SlaveInfo> alive, int missing) {
+            this.file = file;
+            this.partIndex = partIndex;
+            this.alive = alive;
+            this.missing = missing;
+        }
+
+        String partName() {
+            return file.partName(partIndex);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Placement historique : la réplique j de la partie i va sur le slave (i + j) % n.
+ */
+public class RoundRobinPlacementPolicy implements PlacementPolicy {
+
+    @Override
+    public List<List<SlaveInfo>> place(int numParts, long partSize, int replicationFactor, List<SlaveInfo> slaves) {
+        List<List<SlaveInfo>> placement = new ArrayList<>();
+        for (int i = 0; i < numParts; i++) {
+            List<SlaveInfo> targets = new ArrayList<>();
+            for (int j = 0; j < replicationFactor; j++) {
+                SlaveInfo slaveAddress = slaves.get((i + j) % slaves.size());
+                if (!targets.contains(slaveAddress)) {
+                    targets.add(slaveAddress);
+                }
+            }
+            placement.add(targets);
+        }
+        return placement;
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Une connexion binaire multiplexée par slave (slaveProtocol=binary), partagée par toutes
+ * les requêtes du master : les demandes vers un même slave s'y succèdent sans attendre
+ * les réponses précédentes. Une connexion perdue est rouverte à la demande suivante.
+ */
+public class SlaveBinaryLinks {
+    private final int connectTimeoutMs;
+    private final int responseTimeoutMs;
+    private final Map<SlaveInfo, BinaryProtocol.Connection> links = new ConcurrentHashMap<>();
+
+    public SlaveBinaryLinks(int connectTimeoutMs, int responseTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.responseTimeoutMs = responseTimeoutMs;
+    }
+
+    public BinaryProtocol.Connection get(SlaveInfo slave) throws IOException {
+        BinaryProtocol.Connection link = links.get(slave);
+        if (link != null && link.isOpen()) {
+            return link;
+        }
+        synchronized (this) {
+            link = links.get(slave);
+            if (link == null || !link.isOpen()) {
+                link = open(slave);
+                links.put(slave, link);
+            }
+            return link;
+        }
+    }
+
+    private BinaryProtocol.Connection open(SlaveInfo slave) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(slave.getIp(), slave.getPort()), connectTimeoutMs);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(connectTimeoutMs); // Un slave qui ne parle pas le protocole binaire ne bloque pas l'ouverture
+            return new BinaryProtocol.Connection(socket, responseTimeoutMs);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Connexions persistantes du master vers les slaves, réutilisées d'une partie à l'autre
+ * et d'une requête client à l'autre (le slave traite plusieurs commandes par connexion).
+ * Une connexion inutilisée depuis plus de validateAfterMs est vérifiée par PING avant
+ * d'être prêtée ; au-delà de maxIdlePerSlave connexions libres ou après idleTimeoutMs
+ * sans usage, elle est fermée. Au plus maxActivePerSlave connexions sont prêtées en même temps
+ * vers un slave : au-delà, borrow() attend qu'une connexion soit rendue, au plus acquireTimeoutMs.
+ */
+public class SlaveConnectionPool {
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int maxIdlePerSlave;
+    private final long idleTimeoutMs;
+    private final long validateAfterMs;
+    private final int maxActivePerSlave;
+    private final long acquireTimeoutMs;
+    private final Map<SlaveInfo, Deque<SlaveConnection>> idle = new ConcurrentHashMap<>();
+    private final Map<SlaveInfo, Semaphore> active = new ConcurrentHashMap<>(); // Connexions prêtées, par slave
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "slave-pool-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // maxActivePerSlave : 0 pour ne pas limiter les connexions prêtées
+    public SlaveConnectionPool(int connectTimeoutMs, int readTimeoutMs, int maxIdlePerSlave,
+                               long idleTimeoutMs, long validateAfterMs, int maxActivePerSlave, long acquireTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxIdlePerSlave = Math.max(0, maxIdlePerSlave);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validateAfterMs = validateAfterMs;
+        this.maxActivePerSlave = Math.max(0, maxActivePerSlave);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        long period = Math.max(1, idleTimeoutMs / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Prête une connexion vers le slave : la plus récemment rendue si elle est saine,
+     * sinon une nouvelle. La connexion doit être rendue par release() ou invalidate().
+     * Échoue si le slave a déjà maxActivePerSlave connexions prêtées pendant tout acquireTimeoutMs.
+     */
+    public SlaveConnection borrow(SlaveInfo slave) throws IOException {
+        Semaphore permits = acquire(slave);
+        try {
+            SlaveConnection connection = idleOrNew(slave);
+            connection.permits = permits;
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            throw e;
+        }
+    }
+
+    private SlaveConnection idleOrNew(SlaveInfo slave) throws IOException {
+        Deque<SlaveConnection> connections = idleFor(slave);
+        while (true) {
+            SlaveConnection connection;
+            synchronized (connections) {
+                connection = connections.pollFirst();
+            }
+            if (connection == null) {
+                return open(slave);
+            }
+            if (System.currentTimeMillis() - connection.lastUsed < validateAfterMs || connection.ping(connectTimeoutMs)) {
+                return connection;
+            }
+            connection.close();
+        }
+    }
+
+    // Place parmi les connexions prêtées du slave ; null si elles ne sont pas limitées
+    private Semaphore acquire(SlaveInfo slave) throws IOException {
+        if (maxActivePerSlave == 0) {
+            return null;
+        }
+        Semaphore permits = active.computeIfAbsent(slave, s -> new Semaphore(maxActivePerSlave));
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Trop de connexions en cours vers " + slave + " (" + maxActivePerSlave + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Attente d'une connexion vers " + slave + " interrompue");
+        }
+        return permits;
+    }
+
+    /**
+     * Rend une connexion dont l'échange s'est terminé proprement ; elle pourra resservir.
+     */
+    public void release(SlaveConnection connection) {
+        connection.returnPermit();
+        if (connection.socket.isClosed()) {
+            return;
+        }
+        connection.lastUsed = System.currentTimeMillis();
+        Deque<SlaveConnection> connections = idleFor(connection.slave);
+        synchronized (connections) {
+            if (connections.size() < maxIdlePerSlave) {
+                connections.addFirst(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * Ferme une connexion dans un état inconnu (échange interrompu, erreur, annulation).
+     */
+    public void invalidate(SlaveConnection connection) {
+        connection.returnPermit();
+        connection.close();
+    }
+
+    private SlaveConnection open(SlaveInfo slave) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(slave.getIp(), slave.getPort()), connectTimeoutMs);
+            socket.setSoTimeout(readTimeoutMs);
+            socket.setTcpNoDelay(true);
+            return new SlaveConnection(slave, socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private Deque<SlaveConnection> idleFor(SlaveInfo slave) {
+        return idle.computeIfAbsent(slave, s -> new ArrayDeque<>());
+    }
+
+    private void evictIdle() {
+        long deadline = System.currentTimeMillis() - idleTimeoutMs;
+        for (Deque<SlaveConnection> connections : idle.values()) {
+            synchronized (connections) {
+                // Les plus anciennes sont en fin de file
+                while (!connections.isEmpty() && connections.peekLast().lastUsed < deadline) {
+                    connections.pollLast().close();
+                }
+            }
+        }
+    }
+
+    public void close() {
+        evictor.shutdownNow();
+        for (Deque<SlaveConnection> connections : idle.values()) {
+            synchronized (connections) {
+                while (!connections.isEmpty()) {
+                    connections.pollFirst().close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Une connexion vers un slave, avec ses flux tamponnés. Les écritures doivent être
+     * suivies de flush() avant d'attendre une réponse.
+     */
+    public static class SlaveConnection {
+        private final SlaveInfo slave;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private Semaphore permits; // Place prise par borrow(), rendue une seule fois
+
+        private SlaveConnection(SlaveInfo slave, Socket socket) throws IOException {
+            this.slave = slave;
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), FileTransferUtils.STREAM_BUFFER_SIZE));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), FileTransferUtils.STREAM_BUFFER_SIZE));
+        }
+
+        public DataInputStream getInput() {
+            return in;
+        }
+
+        public DataOutputStream getOutput() {
+            return out;
+        }
+
+        public SlaveInfo getSlave() {
+            return slave;
+        }
+
+        private synchronized void returnPermit() {
+            if (permits != null) {
+                permits.release();
+                permits = null;
+            }
+        }
+
+        // Vérification rapide : un slave bloqué ne doit pas retenir l'emprunteur pendant tout le délai de lecture
+        private boolean ping(int timeoutMs) {
+            try {
+                int readTimeout = socket.getSoTimeout();
+                socket.setSoTimeout(timeoutMs);
+                out.writeUTF("PING");
+                out.flush();
+                boolean alive = "PONG".equals(in.readUTF());
+                socket.setSoTimeout(readTimeout);
+                return alive;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        // Ferme la socket, ce qui interrompt aussi une lecture en cours dans un autre thread
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Connexion déjà fermée
+            }
+        }
+    }
+}
@@ -1,6 +1,13 @@
 public class SlaveInfo {
     private String ip;
     private int port;
+    // Charge annoncée par le slave dans ses heartbeats (-1 : inconnue)
+    private volatile long freeBytes = -1;
+    private volatile int inFlight = 0;
+    private volatile int partCount = 0;
+    // Version du rapport de blocs annoncée dans les heartbeats (époque : démarrage du slave)
+    private volatile long reportEpoch = 0;
+    private volatile long reportVersion = 0;
 
     public SlaveInfo(String ip, int port) {
         this.ip = ip;
@@ -15,6 +22,50 @@ public class SlaveInfo {
         return port;
     }
 
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    public void updateLoad(long freeBytes, int inFlight, int partCount) {
+        this.freeBytes = freeBytes;
+        this.inFlight = inFlight;
+        this.partCount = partCount;
+    }
+
+    public long getReportEpoch() {
+        return reportEpoch;
+    }
+
+    public long getReportVersion() {
+        return reportVersion;
+    }
+
+    public void updateReportVersion(long reportEpoch, long reportVersion) {
+        this.reportEpoch = reportEpoch;
+        this.reportVersion = reportVersion;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SlaveInfo)) return false;
+        SlaveInfo other = (SlaveInfo) o;
+        return port == other.port && ip.equals(other.ip);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * ip.hashCode() + port;
+    }
+
     @Override
     public String toString() {
         return "SlaveInfo{ip='" + ip + "', port=" + port + "}";
@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Registre des slaves vivants, tenu à jour en tâche de fond.
+ * Les slaves envoient des heartbeats UDP ("HEARTBEAT:port:libre:enCours:parties:epoque:version") au master,
+ * les deux derniers champs donnant la version de leur rapport de blocs ; un slave
+ * qui n'a rien envoyé depuis expiryMs est retiré. Le master diffuse aussi
+ * DISCOVER_SLAVES périodiquement pour que les slaves apprennent son adresse.
+ * Les commandes ADD/GET lisent simplement la vue courante, sans attendre.
+ */
+public class SlaveRegistry {
+    private final int broadcastPort;
+    private final int responsePort;
+    private final long expiryMs;
+    private final long discoveryIntervalMs;
+    private final Map<SlaveInfo, Long> lastSeen = new ConcurrentHashMap<>();
+    private final Map<SlaveInfo, SlaveInfo> knownSlaves = new ConcurrentHashMap<>(); // Instance unique par slave
+    private final Map<SlaveInfo, Long> expiredAt = new ConcurrentHashMap<>(); // Dernier heartbeat des slaves expirés
+    private final long startedAt = System.currentTimeMillis();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "slave-registry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running = true;
+    private DatagramSocket socket;
+
+    public SlaveRegistry(int broadcastPort, int responsePort, long expiryMs, long discoveryIntervalMs) {
+        this.broadcastPort = broadcastPort;
+        this.responsePort = responsePort;
+        this.expiryMs = expiryMs;
+        this.discoveryIntervalMs = discoveryIntervalMs;
+    }
+
+    public void start() throws SocketException {
+        socket = new DatagramSocket(responsePort);
+        Thread listener = new Thread(this::listen, "slave-heartbeats");
+        listener.setDaemon(true);
+        listener.start();
+
+        scheduler.scheduleWithFixedDelay(this::broadcastDiscovery, 0, discoveryIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::expireSlaves, expiryMs, Math.max(1, expiryMs / 3), TimeUnit.MILLISECONDS);
+    }
+
+    private void listen() {
+        byte[] buffer = new byte[1024];
+        System.out.println("En attente des heartbeats des slaves sur le port " + responsePort);
+        while (running) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                String message = new String(packet.getData(), 0, packet.getLength());
+                String slaveIp = packet.getAddress().getHostAddress();
+
+                if (message.startsWith("SLAVE_AVAILABLE") || message.startsWith("HEARTBEAT")) {
+                    String[] parts = message.split(":");
+                    int slavePort = (parts.length > 1) ? Integer.parseInt(parts[1].trim()) : 1235;
+                    SlaveInfo slave = register(new SlaveInfo(slaveIp, slavePort));
+                    if (parts.length > 4) {
+                        slave.updateLoad(Long.parseLong(parts[2].trim()), Integer.parseInt(parts[3].trim()),
+                                Integer.parseInt(parts[4].trim()));
+                    }
+                    if (parts.length > 6) {
+                        slave.updateReportVersion(Long.parseLong(parts[5].trim()), Long.parseLong(parts[6].trim()));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                if (!running) break;
+                System.err.println("Message de slave invalide : " + e.getMessage());
+            }
+        }
+        socket.close();
+    }
+
+    // Retourne l'instance unique du slave, partagée avec fileLocations, pour que sa charge y soit visible
+    public SlaveInfo register(SlaveInfo slave) {
+        SlaveInfo known = intern(slave);
+        Long previous = lastSeen.put(known, System.currentTimeMillis());
+        expiredAt.remove(known);
+        if (previous == null) {
+            System.out.println("Slave détecté: " + known.getIp() + ":" + known.getPort());
+        }
+        return known;
+    }
+
+    // Instance unique du slave, sans le marquer vivant (slaves relus depuis les métadonnées persistées)
+    public SlaveInfo intern(SlaveInfo slave) {
+        return knownSlaves.computeIfAbsent(slave, s -> s);
+    }
+
+    public void broadcastDiscovery() {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setBroadcast(true);
+            byte[] buffer = "DISCOVER_SLAVES".getBytes();
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, InetAddress.getByName("255.255.255.255"), broadcastPort);
+            socket.send(packet);
+        } catch (IOException e) {
+            System.err.println("Erreur lors du broadcast de découverte : " + e.getMessage());
+        }
+    }
+
+    private void expireSlaves() {
+        long deadline = System.currentTimeMillis() - expiryMs;
+        lastSeen.entrySet().removeIf(entry -> {
+            if (entry.getValue() < deadline) {
+                System.out.println("Slave expiré (plus de heartbeat) : " + entry.getKey());
+                expiredAt.put(entry.getKey(), entry.getValue());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    // Vue courante des slaves vivants, dans un ordre stable
+    public List<SlaveInfo> getLiveSlaves() {
+        long deadline = System.currentTimeMillis() - expiryMs;
+        List<SlaveInfo> live = new ArrayList<>();
+        for (Map.Entry<SlaveInfo, Long> entry : lastSeen.entrySet()) {
+            if (entry.getValue() >= deadline) {
+                live.add(entry.getKey());
+            }
+        }
+        live.sort(Comparator.comparing(SlaveInfo::toString));
+        return live;
+    }
+
+    public boolean isAlive(SlaveInfo slave) {
+        Long seen = lastSeen.get(slave);
+        return seen != null && seen >= System.currentTimeMillis() - expiryMs;
+    }
+
+    /**
+     * Depuis combien de temps le slave ne donne plus de nouvelles : 0 s'il est vivant ; pour un
+     * slave jamais vu depuis le démarrage du master (relu des métadonnées), depuis ce démarrage.
+     */
+    public long silentForMs(SlaveInfo slave) {
+        if (isAlive(slave)) {
+            return 0;
+        }
+        Long seen = lastSeen.get(slave);
+        if (seen == null) {
+            seen = expiredAt.getOrDefault(slave, startedAt);
+        }
+        return System.currentTimeMillis() - seen;
+    }
+
+    public void stop() {
+        running = false;
+        scheduler.shutdownNow();
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Envoi d'une partie vers un slave avec la commande ADD_PART_STREAM.
+ * Le nom et la taille partent avant les données, le checksum après :
+ * la partie peut donc être transmise au fur et à mesure qu'elle arrive du client.
+ * En mode chaîne (ADD_PART_CHAIN), la partie n'est envoyée qu'au premier slave,
+ * qui la recopie lui-même vers les répliques suivantes.
+ * La connexion est empruntée au pool et n'y retourne que si l'échange s'est terminé proprement.
+ */
+public class SlaveUpload implements Closeable {
+    private final List<SlaveInfo> chain;
+    private final boolean chained;
+    private final SlaveConnectionPool pool;
+    private final SlaveConnectionPool.SlaveConnection connection;
+    private final DataOutputStream dos;
+    private final DataInputStream dis;
+    private boolean reusable = false;
+
+    private SlaveUpload(List<SlaveInfo> chain, boolean chained, SlaveConnectionPool pool,
+                        SlaveConnectionPool.SlaveConnection connection) {
+        this.chain = chain;
+        this.chained = chained;
+        this.pool = pool;
+        this.connection = connection;
+        this.dos = connection.getOutput();
+        this.dis = connection.getInput();
+    }
+
+    public static SlaveUpload open(SlaveConnectionPool pool, SlaveInfo slave, String partName, long partLength) throws IOException {
+        SlaveConnectionPool.SlaveConnection connection = pool.borrow(slave);
+        try {
+            DataOutputStream dos = connection.getOutput();
+            dos.writeUTF("ADD_PART_STREAM");
+            dos.writeUTF(partName);
+            dos.writeLong(partLength);
+            return new SlaveUpload(List.of(slave), false, pool, connection);
+        } catch (IOException e) {
+            pool.invalidate(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Ouvre une réplication en chaîne. Si la tête de chaîne est injoignable,
+     * le slave suivant devient la tête ; les slaves sautés ne seront pas confirmés.
+     */
+    public static SlaveUpload openChain(SlaveConnectionPool pool, List<SlaveInfo> replicas, String partName, long partLength) throws IOException {
+        IOException lastError = new IOException("Aucune réplique cible");
+        for (int i = 0; i < replicas.size(); i++) {
+            SlaveInfo head = replicas.get(i);
+            SlaveConnectionPool.SlaveConnection connection;
+            try {
+                connection = pool.borrow(head);
+            } catch (IOException e) {
+                System.err.println("Tête de chaîne injoignable " + head + ": " + e.getMessage());
+                lastError = e;
+                continue;
+            }
+            try {
+                List<SlaveInfo> chain = new ArrayList<>(replicas.subList(i, replicas.size()));
+                DataOutputStream dos = connection.getOutput();
+
+                dos.writeUTF("ADD_PART_CHAIN");
+                dos.writeUTF(partName);
+                dos.writeLong(partLength);
+                dos.writeInt(chain.size() - 1);
+                for (SlaveInfo next : chain.subList(1, chain.size())) {
+                    dos.writeUTF(next.getIp());
+                    dos.writeInt(next.getPort());
+                }
+                return new SlaveUpload(chain, true, pool, connection);
+            } catch (IOException e) {
+                pool.invalidate(connection);
+                throw e;
+            }
+        }
+        throw lastError;
+    }
+
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        dos.write(buffer, offset, length);
+    }
+
+    // Envoie le checksum de fin et retourne les slaves qui ont confirmé le stockage
+    public List<SlaveInfo> finish(String checksum) throws IOException {
+        dos.writeUTF(checksum);
+        dos.flush();
+
+        if (!chained) {
+            String response = dis.readUTF();
+            // Après un échec, le slave ferme la connexion
+            reusable = "SUCCESS".equals(response);
+            return reusable ? List.of(chain.get(0)) : List.of();
+        }
+
+        List<SlaveInfo> stored = new ArrayList<>();
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            if (dis.readBoolean() && i < chain.size()) {
+                stored.add(chain.get(i));
+            }
+        }
+        reusable = true;
+        return stored;
+    }
+
+    public SlaveInfo getSlave() {
+        return chain.get(0);
+    }
+
+    @Override
+    public void close() {
+        if (reusable) {
+            pool.release(connection);
+        } else {
+            pool.invalidate(connection);
+        }
+    }
+}
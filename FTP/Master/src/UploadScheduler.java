@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Planificateur des envois de parties vers les slaves.
+ * Les envois vers des slaves différents partent en parallèle, avec une limite
+ * de transferts simultanés par slave et une limite globale pour tout le master.
+ */
+public class UploadScheduler {
+
+    public interface PartSender {
+        boolean send(SlaveInfo slave, File part) throws IOException;
+    }
+
+    public interface ChainSender {
+        List<SlaveInfo> send(List<SlaveInfo> chain, File part) throws IOException;
+    }
+
+    private final int maxPerSlave;
+    private final int maxTotal;
+    private final Semaphore globalPermits;
+    private final Map<SlaveInfo, Semaphore> slavePermits = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "upload-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UploadScheduler(int maxPerSlave, int maxTotal) {
+        this.maxPerSlave = Math.max(1, maxPerSlave);
+        this.maxTotal = Math.max(1, maxTotal);
+        this.globalPermits = new Semaphore(this.maxTotal, true);
+    }
+
+    /**
+     * Envoie chaque partie à ses répliques cibles et retourne, pour chaque partie,
+     * les slaves qui ont confirmé le stockage (dans l'ordre des cibles).
+     * Les premières répliques de toutes les parties sont soumises avant les suivantes,
+     * pour occuper des slaves distincts dès le départ.
+     */
+    public List<List<SlaveInfo>> uploadParts(File[] parts, List<List<SlaveInfo>> targets, PartSender sender) {
+        List<List<Future<Boolean>>> futures = new ArrayList<>();
+        for (int i = 0; i < parts.length; i++) {
+            futures.add(new ArrayList<>());
+        }
+
+        int maxReplicas = 0;
+        for (List<SlaveInfo> replicas : targets) {
+            maxReplicas = Math.max(maxReplicas, replicas.size());
+        }
+
+        for (int j = 0; j < maxReplicas; j++) {
+            for (int i = 0; i < parts.length; i++) {
+                List<SlaveInfo> replicas = targets.get(i);
+                if (j < replicas.size()) {
+                    File part = parts[i];
+                    SlaveInfo slave = replicas.get(j);
+                    System.out.println("Envoi de la partie " + (i + 1) + " (réplique " + (j + 1) + ") à " + slave);
+                    futures.get(i).add(executor.submit(() -> sendWithPermits(sender, slave, part)));
+                }
+            }
+        }
+
+        List<List<SlaveInfo>> slaveList = new ArrayList<>();
+        for (int i = 0; i < parts.length; i++) {
+            List<SlaveInfo> replicas = new ArrayList<>();
+            List<Future<Boolean>> partFutures = futures.get(i);
+            for (int j = 0; j < partFutures.size(); j++) {
+                SlaveInfo slave = targets.get(i).get(j);
+                try {
+                    if (partFutures.get(j).get()) {
+                        replicas.add(slave);
+                    }
+                } catch (ExecutionException e) {
+                    System.err.println("Erreur lors de l'envoi à " + slave + ": " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return slaveList;
+                }
+            }
+            slaveList.add(replicas);
+        }
+        return slaveList;
+    }
+
+    /**
+     * Réplication en chaîne : une seule tâche par partie, qui réserve un transfert
+     * sur chaque slave de la chaîne le temps de l'envoi.
+     */
+    public List<List<SlaveInfo>> uploadChains(File[] parts, List<List<SlaveInfo>> targets, ChainSender sender) {
+        List<Future<List<SlaveInfo>>> futures = new ArrayList<>();
+        for (int i = 0; i < parts.length; i++) {
+            File part = parts[i];
+            List<SlaveInfo> chain = targets.get(i);
+            System.out.println("Envoi de la partie " + (i + 1) + " en chaîne à " + chain);
+            futures.add(executor.submit(() -> {
+                acquire(chain);
+                try {
+                    return sender.send(chain, part);
+                } finally {
+                    release(chain);
+                }
+            }));
+        }
+
+        List<List<SlaveInfo>> slaveList = new ArrayList<>();
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                slaveList.add(new ArrayList<>(futures.get(i).get()));
+            } catch (ExecutionException e) {
+                System.err.println("Erreur lors de l'envoi en chaîne à " + targets.get(i) + ": " + e.getCause().getMessage());
+                slaveList.add(new ArrayList<>());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return slaveList;
+            }
+        }
+        return slaveList;
+    }
+
+    private boolean sendWithPermits(PartSender sender, SlaveInfo slave, File part) throws Exception {
+        List<SlaveInfo> slaves = List.of(slave);
+        acquire(slaves);
+        try {
+            return sender.send(slave, part);
+        } finally {
+            release(slaves);
+        }
+    }
+
+    /**
+     * Réserve un transfert sur chacun des slaves donnés. Les permis par slave sont pris
+     * dans un ordre fixe puis les permis globaux d'un seul coup, ce qui évite les
+     * interblocages entre deux envois qui visent les mêmes slaves.
+     */
+    public void acquire(List<SlaveInfo> slaves) throws InterruptedException {
+        List<SlaveInfo> ordered = new ArrayList<>(slaves);
+        ordered.sort(Comparator.comparing(SlaveInfo::toString));
+
+        List<SlaveInfo> acquired = new ArrayList<>();
+        try {
+            for (SlaveInfo slave : ordered) {
+                permitsFor(slave).acquire();
+                acquired.add(slave);
+            }
+            globalPermits.acquire(Math.min(ordered.size(), maxTotal));
+        } catch (InterruptedException e) {
+            for (SlaveInfo slave : acquired) {
+                permitsFor(slave).release();
+            }
+            throw e;
+        }
+    }
+
+    public void release(List<SlaveInfo> slaves) {
+        globalPermits.release(Math.min(slaves.size(), maxTotal));
+        for (SlaveInfo slave : slaves) {
+            permitsFor(slave).release();
+        }
+    }
+
+    public int getInFlight(SlaveInfo slave) {
+        return maxPerSlave - permitsFor(slave).availablePermits();
+    }
+
+    private Semaphore permitsFor(SlaveInfo slave) {
+        return slavePermits.computeIfAbsent(slave, s -> new Semaphore(maxPerSlave, true));
+    }
+}
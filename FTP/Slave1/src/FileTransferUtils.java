@@ -1,10 +1,24 @@
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class FileTransferUtils {
+    // Taille des tampons utilisés pour les transferts en flux
+    public static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    // Réception directe : tampons hors tas réutilisés d'une réception à l'autre
+    private static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final Queue<ByteBuffer> directBuffers = new ConcurrentLinkedQueue<>();
+
     public static File receiveFile(DataInputStream dis, String saveDirectory) throws IOException {
         // 1. Lire le nom du fichier
         String fileName = dis.readUTF();
@@ -36,47 +50,161 @@ public class FileTransferUtils {
         // Chemin complet pour sauvegarder le fichier
         File saveFile = new File(directory, fileName);
 
-        // Buffer pour stocker temporairement les données
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        long totalRead = 0;
+        // Checksum calculé pendant l'écriture, sur les mêmes tampons : le fichier n'est pas relu
+        System.out.println("Début de la réception des données...");
+        String receivedChecksum = receiveStreamedData(dis, saveFile, fileSize, null);
+        System.out.println("Checksum calculé : " + receivedChecksum);
+        verifyChecksum(saveFile, expectedChecksum, receivedChecksum);
 
-        try (FileOutputStream fos = new FileOutputStream(saveFile);
-             BufferedOutputStream bos = new BufferedOutputStream(fos)) {
+        System.out.println("Fichier reçu et validé avec succès");
+        return saveFile;
+    }
+
+    /**
+     * Réception d'un fichier envoyé en flux : nom et taille d'abord, puis les données,
+     * et le checksum en fin de flux. Le checksum est calculé pendant l'écriture,
+     * sans relire le fichier.
+     */
+    public static File receiveStreamedFile(DataInputStream dis, String saveDirectory) throws IOException {
+        String fileName = dis.readUTF();
+        long fileSize = dis.readLong();
+
+        File directory = new File(saveDirectory);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire : " + saveDirectory);
+        }
+
+        File saveFile = new File(directory, fileName);
+        String receivedChecksum = receiveStreamedData(dis, saveFile, fileSize, null);
+        String expectedChecksum = dis.readUTF();
+        verifyChecksum(saveFile, expectedChecksum, receivedChecksum);
 
-            System.out.println("Début de la réception des données...");
+        System.out.println("Fichier reçu en flux et validé : " + fileName + " (" + fileSize + " bytes)");
+        return saveFile;
+    }
 
+    /**
+     * Écrit les fileSize octets suivants du flux dans saveFile et retourne leur checksum.
+     * Chaque bloc est aussi recopié dans tee s'il est fourni (réplication en chaîne).
+     */
+    public static String receiveStreamedData(DataInputStream dis, File saveFile, long fileSize, OutputStream tee) throws IOException {
+        if (tee == null && dis instanceof ChannelDataInputStream && ((ChannelDataInputStream) dis).channel != null) {
+            return receiveDirect((ChannelDataInputStream) dis, saveFile, fileSize);
+        }
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        long totalRead = 0;
+
+        try (FileOutputStream fos = new FileOutputStream(saveFile);
+             BufferedOutputStream bos = new BufferedOutputStream(fos, STREAM_BUFFER_SIZE)) {
             while (totalRead < fileSize) {
-                bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalRead));
+                int bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalRead));
                 if (bytesRead == -1) {
                     throw new IOException("Fin du flux inattendue");
                 }
+                digest.update(buffer, 0, bytesRead);
                 bos.write(buffer, 0, bytesRead);
+                if (tee != null) {
+                    tee.write(buffer, 0, bytesRead);
+                }
                 totalRead += bytesRead;
+            }
+            bos.flush();
+        }
+        return toHex(digest.digest());
+    }
 
-                // Log de progression optionnel
-                if (totalRead % (1024 * 1024) == 0) { // Log tous les 1MB
-                    System.out.println("Progression : " + (totalRead * 100 / fileSize) + "%");
+    /**
+     * Réception socket -> fichier par un tampon hors tas de DIRECT_BUFFER_SIZE : le canal de la socket
+     * le remplit, le hachage le parcourt puis FileChannel l'écrit sans recopie dans le tas.
+     * Les octets déjà lus par le tampon du flux (arrivés avec l'en-tête) sont pris en premier.
+     */
+    private static String receiveDirect(ChannelDataInputStream input, File saveFile, long fileSize) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = acquireDirectBuffer();
+        try (FileChannel file = FileChannel.open(saveFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long remaining = fileSize;
+            int buffered = (int) Math.min(input.buffered(), remaining);
+            if (buffered > 0) {
+                byte[] head = new byte[buffered];
+                input.readFully(head);
+                digest.update(head);
+                ByteBuffer chunk = ByteBuffer.wrap(head);
+                while (chunk.hasRemaining()) {
+                    file.write(chunk);
                 }
+                remaining -= buffered;
             }
-            bos.flush();
+
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+                while (buffer.hasRemaining()) {
+                    if (input.channel.read(buffer) == -1) {
+                        throw new IOException("Fin du flux inattendue");
+                    }
+                }
+                buffer.flip();
+                digest.update(buffer);
+                buffer.rewind();
+                while (buffer.hasRemaining()) {
+                    file.write(buffer);
+                }
+                remaining -= buffer.limit();
+            }
+        } finally {
+            releaseDirectBuffer(buffer);
         }
+        return toHex(digest.digest());
+    }
 
-        System.out.println("Fichier reçu, vérification du checksum...");
+    private static ByteBuffer acquireDirectBuffer() {
+        ByteBuffer buffer = directBuffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+    }
 
-        // Vérifier le checksum du fichier reçu
-        String receivedChecksum = calculateChecksum(saveFile.getAbsolutePath());
-        System.out.println("Checksum calculé : " + receivedChecksum);
+    // Au-delà de MAX_POOLED_BUFFERS, le tampon est abandonné au ramasse-miettes
+    private static void releaseDirectBuffer(ByteBuffer buffer) {
+        if (directBuffers.size() < MAX_POOLED_BUFFERS) {
+            directBuffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Flux d'entrée d'une connexion acceptée par un canal : les données d'un fichier peuvent être lues
+     * directement dans le SocketChannel, une fois consommés les octets déjà présents dans le tampon du flux.
+     */
+    public static class ChannelDataInputStream extends DataInputStream {
+        private final SocketChannel channel;
+
+        public ChannelDataInputStream(Socket socket) throws IOException {
+            super(new DrainableInputStream(socket.getInputStream()));
+            this.channel = socket.getChannel();
+        }
+
+        // Octets reçus mais pas encore lus, gardés dans le tampon du flux
+        int buffered() {
+            return ((DrainableInputStream) in).buffered();
+        }
+    }
+
+    private static class DrainableInputStream extends BufferedInputStream {
+        DrainableInputStream(InputStream in) {
+            super(in);
+        }
+
+        synchronized int buffered() {
+            return count - pos;
+        }
+    }
 
+    public static void verifyChecksum(File saveFile, String expectedChecksum, String receivedChecksum) throws IOException {
         if (!expectedChecksum.equals(receivedChecksum)) {
             if (!saveFile.delete()) {
                 System.err.println("Impossible de supprimer le fichier corrompu : " + saveFile.getAbsolutePath());
             }
             throw new IOException("Checksum invalide. Attendu: " + expectedChecksum + ", Reçu: " + receivedChecksum);
         }
-
-        System.out.println("Fichier reçu et validé avec succès");
-        return saveFile;
     }
 
     public static void sendFile(DataOutputStream dos, String filePath) throws IOException {
@@ -131,9 +259,29 @@ public class FileTransferUtils {
         }
     }
 
+    /**
+     * Copie length octets du fichier à partir de offset (moins si le fichier est plus court) vers
+     * target avec FileChannel.transferTo : vers une socket, le noyau envoie les pages du fichier
+     * sans passer par un tampon de l'application. Retourne le nombre d'octets envoyés.
+     */
+    public static long transferFile(File file, long offset, long length, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long end = offset + Math.min(length, channel.size() - offset);
+            long position = offset;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0 && position >= channel.size()) {
+                    throw new EOFException("Fichier tronqué pendant l'envoi : " + file.getName());
+                }
+                position += transferred;
+            }
+            return position - offset;
+        }
+    }
+
     public static String calculateChecksum(String filePath) throws IOException {
         try (FileInputStream fis = new FileInputStream(filePath)) {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
+            MessageDigest digest = newDigest();
             byte[] buffer = new byte[4096];
             int bytesRead;
 
@@ -141,17 +289,26 @@ public class FileTransferUtils {
                 digest.update(buffer, 0, bytesRead);
             }
 
-            byte[] checksumBytes = digest.digest();
-            StringBuilder checksum = new StringBuilder();
-            for (byte b : checksumBytes) {
-                checksum.append(String.format("%02x", b));
-            }
-            return checksum.toString();
+            return toHex(digest.digest());
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Algorithme de hashage MD5 introuvable.", e);
         }
     }
 
+    public static String toHex(byte[] checksumBytes) {
+        StringBuilder checksum = new StringBuilder();
+        for (byte b : checksumBytes) {
+            checksum.append(String.format("%02x", b));
+        }
+        return checksum.toString();
+    }
+
     public static File[] splitFile(String filePath, int numParts) throws IOException {
         File file = new File(filePath);
         if (!file.exists() || !file.isFile()) {
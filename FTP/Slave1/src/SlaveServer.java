@@ -1,15 +1,47 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.Properties;
 
 public class SlaveServer {
     private static int BROADCAST_PORT;
     private String STORAGE_DIRECTORY;
     private Map<String, String> fileMap = new ConcurrentHashMap<>();
+    private final Map<String, String> partChecksums = new ConcurrentHashMap<>(); // Calculés à la réception ou en tâche de fond
+    // Checksums des parties trouvées au démarrage ou reçues sans checksum, calculés hors des rapports de blocs
+    private final ExecutorService checksummer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "part-checksums");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Rapports de blocs : la version avance à chaque partie stockée ou supprimée ; les derniers changements sont gardés
+    // pour les rapports incrémentaux. L'époque change à chaque démarrage et impose un rapport complet.
+    private static final int MAX_PART_CHANGES = 10000;
+    private final long reportEpoch = System.currentTimeMillis();
+    private long reportVersion = 0;
+    private final ArrayDeque<PartChange> partChanges = new ArrayDeque<>();
     private volatile boolean running = true;
     private int commandPort;
+    private volatile InetAddress masterAddress; // Configurée ou apprise via DISCOVER_SLAVES
+    private int masterResponsePort;
+    private long heartbeatIntervalMs;
+    private final AtomicInteger inFlight = new AtomicInteger(); // Commandes en cours de traitement
+    private HandlerExecutor handlerExecutor; // Threads des connexions : thread, virtual ou pool
+    private boolean zeroCopy = true; // GET_PART / GET_PART_RANGE : fichier -> socket par transferTo, sans copie en mémoire
+    private boolean directReceive = true; // ADD_PART / ADD_PART_STREAM : socket -> fichier par tampons hors tas
+    private final ExecutorService binaryExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "binary-request");
+        thread.setDaemon(true);
+        return thread;
+    });
     private static final String CONFIG_FILE = "configSlave.properties";
 
     public static void main(String[] args) {
@@ -52,6 +84,16 @@ public class SlaveServer {
         this.commandPort = commandPort;
         BROADCAST_PORT = Integer.parseInt(config.getProperty("broadcastPort", "1234"));
         STORAGE_DIRECTORY = config.getProperty("storageDirectory", "slave_storage");
+        masterResponsePort = Integer.parseInt(config.getProperty("masterResponsePort", "1235"));
+        heartbeatIntervalMs = Long.parseLong(config.getProperty("heartbeatIntervalMs", "2000"));
+        zeroCopy = Boolean.parseBoolean(config.getProperty("zeroCopy", "true"));
+        directReceive = Boolean.parseBoolean(config.getProperty("directReceive", "true"));
+        handlerExecutor = new HandlerExecutor(config.getProperty("executionMode", "thread"),
+                Integer.parseInt(config.getProperty("maxHandlerThreads", "64")), "slave-handler");
+        String masterHost = config.getProperty("masterHost");
+        if (masterHost != null && !masterHost.isBlank()) {
+            masterAddress = InetAddress.getByName(masterHost.trim());
+        }
 
         System.out.println("SlaveServer démarré sur le port " + commandPort);
         System.out.println("Port de broadcast: " + BROADCAST_PORT);
@@ -62,11 +104,23 @@ public class SlaveServer {
             throw new IOException("Impossible de créer le répertoire de stockage");
         }
 
+        // Parties déjà présentes sur le disque
+        File[] stored = storageDir.listFiles(File::isFile);
+        if (stored != null) {
+            for (File file : stored) {
+                fileMap.put(file.getName(), file.getAbsolutePath());
+                checksumInBackground(file.getName());
+            }
+        }
+
         Thread broadcastListener = new Thread(this::listenForBroadcasts);
         Thread requestListener = new Thread(() -> listenForRequests(commandPort));
+        Thread heartbeatSender = new Thread(this::sendHeartbeats);
+        heartbeatSender.setDaemon(true);
 
         broadcastListener.start();
         requestListener.start();
+        heartbeatSender.start();
 
         try {
             broadcastListener.join();
@@ -93,6 +147,7 @@ public class SlaveServer {
                     InetAddress masterAddress = packet.getAddress();
 
                     if ("DISCOVER_SLAVES".equalsIgnoreCase(message.trim())) {
+                        this.masterAddress = masterAddress;
                         respondToMaster(masterAddress, commandPort);
                     }
                 } catch (IOException e) {
@@ -107,9 +162,9 @@ public class SlaveServer {
 
     private void respondToMaster(InetAddress masterAddress, int slavePort) {
         try (DatagramSocket socket = new DatagramSocket()) {
-            String response = "SLAVE_AVAILABLE:" + slavePort;
+            String response = "SLAVE_AVAILABLE:" + slavePort + ":" + loadReport();
             byte[] buffer = response.getBytes();
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, masterAddress, 1235);
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, masterAddress, masterResponsePort);
             socket.send(packet);
             System.out.println("Réponse envoyée au Master avec le port: " + slavePort);
         } catch (IOException e) {
@@ -117,24 +172,68 @@ public class SlaveServer {
         }
     }
 
+    // Espace libre, commandes en cours, nombre de parties stockées et version du rapport de blocs, annoncés au master
+    private String loadReport() {
+        long freeBytes = new File(STORAGE_DIRECTORY).getUsableSpace();
+        long version;
+        synchronized (partChanges) {
+            version = reportVersion;
+        }
+        return freeBytes + ":" + inFlight.get() + ":" + fileMap.size() + ":" + reportEpoch + ":" + version;
+    }
+
+    // Heartbeats périodiques vers le master, qui tient ainsi à jour son registre de slaves
+    private void sendHeartbeats() {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            while (running) {
+                InetAddress master = masterAddress;
+                if (master != null) {
+                    byte[] buffer = ("HEARTBEAT:" + commandPort + ":" + loadReport()).getBytes();
+                    try {
+                        socket.send(new DatagramPacket(buffer, buffer.length, master, masterResponsePort));
+                    } catch (IOException e) {
+                        System.err.println("Échec de l'envoi du heartbeat : " + e.getMessage());
+                    }
+                }
+                Thread.sleep(heartbeatIntervalMs);
+            }
+        } catch (SocketException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void listenForRequests(int port) {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        // Sockets acceptées par un canal : elles gardent leur SocketChannel, cible de transferTo
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
             System.out.println("En attente des connexions sur le port " + port);
             while (running) {
-                Socket clientSocket = serverSocket.accept();
-                new Thread(() -> handlePersistentConnection(clientSocket)).start();
+                Socket clientSocket = serverChannel.accept().socket();
+                handlerExecutor.execute(() -> handlePersistentConnection(clientSocket));
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
     private void handlePersistentConnection(Socket socket) {
-        try (DataInputStream dis = new DataInputStream(socket.getInputStream());
+        try (DataInputStream dis = directReceive
+                ? new FileTransferUtils.ChannelDataInputStream(socket)
+                : new DataInputStream(new BufferedInputStream(socket.getInputStream()));
              DataOutputStream dos = new DataOutputStream(socket.getOutputStream())) {
 
             String clientAddress = socket.getInetAddress().getHostAddress();
             System.out.println("Établissement d'une connexion persistante avec : " + clientAddress);
 
+            if (BinaryProtocol.detect(dis)) {
+                System.out.println("Protocole binaire avec : " + clientAddress);
+                BinaryProtocol.serve(dis, socket.getOutputStream(), binaryExecutor, this::handleBinaryRequest);
+                return;
+            }
+
             while (running && !socket.isClosed()) {
                 try {
                     String command = dis.readUTF();
@@ -144,22 +243,56 @@ public class SlaveServer {
                         System.out.println("Déconnexion demandée par " + clientAddress);
                         break;
                     }
+                    if ("STATS".equals(command)) {
+                        dos.writeUTF(handlerExecutor.describe() + " commandesEnCours=" + inFlight.get());
+                        dos.flush();
+                        continue;
+                    }
+                    if ("PING".equals(command)) {
+                        // Vérification d'une connexion persistante du master avant réutilisation
+                        dos.writeUTF("PONG");
+                        dos.flush();
+                        continue;
+                    }
 
-                    switch (command) {
-                        case "ADD_PART":
-                            receivePart(dos, dis);
-                            break;
-                        case "GET_PART":
-                            sendPart(dos, dis);
-                            break;
-                        case "REMOVE_PART":
-                            removePart(dos, dis);
-                            break;
-                        case "CHECK":
-                            checkFile(dis, dos);
-                            break;
-                        default:
-                            System.out.println("Commande inconnue reçue de " + clientAddress + " : " + command);
+                    inFlight.incrementAndGet();
+                    try {
+                        switch (command) {
+                            case "ADD_PART":
+                                receivePart(dos, dis);
+                                break;
+                            case "ADD_PART_STREAM":
+                                receivePartStream(dos, dis);
+                                break;
+                            case "ADD_PART_CHAIN":
+                                receivePartChain(dos, dis);
+                                break;
+                            case "REPLICATE_PART":
+                                replicatePart(dos, dis);
+                                break;
+                            case "GET_PART":
+                                sendPart(dos, dis, socket.getChannel());
+                                break;
+                            case "GET_PART_RANGE":
+                                sendPartRange(dos, dis, socket.getChannel());
+                                break;
+                            case "REMOVE_PART":
+                                removePart(dos, dis);
+                                break;
+                            case "DELETE_PART":
+                                deleteSinglePart(dos, dis);
+                                break;
+                            case "CHECK":
+                                checkFile(dis, dos);
+                                break;
+                            case "BLOCK_REPORT":
+                                sendBlockReport(dos, dis);
+                                break;
+                            default:
+                                System.out.println("Commande inconnue reçue de " + clientAddress + " : " + command);
+                        }
+                    } finally {
+                        inFlight.decrementAndGet();
                     }
 
                     dos.flush();
@@ -200,11 +333,138 @@ public class SlaveServer {
         dos.writeInt(count);
     }
 
+    private void partStored(File file, String checksum) {
+        fileMap.put(file.getName(), file.getAbsolutePath());
+        if (checksum != null) {
+            partChecksums.put(file.getName(), checksum);
+        } else {
+            partChecksums.remove(file.getName());
+        }
+        recordPartChange(file.getName(), true);
+        if (checksum == null) {
+            checksumInBackground(file.getName());
+        }
+    }
+
+    /**
+     * Calcule le checksum de la partie sur le thread part-checksums puis l'annonce comme un
+     * changement : le rapport incrémental suivant le transmet au master.
+     */
+    private void checksumInBackground(String partName) {
+        checksummer.execute(() -> {
+            File partFile = new File(STORAGE_DIRECTORY, partName);
+            if (!partFile.isFile() || partChecksums.containsKey(partName)) {
+                return;
+            }
+            try {
+                String checksum = FileTransferUtils.calculateChecksum(partFile.getAbsolutePath());
+                if (partFile.isFile() && partChecksums.putIfAbsent(partName, checksum) == null) {
+                    recordPartChange(partName, true);
+                }
+            } catch (IOException e) {
+                System.err.println("Checksum de " + partName + " impossible : " + e.getMessage());
+            }
+        });
+    }
+
+    private void partRemoved(String partName) {
+        fileMap.remove(partName);
+        partChecksums.remove(partName);
+        recordPartChange(partName, false);
+    }
+
+    private void recordPartChange(String partName, boolean present) {
+        synchronized (partChanges) {
+            reportVersion++;
+            partChanges.addLast(new PartChange(reportVersion, partName, present));
+            if (partChanges.size() > MAX_PART_CHANGES) {
+                partChanges.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * BLOCK_REPORT (époque et version déjà connues du master) : rapport incrémental des parties
+     * ajoutées ou supprimées depuis cette version, ou rapport complet si le master ne connaît pas
+     * cette époque ou si les changements depuis sa version ne sont plus gardés.
+     * Réponse : époque, version, complet, nombre d'entrées, puis pour chacune présente, nom,
+     * et pour une partie présente sa taille et son checksum ("" s'il est encore en calcul : il
+     * suivra dans un rapport incrémental). Aucun checksum n'est calculé ici, pour que le rapport
+     * parte dans le délai de lecture du master quel que soit le volume stocké.
+     */
+    private void sendBlockReport(DataOutputStream dos, DataInputStream dis) throws IOException {
+        long knownEpoch = dis.readLong();
+        long knownVersion = dis.readLong();
+
+        Collection<String> partNames;
+        long version;
+        boolean full;
+        synchronized (partChanges) {
+            version = reportVersion;
+            long oldestKept = partChanges.isEmpty() ? version + 1 : partChanges.peekFirst().version;
+            full = knownEpoch != reportEpoch || knownVersion > version || oldestKept > knownVersion + 1;
+            if (full) {
+                partNames = new ArrayList<>(fileMap.keySet());
+            } else {
+                partNames = new LinkedHashSet<>();
+                for (PartChange change : partChanges) {
+                    if (change.version > knownVersion) {
+                        partNames.add(change.partName);
+                    }
+                }
+            }
+        }
+
+        // L'état de chaque partie est lu au moment de l'envoi : un rapport ne décrit jamais une partie disparue
+        dos.writeLong(reportEpoch);
+        dos.writeLong(version);
+        dos.writeBoolean(full);
+        dos.writeInt(partNames.size());
+        for (String partName : partNames) {
+            File partFile = new File(STORAGE_DIRECTORY, partName);
+            boolean present = partFile.isFile();
+            dos.writeBoolean(present);
+            dos.writeUTF(partName);
+            if (present) {
+                dos.writeLong(partFile.length());
+                dos.writeUTF(partChecksums.getOrDefault(partName, ""));
+            }
+        }
+        dos.flush();
+        System.out.println("Rapport de blocs " + (full ? "complet" : "incrémental") + " envoyé : " + partNames.size() + " entrée(s)");
+    }
+
+    // Checksum d'une partie, calculé une fois puis gardé ; null si la partie n'est plus lisible
+    private String partChecksum(File partFile) {
+        String checksum = partChecksums.get(partFile.getName());
+        if (checksum == null) {
+            try {
+                checksum = FileTransferUtils.calculateChecksum(partFile.getAbsolutePath());
+                partChecksums.put(partFile.getName(), checksum);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return checksum;
+    }
+
+    private static class PartChange {
+        final long version;
+        final String partName;
+        final boolean present;
+
+        PartChange(long version, String partName, boolean present) {
+            this.version = version;
+            this.partName = partName;
+            this.present = present;
+        }
+    }
+
     private void receivePart(DataOutputStream dos, DataInputStream dis) throws IOException {
         try {
             System.out.println("Réception d'une partie de fichier...");
             File file = FileTransferUtils.receiveFile(dis, STORAGE_DIRECTORY);
-            fileMap.put(file.getName(), file.getAbsolutePath());
+            partStored(file, null);
 
             // Envoyer confirmation au master
             dos.writeUTF("SUCCESS");
@@ -218,45 +478,390 @@ public class SlaveServer {
         }
     }
 
-    private void sendPart(DataOutputStream dos, DataInputStream dis) throws IOException {
+    private void receivePartStream(DataOutputStream dos, DataInputStream dis) throws IOException {
+        try {
+            File file = FileTransferUtils.receiveStreamedFile(dis, STORAGE_DIRECTORY);
+            partStored(file, null);
+
+            dos.writeUTF("SUCCESS");
+            dos.flush();
+        } catch (IOException e) {
+            dos.writeUTF("ERROR");
+            dos.flush();
+            throw e;
+        }
+    }
+
+    /**
+     * Réplication en chaîne : la partie est stockée localement et recopiée bloc par bloc
+     * vers le slave suivant de la chaîne. L'acquittement remonte la chaîne sous forme
+     * d'un indicateur de succès par slave (celui-ci en premier, puis les suivants).
+     */
+    private void receivePartChain(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String partName = dis.readUTF();
+        long partLength = dis.readLong();
+        int downstreamCount = dis.readInt();
+        List<String> downstreamIps = new ArrayList<>();
+        List<Integer> downstreamPorts = new ArrayList<>();
+        for (int i = 0; i < downstreamCount; i++) {
+            downstreamIps.add(dis.readUTF());
+            downstreamPorts.add(dis.readInt());
+        }
+
+        boolean[] flags = new boolean[1 + downstreamCount];
+        ChainForwarder forwarder = openForwarder(partName, partLength, downstreamIps, downstreamPorts);
+        try {
+            File partFile = new File(STORAGE_DIRECTORY, partName);
+            String receivedChecksum = FileTransferUtils.receiveStreamedData(dis, partFile, partLength, forwarder);
+            String expectedChecksum = dis.readUTF();
+
+            if (forwarder != null) {
+                forwarder.finish(expectedChecksum, flags);
+            }
+
+            try {
+                FileTransferUtils.verifyChecksum(partFile, expectedChecksum, receivedChecksum);
+                partStored(partFile, receivedChecksum);
+                flags[0] = true;
+                System.out.println("Partie reçue en chaîne : " + partName);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        } finally {
+            if (forwarder != null) {
+                forwarder.close();
+            }
+        }
+
+        dos.writeInt(flags.length);
+        for (boolean flag : flags) {
+            dos.writeBoolean(flag);
+        }
+        dos.flush();
+    }
+
+    // Ouvre la connexion vers le premier slave joignable de la suite de la chaîne
+    private ChainForwarder openForwarder(String partName, long partLength, List<String> ips, List<Integer> ports) {
+        for (int i = 0; i < ips.size(); i++) {
+            try {
+                Socket socket = new Socket(ips.get(i), ports.get(i));
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream(), FileTransferUtils.STREAM_BUFFER_SIZE));
+                out.writeUTF("ADD_PART_CHAIN");
+                out.writeUTF(partName);
+                out.writeLong(partLength);
+                out.writeInt(ips.size() - i - 1);
+                for (int k = i + 1; k < ips.size(); k++) {
+                    out.writeUTF(ips.get(k));
+                    out.writeInt(ports.get(k));
+                }
+                System.out.println("Transfert en chaîne de " + partName + " vers " + ips.get(i) + ":" + ports.get(i));
+                return new ChainForwarder(socket, out, 1 + i);
+            } catch (IOException e) {
+                System.err.println("Slave suivant injoignable " + ips.get(i) + ":" + ports.get(i) + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copie vers le slave suivant. Une erreur d'écriture désactive la copie sans
+     * interrompre le stockage local : les slaves suivants seront simplement signalés en échec.
+     */
+    private static class ChainForwarder extends OutputStream {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final int firstFlag;
+        private boolean broken = false;
+
+        ChainForwarder(Socket socket, DataOutputStream out, int firstFlag) {
+            this.socket = socket;
+            this.out = out;
+            this.firstFlag = firstFlag;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            if (broken) return;
+            try {
+                out.write(buffer, offset, length);
+            } catch (IOException e) {
+                System.err.println("Transfert en chaîne interrompu : " + e.getMessage());
+                broken = true;
+            }
+        }
+
+        // Transmet le checksum puis recopie l'acquittement des slaves suivants dans flags
+        void finish(String checksum, boolean[] flags) {
+            if (broken) return;
+            try {
+                out.writeUTF(checksum);
+                out.flush();
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    boolean flag = in.readBoolean();
+                    if (firstFlag + i < flags.length) {
+                        flags[firstFlag + i] = flag;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Acquittement de la chaîne perdu : " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Recopie d'une partie locale vers d'autres slaves, demandée par le master pour restaurer
+     * le nombre de répliques. Les cibles reçoivent un ADD_PART_CHAIN ordinaire, envoyé au plus à
+     * maxBytesPerSecond octets par seconde (0 : sans limite). Réponse : un indicateur par cible.
+     */
+    private void replicatePart(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String partName = dis.readUTF();
+        int targetCount = dis.readInt();
+        List<String> targetIps = new ArrayList<>();
+        List<Integer> targetPorts = new ArrayList<>();
+        for (int i = 0; i < targetCount; i++) {
+            targetIps.add(dis.readUTF());
+            targetPorts.add(dis.readInt());
+        }
+        long maxBytesPerSecond = dis.readLong();
+
+        boolean[] flags = new boolean[1 + targetCount];
+        File partFile = new File(STORAGE_DIRECTORY, partName);
+        if (!partFile.isFile()) {
+            System.out.println("Erreur : Partition manquante - " + partName);
+        } else {
+            ChainForwarder forwarder = openForwarder(partName, partFile.length(), targetIps, targetPorts);
+            if (forwarder != null) {
+                try {
+                    String checksum = copyThrottled(partFile, forwarder, maxBytesPerSecond);
+                    forwarder.finish(checksum, flags);
+                } finally {
+                    forwarder.close();
+                }
+            }
+        }
+
+        dos.writeInt(targetCount);
+        for (int i = 1; i < flags.length; i++) {
+            dos.writeBoolean(flags[i]);
+        }
+        dos.flush();
+    }
+
+    // Copie le fichier dans out sans dépasser le débit demandé ; retourne son checksum
+    private String copyThrottled(File file, OutputStream out, long maxBytesPerSecond) throws IOException {
+        MessageDigest digest = FileTransferUtils.newDigest();
+        byte[] buffer = new byte[FileTransferUtils.STREAM_BUFFER_SIZE];
+        long start = System.nanoTime();
+        long sent = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), FileTransferUtils.STREAM_BUFFER_SIZE)) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+                digest.update(buffer, 0, bytesRead);
+                sent += bytesRead;
+                if (maxBytesPerSecond > 0) {
+                    long aheadMs = sent * 1000 / maxBytesPerSecond - (System.nanoTime() - start) / 1_000_000;
+                    if (aheadMs > 0) {
+                        try {
+                            Thread.sleep(aheadMs);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Copie interrompue");
+                        }
+                    }
+                }
+            }
+        }
+        return FileTransferUtils.toHex(digest.digest());
+    }
+
+    /**
+     * Même format que FileTransferUtils.sendFile (nom, taille, checksum, données) suivi de "SUCCESS".
+     * Le checksum vient du cache des parties au lieu d'une relecture complète, et les données
+     * passent du fichier à la socket par transferTo quand c'est possible.
+     */
+    private void sendPart(DataOutputStream dos, DataInputStream dis, SocketChannel channel) throws IOException {
         String partName = dis.readUTF();
         File partFile = new File(STORAGE_DIRECTORY, partName);
 
         synchronized (partName.intern()) {
-            if (partFile.exists()) {
-                FileTransferUtils.sendFile(dos, partFile.getAbsolutePath());
+            String checksum = partFile.isFile() ? partChecksum(partFile) : null;
+            if (checksum != null) {
+                long length = partFile.length();
+                dos.writeUTF(partName);
+                dos.writeLong(length);
+                dos.writeUTF(checksum);
+                sendPartData(partFile, 0, length, dos, channel);
                 dos.writeUTF("SUCCESS");
             } else {
+                // Même en-tête qu'un envoi normal, avec une taille -1 pour signaler l'absence
+                dos.writeUTF(partName);
                 dos.writeLong(-1);
                 System.out.println("Erreur : Partition manquante - " + partName);
             }
         }
     }
 
+    /**
+     * Envoie length octets de la partie à partir de offset (moins si la partie est plus courte) :
+     * taille réelle, données, puis "SUCCESS". Taille -1 si la partie ou la position n'existe pas.
+     */
+    private void sendPartRange(DataOutputStream dos, DataInputStream dis, SocketChannel channel) throws IOException {
+        String partName = dis.readUTF();
+        long offset = dis.readLong();
+        long length = dis.readLong();
+        File partFile = new File(STORAGE_DIRECTORY, partName);
+
+        if (!isValidRange(partFile, offset, length)) {
+            dos.writeLong(-1);
+            System.out.println("Erreur : Plage indisponible - " + partName + " @" + offset);
+            return;
+        }
+        dos.writeLong(Math.min(length, partFile.length() - offset));
+        sendPartData(partFile, offset, length, dos, channel);
+        dos.writeUTF("SUCCESS");
+    }
+
+    // Données d'une partie vers la connexion : transferTo (sendfile) si possible, sinon copie par tampon
+    private void sendPartData(File partFile, long offset, long length, DataOutputStream dos, SocketChannel channel)
+            throws IOException {
+        if (!zeroCopy || channel == null) {
+            copyPartRange(partFile, offset, length, dos);
+            return;
+        }
+        dos.flush(); // L'en-tête part avant les données écrites directement dans le canal
+        FileTransferUtils.transferFile(partFile, offset, length, channel);
+    }
+
+    private boolean isValidRange(File partFile, long offset, long length) {
+        return partFile.isFile() && offset >= 0 && length >= 0 && offset <= partFile.length();
+    }
+
+    private void copyPartRange(File partFile, long offset, long length, OutputStream out) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(partFile, "r")) {
+            long remaining = Math.min(length, raf.length() - offset);
+            raf.seek(offset);
+
+            byte[] buffer = new byte[FileTransferUtils.STREAM_BUFFER_SIZE];
+            while (remaining > 0) {
+                int bytesRead = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (bytesRead == -1) {
+                    throw new EOFException("Partie tronquée : " + partFile.getName());
+                }
+                out.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+        }
+    }
+
+    /**
+     * Requêtes du protocole binaire ; plusieurs peuvent être traitées en même temps pour une
+     * même connexion du master.
+     */
+    private void handleBinaryRequest(BinaryProtocol.Frame request, BinaryProtocol.Responder responder) throws IOException {
+        DataInputStream in = request.input();
+        inFlight.incrementAndGet();
+        try {
+            switch (request.opcode) {
+                case BinaryProtocol.OP_PING:
+                    break;
+                case BinaryProtocol.OP_STATS:
+                    responder.body(BinaryProtocol.STATUS_OK)
+                            .writeUTF(handlerExecutor.describe() + " commandesEnCours=" + inFlight.get());
+                    break;
+                case BinaryProtocol.OP_GET_PART_RANGE: {
+                    String partName = in.readUTF();
+                    long offset = in.readLong();
+                    long length = in.readLong();
+                    File partFile = new File(STORAGE_DIRECTORY, partName);
+                    if (!partFile.isFile()) {
+                        responder.fail(BinaryProtocol.STATUS_NOT_FOUND, "Partie absente : " + partName);
+                    } else if (!isValidRange(partFile, offset, length)) {
+                        responder.fail(BinaryProtocol.STATUS_INVALID, "Plage invalide : " + partName + " @" + offset);
+                    } else {
+                        // Corps : longueur réelle puis les octets
+                        DataOutputStream out = responder.body(BinaryProtocol.STATUS_OK);
+                        out.writeLong(Math.min(length, partFile.length() - offset));
+                        copyPartRange(partFile, offset, length, out);
+                    }
+                    break;
+                }
+                case BinaryProtocol.OP_REMOVE_PART:
+                    if (!removePartFiles(in.readUTF())) {
+                        responder.fail(BinaryProtocol.STATUS_ERROR, "Échec de la suppression");
+                    }
+                    break;
+                default:
+                    responder.fail(BinaryProtocol.STATUS_UNKNOWN_OPCODE, "Opcode inconnu : " + request.opcode);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
     private void removePart(DataOutputStream dos, DataInputStream dis) throws IOException {
-        String fileName = dis.readUTF();
+        boolean success = removePartFiles(dis.readUTF());
+        dos.writeUTF(success ? "SUCCESS" : "ERROR");
+        if (success) {
+            System.out.println("Partie(s) supprimée(s) avec succès !");
+        }
+    }
+
+    // Supprime une seule partie, déplacée vers un autre slave par le rééquilibrage du master
+    private void deleteSinglePart(DataOutputStream dos, DataInputStream dis) throws IOException {
+        String partName = dis.readUTF();
+        File partFile = new File(STORAGE_DIRECTORY, partName);
+        boolean success;
+        synchronized (partName.intern()) {
+            success = !partFile.exists() || partFile.delete();
+            if (success) {
+                partRemoved(partName);
+            }
+        }
+        System.out.println((success ? "Partie supprimée : " : "Échec de la suppression de la partie : ") + partName);
+        dos.writeUTF(success ? "SUCCESS" : "ERROR");
+    }
+
+    // Supprime toutes les parties stockées du fichier
+    private boolean removePartFiles(String fileName) {
         System.out.println("Suppression de la partie : " + fileName);
 
         synchronized (fileName.intern()) {
             boolean success = false;
             File storageDir = new File(STORAGE_DIRECTORY);
-            File[] files = storageDir.listFiles((dir, name) -> name.startsWith(fileName + ".part"));
+            // Uniquement "<fichier>.partN" : "a.txt" ne doit pas emporter les parties de "a.txt.part2.bak"
+            Pattern partName = Pattern.compile(Pattern.quote(fileName) + "\\.part\\d+");
+            File[] files = storageDir.listFiles((dir, name) -> partName.matcher(name).matches());
 
             if (files != null) {
                 success = true;
                 for (File file : files) {
-                    if (!file.delete()) {
+                    if (file.delete()) {
+                        partRemoved(file.getName());
+                    } else {
                         success = false;
                         System.err.println("Échec de la suppression du fichier : " + file.getName());
                     }
                 }
             }
-
-            dos.writeUTF(success ? "SUCCESS" : "ERROR");
-            if (success) {
-                fileMap.remove(fileName);
-                System.out.println("Partie(s) supprimée(s) avec succès !");
-            }
+            return success;
         }
     }
 }
\ No newline at end of file
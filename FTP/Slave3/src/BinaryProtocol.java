@@ -0,0 +1,554 @@
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Protocole binaire versionné, proposé à côté du protocole texte (writeUTF) sur les mêmes ports.
+ * Ouverture : le client envoie MAGIC (2 octets) puis sa version (1 octet), le serveur répond de même.
+ * Trame : opcode (1 octet), drapeaux (1), statut (1), identifiant de requête (4), longueur (4), données.
+ * Une requête tient dans une trame. Une réponse est une suite de trames de même identifiant
+ * dont les données mises bout à bout forment le corps ; la dernière porte FLAG_END.
+ * Plusieurs requêtes peuvent être en cours sur une connexion : leurs réponses s'entrelacent
+ * trame par trame et sont rattachées à leur requête par l'identifiant.
+ * Ce fichier est identique dans le client, le master et les slaves.
+ */
+public final class BinaryProtocol {
+    public static final int MAGIC = 0xF7A5; // Jamais la longueur d'un nom de commande du protocole texte
+    public static final int VERSION = 1;
+    public static final int MAX_PAYLOAD = 1024 * 1024;
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    public static final int FLAG_END = 1;
+
+    // Opcodes : client <-> master
+    public static final int OP_PING = 1;
+    public static final int OP_STATS = 2;
+    public static final int OP_LIST = 3;
+    public static final int OP_GET_MAP = 4;
+    public static final int OP_GET_RANGE = 5;
+    public static final int OP_REMOVE = 6;
+    public static final int OP_LIST_PAGE = 7;
+    // Opcodes : master <-> slave
+    public static final int OP_GET_PART_RANGE = 20;
+    public static final int OP_REMOVE_PART = 21;
+
+    // Statuts typés des réponses
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_NOT_FOUND = 1;
+    public static final int STATUS_INVALID = 2;
+    public static final int STATUS_UNAVAILABLE = 3;
+    public static final int STATUS_ERROR = 4;
+    public static final int STATUS_UNKNOWN_OPCODE = 5;
+    public static final int STATUS_BUSY = 6; // Données : message puis délai conseillé avant de réessayer (long, ms)
+
+    private BinaryProtocol() {
+    }
+
+    public static String statusName(int status) {
+        switch (status) {
+            case STATUS_OK: return "OK";
+            case STATUS_NOT_FOUND: return "NOT_FOUND";
+            case STATUS_INVALID: return "INVALID";
+            case STATUS_UNAVAILABLE: return "UNAVAILABLE";
+            case STATUS_ERROR: return "ERROR";
+            case STATUS_UNKNOWN_OPCODE: return "UNKNOWN_OPCODE";
+            case STATUS_BUSY: return "BUSY";
+            default: return "STATUS_" + status;
+        }
+    }
+
+    public interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Données d'une trame, écrites avec les méthodes habituelles de DataOutputStream
+    public static byte[] payload(PayloadWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writer.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Vrai si la connexion commence par l'ouverture binaire. Le flux doit supporter mark/reset :
+     * rien n'est consommé, le protocole texte peut lire la commande normalement sinon.
+     */
+    public static boolean detect(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return first >= 0 && second >= 0 && ((first << 8) | second) == MAGIC;
+    }
+
+    public static class Frame {
+        public final int opcode;
+        public final int flags;
+        public final int status;
+        public final int requestId;
+        public final byte[] payload;
+
+        Frame(int opcode, int flags, int status, int requestId, byte[] payload) {
+            this.opcode = opcode;
+            this.flags = flags;
+            this.status = status;
+            this.requestId = requestId;
+            this.payload = payload;
+        }
+
+        public boolean isEnd() {
+            return (flags & FLAG_END) != 0;
+        }
+
+        public DataInputStream input() {
+            return new DataInputStream(new ByteArrayInputStream(payload));
+        }
+    }
+
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int opcode = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        int status = in.readUnsignedByte();
+        int requestId = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Trame invalide : longueur " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(opcode, flags, status, requestId, payload);
+    }
+
+    /**
+     * Écriture des trames d'une connexion : une trame est écrite d'un seul tenant,
+     * quel que soit le nombre de requêtes qui répondent en même temps.
+     */
+    public static class FrameWriter {
+        private final DataOutputStream out;
+
+        public FrameWriter(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, CHUNK_SIZE + 16));
+        }
+
+        public synchronized void write(int opcode, int flags, int status, int requestId,
+                                       byte[] payload, int offset, int length) throws IOException {
+            out.writeByte(opcode);
+            out.writeByte(flags);
+            out.writeByte(status);
+            out.writeInt(requestId);
+            out.writeInt(length);
+            out.write(payload, offset, length);
+            out.flush();
+        }
+
+        synchronized void writeHandshake() throws IOException {
+            out.writeShort(MAGIC);
+            out.writeByte(VERSION);
+            out.flush();
+        }
+    }
+
+    // Lit l'ouverture de l'autre extrémité et retourne sa version
+    static int readHandshake(DataInputStream in) throws IOException {
+        int magic = in.readUnsignedShort();
+        int version = in.readUnsignedByte();
+        if (magic != MAGIC) {
+            throw new IOException("Ouverture du protocole binaire invalide");
+        }
+        return version;
+    }
+
+    // ---------------------------------------------------------------- Côté serveur
+
+    public interface RequestHandler {
+        void handle(Frame request, Responder responder) throws IOException;
+    }
+
+    /**
+     * Sert une connexion binaire : chaque requête lue est traitée par l'executor pendant
+     * que la lecture continue, d'où le traitement simultané des requêtes d'une même connexion.
+     * Retourne quand le client ferme la connexion.
+     */
+    public static void serve(DataInputStream in, OutputStream out, Executor executor, RequestHandler handler) throws IOException {
+        int clientVersion = readHandshake(in);
+        FrameWriter writer = new FrameWriter(out);
+        writer.writeHandshake();
+        if (clientVersion != VERSION) {
+            throw new IOException("Version du protocole binaire non supportée : " + clientVersion);
+        }
+
+        while (true) {
+            Frame request;
+            try {
+                request = readFrame(in);
+            } catch (EOFException e) {
+                return;
+            }
+            Responder responder = new Responder(writer, request);
+            executor.execute(() -> {
+                try {
+                    handler.handle(request, responder);
+                    responder.finish();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Erreur lors du traitement de la requête " + request.requestId + " : " + e.getMessage());
+                    responder.abort(e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Réponse à une requête : soit une trame d'erreur (fail), soit un corps écrit en flux (body)
+     * et découpé en trames de CHUNK_SIZE octets au plus.
+     */
+    public static class Responder {
+        private final FrameWriter writer;
+        private final Frame request;
+        private ChunkedOutput body;
+        private boolean ended = false;
+
+        Responder(FrameWriter writer, Frame request) {
+            this.writer = writer;
+            this.request = request;
+        }
+
+        public void fail(int status, String message) throws IOException {
+            if (ended || body != null) {
+                throw new IllegalStateException("Réponse déjà commencée");
+            }
+            ended = true;
+            byte[] data = payload(out -> out.writeUTF(message == null ? "" : message));
+            writer.write(request.opcode, FLAG_END, status, request.requestId, data, 0, data.length);
+        }
+
+        // Refus temporaire : le client peut réessayer après retryAfterMs
+        public void busy(long retryAfterMs) throws IOException {
+            if (ended || body != null) {
+                throw new IllegalStateException("Réponse déjà commencée");
+            }
+            ended = true;
+            byte[] data = payload(out -> {
+                out.writeUTF("Serveur occupé, réessayer dans " + retryAfterMs + " ms");
+                out.writeLong(retryAfterMs);
+            });
+            writer.write(request.opcode, FLAG_END, STATUS_BUSY, request.requestId, data, 0, data.length);
+        }
+
+        public DataOutputStream body(int status) {
+            if (ended || body != null) {
+                throw new IllegalStateException("Réponse déjà commencée");
+            }
+            body = new ChunkedOutput(status);
+            return new DataOutputStream(body);
+        }
+
+        // Dernière trame de la réponse ; une réponse sans corps est un simple OK
+        void finish() throws IOException {
+            if (ended) {
+                return;
+            }
+            if (body == null) {
+                body = new ChunkedOutput(STATUS_OK);
+            }
+            body.close();
+        }
+
+        // Après une erreur : les trames déjà parties ne peuvent être reprises, on termine la réponse en erreur
+        void abort(String message) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            try {
+                byte[] data = payload(out -> out.writeUTF(message == null ? "" : message));
+                writer.write(request.opcode, FLAG_END, STATUS_ERROR, request.requestId, data, 0, data.length);
+            } catch (IOException e) {
+                // Connexion perdue : le client le verra de son côté
+            }
+        }
+
+        private class ChunkedOutput extends OutputStream {
+            private final int status;
+            private final byte[] chunk = new byte[CHUNK_SIZE];
+            private int count = 0;
+
+            ChunkedOutput(int status) {
+                this.status = status;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                if (count == chunk.length) {
+                    emit(0);
+                }
+                chunk[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                while (length > 0) {
+                    if (count == chunk.length) {
+                        emit(0);
+                    }
+                    int copied = Math.min(length, chunk.length - count);
+                    System.arraycopy(data, offset, chunk, count, copied);
+                    count += copied;
+                    offset += copied;
+                    length -= copied;
+                }
+            }
+
+            private void emit(int flags) throws IOException {
+                writer.write(request.opcode, flags, status, request.requestId, chunk, 0, count);
+                count = 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!ended) {
+                    ended = true;
+                    emit(FLAG_END);
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- Côté client
+
+    /**
+     * Connexion cliente multiplexée : plusieurs appels peuvent être en cours en même temps,
+     * depuis des threads différents. Un thread lit les trames et les range dans la file de
+     * leur appel ; chaque file est bornée, les corps des appels simultanés doivent donc être
+     * lus en parallèle (ou les réponses être courtes). Un appel dont la réponse ne sera pas lue
+     * jusqu'au bout doit être annulé (Call.cancel) : ses trames sont alors jetées au lieu de
+     * bloquer le thread de lecture, et donc tous les autres appels de la connexion.
+     */
+    public static class Connection implements Closeable {
+        private static final int QUEUE_FRAMES = 64;
+
+        private final Socket socket;
+        private final FrameWriter writer;
+        private final Map<Integer, Call> calls = new ConcurrentHashMap<>();
+        private final AtomicInteger nextRequestId = new AtomicInteger();
+        private final long responseTimeoutMs;
+        private volatile boolean closed = false;
+
+        public Connection(Socket socket) throws IOException {
+            this(socket, 0);
+        }
+
+        /**
+         * responseTimeoutMs : attente maximale d'une trame de réponse (0 : sans limite).
+         * Le délai de lecture de la socket ne vaut que pour l'ouverture : le thread de lecture
+         * doit ensuite pouvoir attendre indéfiniment.
+         */
+        public Connection(Socket socket, long responseTimeoutMs) throws IOException {
+            this.socket = socket;
+            this.responseTimeoutMs = responseTimeoutMs;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), CHUNK_SIZE + 16));
+            this.writer = new FrameWriter(socket.getOutputStream());
+            writer.writeHandshake();
+            int serverVersion = readHandshake(in);
+            if (serverVersion != VERSION) {
+                socket.close();
+                throw new IOException("Version du protocole binaire du serveur non supportée : " + serverVersion);
+            }
+            socket.setSoTimeout(0);
+
+            Thread reader = new Thread(() -> readLoop(in), "binary-protocol-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        public Call call(int opcode, byte[] payload) throws IOException {
+            if (closed) {
+                throw new IOException("Connexion fermée");
+            }
+            int requestId = nextRequestId.incrementAndGet();
+            Call call = new Call(requestId);
+            calls.put(requestId, call);
+            try {
+                writer.write(opcode, FLAG_END, STATUS_OK, requestId, payload, 0, payload.length);
+            } catch (IOException e) {
+                calls.remove(requestId);
+                throw e;
+            }
+            return call;
+        }
+
+        public boolean isOpen() {
+            return !closed;
+        }
+
+        private void readLoop(DataInputStream in) {
+            try {
+                while (true) {
+                    Frame frame = readFrame(in);
+                    Call call = frame.isEnd() ? calls.remove(frame.requestId) : calls.get(frame.requestId);
+                    if (call != null) {
+                        deliver(call, frame);
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Connexion binaire interrompue : " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closed = true; // Les appels en attente le constatent dans take()
+            }
+        }
+
+        // File pleine : attend que l'appel soit lu, sauf s'il est annulé ou ne l'est plus depuis responseTimeoutMs
+        private void deliver(Call call, Frame frame) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + responseTimeoutMs;
+            while (!call.frames.offer(frame, 200, TimeUnit.MILLISECONDS)) {
+                if (call.cancelled) {
+                    return;
+                }
+                if (responseTimeoutMs > 0 && System.currentTimeMillis() > deadline) {
+                    System.err.println("Réponse à la requête " + call.requestId + " abandonnée : elle n'est plus lue");
+                    call.cancel();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Déjà fermée
+            }
+        }
+
+        /**
+         * Un appel en cours : status() attend la première trame de réponse,
+         * body() donne le corps de la réponse au fur et à mesure de son arrivée.
+         */
+        public class Call {
+            private final int requestId;
+            private final BlockingQueue<Frame> frames = new ArrayBlockingQueue<>(QUEUE_FRAMES);
+            private volatile boolean cancelled = false;
+            private Frame current;
+            private int firstStatus;
+            private int position;
+
+            Call(int requestId) {
+                this.requestId = requestId;
+            }
+
+            public int getRequestId() {
+                return requestId;
+            }
+
+            /**
+             * Abandonne la réponse : les trames déjà reçues et celles qui arrivent encore sont jetées.
+             * Sans effet sur un appel dont la réponse est complète.
+             */
+            public void cancel() {
+                cancelled = true;
+                calls.remove(requestId, this);
+                frames.clear();
+            }
+
+            public int status() throws IOException {
+                if (current == null) {
+                    current = take();
+                    firstStatus = current.status;
+                }
+                return firstStatus;
+            }
+
+            // Message d'une réponse en erreur (trame unique contenant un texte)
+            public String errorMessage() throws IOException {
+                status();
+                try {
+                    return current.input().readUTF();
+                } catch (EOFException e) {
+                    return statusName(current.status);
+                }
+            }
+
+            // Délai conseillé par une réponse STATUS_BUSY
+            public long retryAfterMs() throws IOException {
+                status();
+                DataInputStream in = current.input();
+                try {
+                    in.readUTF();
+                    return in.readLong();
+                } catch (EOFException e) {
+                    return 0;
+                }
+            }
+
+            public DataInputStream body() throws IOException {
+                status();
+                return new DataInputStream(new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        byte[] single = new byte[1];
+                        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+                    }
+
+                    @Override
+                    public int read(byte[] target, int offset, int length) throws IOException {
+                        if (length == 0) {
+                            return 0;
+                        }
+                        while (position == current.payload.length) {
+                            if (current.isEnd()) {
+                                return -1;
+                            }
+                            current = take();
+                            position = 0;
+                            if (current.status != firstStatus) {
+                                // Le serveur a rencontré une erreur au milieu du corps
+                                throw new IOException("Réponse interrompue par le serveur : " + current.input().readUTF());
+                            }
+                        }
+                        int count = Math.min(length, current.payload.length - position);
+                        System.arraycopy(current.payload, position, target, offset, count);
+                        position += count;
+                        return count;
+                    }
+                });
+            }
+
+            private Frame take() throws IOException {
+                long deadline = System.currentTimeMillis() + responseTimeoutMs;
+                try {
+                    while (true) {
+                        Frame frame = frames.poll(200, TimeUnit.MILLISECONDS);
+                        if (frame != null) {
+                            return frame;
+                        }
+                        if (cancelled) {
+                            throw new IOException("Requête " + requestId + " annulée");
+                        }
+                        if (closed && frames.isEmpty()) {
+                            cancel();
+                            throw new IOException("Connexion binaire fermée avant la fin de la réponse");
+                        }
+                        if (responseTimeoutMs > 0 && System.currentTimeMillis() > deadline) {
+                            cancel();
+                            throw new SocketTimeoutException("Pas de réponse à la requête " + requestId);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Le lecteur de la réponse s'en va : ses trames ne doivent pas bloquer la connexion
+                    cancel();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Attente de la réponse interrompue");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exécution des handlers de connexion selon executionMode :
+ * thread (un thread plateforme par connexion, comportement historique),
+ * virtual (un thread virtuel par connexion : les E/S bloquantes ne coûtent presque rien)
+ * ou pool (au plus maxThreads threads plateforme ; quand tous sont occupés, l'acceptation
+ * des connexions attend qu'un handler se termine).
+ * Compte les handlers vivants, le pic et le total pour la commande STATS.
+ */
+public class HandlerExecutor {
+    private final String mode;
+    private final String name;
+    private final int maxThreads;
+    private final ExecutorService pool;
+    private final Semaphore poolSlots;
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+
+    public HandlerExecutor(String mode, int maxThreads, String name) {
+        this.mode = ("virtual".equalsIgnoreCase(mode) || "pool".equalsIgnoreCase(mode)) ? mode.toLowerCase() : "thread";
+        this.name = name;
+        this.maxThreads = Math.max(1, maxThreads);
+        if ("pool".equals(this.mode)) {
+            AtomicInteger counter = new AtomicInteger();
+            this.pool = Executors.newFixedThreadPool(this.maxThreads,
+                    runnable -> new Thread(runnable, name + "-" + counter.incrementAndGet()));
+            this.poolSlots = new Semaphore(this.maxThreads);
+        } else {
+            this.pool = null;
+            this.poolSlots = null;
+        }
+        System.out.println("Exécution des handlers : " + describeMode());
+    }
+
+    /**
+     * Lance le handler d'une connexion. En mode pool, bloque tant qu'aucun thread n'est libre,
+     * pour ne pas empiler des connexions persistantes qu'aucun thread ne pourrait servir.
+     */
+    public void execute(Runnable handler) throws InterruptedException {
+        Runnable counted = () -> {
+            int current = live.incrementAndGet();
+            peak.accumulateAndGet(current, Math::max);
+            started.incrementAndGet();
+            try {
+                handler.run();
+            } finally {
+                live.decrementAndGet();
+                if (poolSlots != null) {
+                    poolSlots.release();
+                }
+            }
+        };
+
+        switch (mode) {
+            case "virtual":
+                Thread.ofVirtual().name(name + "-virtual").start(counted);
+                break;
+            case "pool":
+                poolSlots.acquire();
+                try {
+                    pool.execute(counted);
+                } catch (RejectedExecutionException e) {
+                    poolSlots.release();
+                    throw e;
+                }
+                break;
+            default:
+                new Thread(counted).start();
+        }
+    }
+
+    public int getLiveHandlers() {
+        return live.get();
+    }
+
+    public int getPeakHandlers() {
+        return peak.get();
+    }
+
+    public long getStartedHandlers() {
+        return started.get();
+    }
+
+    private String describeMode() {
+        return "pool".equals(mode) ? "pool (" + maxThreads + " threads)" : mode;
+    }
+
+    // Ligne renvoyée par la commande STATS
+    public String describe() {
+        return "mode=" + describeMode() + " handlersActifs=" + live.get() + " pic=" + peak.get()
+                + " total=" + started.get();
+    }
+}